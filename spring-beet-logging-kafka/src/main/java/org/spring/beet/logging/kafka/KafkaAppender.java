@@ -18,17 +18,56 @@ package org.spring.beet.logging.kafka;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.core.Appender;
 import ch.qos.logback.core.spi.AppenderAttachableImpl;
+import ch.qos.logback.core.spi.ContextAware;
+import ch.qos.logback.core.spi.LifeCycle;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
 import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.spring.beet.logging.kafka.delivery.CircuitBreaker;
 import org.spring.beet.logging.kafka.delivery.FailedDeliveryCallback;
+import org.spring.beet.logging.kafka.delivery.SpillingDeliveryStrategy;
 
+/**
+ * Appender sending events to a Kafka topic, events which cannot be delivered go to the attached
+ * appenders.
+ *
+ * <p>By default {@code append} encodes, keys and sends the event on the logging thread, so the
+ * caller waits whenever {@code KafkaProducer.send} blocks for metadata or buffer space. With
+ * {@code async} the caller only prepares the event for deferred processing and offers it to a
+ * lock-free queue bounded to {@code queueSize} events, a sender thread encodes, keys and sends up
+ * to {@code batchSize} events per pass. When the queue is full the {@link OverflowPolicy} decides
+ * between dropping the event and waiting up to {@code blockTimeout}, dropped events are counted.
+ *
+ * <p>The producer is created on a background thread when the appender starts, no logging thread
+ * waits for DNS, connections or metadata. Events sent before it is ready are buffered and replayed
+ * in order, see {@link BackgroundProducer}.
+ *
+ * <p>After {@code failureThreshold} consecutive failed deliveries the {@link CircuitBreaker} opens
+ * and events go straight to the attached appenders without touching the producer. Every {@code
+ * probeInterval} a probe thread moves it to half-open, letting one event through to the brokers,
+ * and the circuit closes once a delivery is acknowledged. With a {@link SpillingDeliveryStrategy}
+ * the failures it spills count toward the circuit breaker as well, and while the circuit is open
+ * events go to its spill log instead of the attached appenders, so that they are replayed once the
+ * brokers are back; an acknowledged replay closes a half-open circuit.
+ */
 public class KafkaAppender<E> extends KafkaAppenderConfig<E> {
 
   /**
@@ -37,15 +76,44 @@ public class KafkaAppender<E> extends KafkaAppenderConfig<E> {
    */
   private static final String KAFKA_LOGGER_PREFIX = KafkaProducer.class.getPackage().getName()
       .replaceFirst("\\.producer$", "");
+  private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+  private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+  private static final long INIT_RETRY_MILLIS = 1000;
+  private static final long MAX_INIT_RETRY_MILLIS = 30000;
   private final AppenderAttachableImpl<E> aai = new AppenderAttachableImpl<E>();
   private final ConcurrentLinkedQueue<E> queue = new ConcurrentLinkedQueue<E>();
+  private final LongAdder appendedEvents = new LongAdder();
+  private final LongAdder appendNanos = new LongAdder();
+  private final LongAdder failedDeliveries = new LongAdder();
+  private final ConcurrentLinkedQueue<E> pending = new ConcurrentLinkedQueue<E>();
+  private final AtomicInteger pendingSize = new AtomicInteger();
+  private final LongAdder droppedEvents = new LongAdder();
   private final FailedDeliveryCallback<E> failedDeliveryCallback = new FailedDeliveryCallback<E>() {
     @Override
     public void onFailedDelivery(E evt, Throwable throwable) {
-      aai.appendLoopOnAppenders(evt);
+      onRetainedDelivery(evt, throwable);
+      fallback(evt);
+    }
+
+    @Override
+    public void onRetainedDelivery(E evt, Throwable throwable) {
+      if (throwable != null && circuitBreaker.recordFailure()) {
+        startProbe();
+      }
+    }
+
+    @Override
+    public void onSuccessfulDelivery(E evt) {
+      if (circuitBreaker.recordSuccess()) {
+        addInfo("Kafka appender [" + name + "] closed its circuit breaker");
+      }
     }
   };
-  private LazyProducer lazyProducer = null;
+  private volatile CircuitBreaker circuitBreaker = new CircuitBreaker(0);
+  private volatile Thread prober;
+  private volatile BackgroundProducer backgroundProducer = null;
+  private volatile Thread sender;
+  private volatile boolean sending;
 
   public KafkaAppender() {
     // setting these as config values sidesteps an unnecessary warning (minor bug in KafkaProducer)
@@ -77,21 +145,43 @@ public class KafkaAppender<E> extends KafkaAppenderConfig<E> {
       partition = null;
     }
 
-    lazyProducer = new LazyProducer();
+    if (deliveryStrategy instanceof LifeCycle) {
+      if (deliveryStrategy instanceof ContextAware
+          && ((ContextAware) deliveryStrategy).getContext() == null) {
+        ((ContextAware) deliveryStrategy).setContext(context);
+      }
+      ((LifeCycle) deliveryStrategy).start();
+    }
+    circuitBreaker = new CircuitBreaker(failureThreshold);
+    backgroundProducer = new BackgroundProducer();
+    backgroundProducer.start();
 
     super.start();
+    if (async) {
+      sending = true;
+      sender = new Thread(this::sendLoop, "kafka-appender-" + getName());
+      sender.setDaemon(true);
+      sender.start();
+    }
   }
 
   @Override
   public void stop() {
     super.stop();
-    if (lazyProducer != null && lazyProducer.isInitialized()) {
-      try {
-        lazyProducer.get().close();
-      } catch (KafkaException e) {
-        this.addWarn("Failed to shut down kafka producer: " + e.getMessage(), e);
-      }
-      lazyProducer = null;
+    stopSender();
+    Thread probing;
+    synchronized (this) {
+      probing = prober;
+      prober = null;
+    }
+    LockSupport.unpark(probing);
+    if (deliveryStrategy instanceof LifeCycle) {
+      // before the producer is closed, a strategy may still use it
+      ((LifeCycle) deliveryStrategy).stop();
+    }
+    if (backgroundProducer != null) {
+      backgroundProducer.close();
+      backgroundProducer = null;
     }
   }
 
@@ -132,6 +222,120 @@ public class KafkaAppender<E> extends KafkaAppenderConfig<E> {
 
   @Override
   protected void append(E e) {
+    long start = System.nanoTime();
+    Thread current = sender;
+    if (current != null) {
+      enqueue(e, current);
+    } else {
+      send(e);
+    }
+    appendNanos.add(System.nanoTime() - start);
+    appendedEvents.increment();
+  }
+
+  private void enqueue(E e, Thread current) {
+    if (e instanceof ILoggingEvent) {
+      ((ILoggingEvent) e).prepareForDeferredProcessing();
+    }
+    int size = reserve(e);
+    if (size == 0) {
+      droppedEvents.increment();
+      return;
+    }
+    pending.offer(e);
+    if (sender != current) {
+      // stop raced with this append, the final drain of the sender may have missed the event
+      drain(Integer.MAX_VALUE);
+    } else if (size == 1) {
+      // the sender may have found the queue empty and parked
+      LockSupport.unpark(current);
+    }
+  }
+
+  /**
+   * Takes a place in the queue according to the overflow policy.
+   *
+   * @return the queue size including this event, {@code 0} if the event has to be dropped
+   */
+  private int reserve(E e) {
+    int size = tryReserve();
+    if (size > 0) {
+      return size;
+    }
+    if (overflowPolicy == OverflowPolicy.DROP || (overflowPolicy
+        == OverflowPolicy.DROP_BELOW_LEVEL && e instanceof ILoggingEvent
+        && dropLevel.isGreaterOrEqual(((ILoggingEvent) e).getLevel()))) {
+      return 0;
+    }
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS
+        .toNanos(blockTimeout.getMilliseconds());
+    while (size == 0 && System.nanoTime() - deadline < 0) {
+      LockSupport.parkNanos(BLOCK_PARK_NANOS);
+      size = tryReserve();
+    }
+    return size;
+  }
+
+  private int tryReserve() {
+    int size = pendingSize.incrementAndGet();
+    if (size <= queueSize) {
+      return size;
+    }
+    pendingSize.decrementAndGet();
+    return 0;
+  }
+
+  private void sendLoop() {
+    while (sending) {
+      if (drain(batchSize) == 0) {
+        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+      }
+    }
+    while (drain(batchSize) > 0) {
+      // flush what was queued before stop
+    }
+  }
+
+  private int drain(int max) {
+    int count = 0;
+    E e;
+    while (count < max && (e = pending.poll()) != null) {
+      pendingSize.decrementAndGet();
+      count++;
+      try {
+        send(e);
+      } catch (RuntimeException ex) {
+        failedDeliveryCallback.onFailedDelivery(e, ex);
+      }
+    }
+    return count;
+  }
+
+  private void stopSender() {
+    Thread current = sender;
+    if (current == null) {
+      return;
+    }
+    sender = null;
+    sending = false;
+    LockSupport.unpark(current);
+    try {
+      current.join(maxFlushTime);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (current.isAlive()) {
+      addWarn("Kafka appender [" + name + "] stopped with " + pendingSize.get()
+          + " queued events");
+    }
+  }
+
+  private void send(E e) {
+    boolean allowed = circuitBreaker.allowRequest();
+    if (!allowed && !(deliveryStrategy instanceof SpillingDeliveryStrategy)) {
+      fallback(e);
+      return;
+    }
     final byte[] payload = encoder.encode(e);
     final byte[] key = keyingStrategy.createKey(e);
 
@@ -140,14 +344,116 @@ public class KafkaAppender<E> extends KafkaAppenderConfig<E> {
     final ProducerRecord<byte[], byte[]> record = new ProducerRecord<>(topic, partition, timestamp,
         key, payload);
 
-    final Producer<byte[], byte[]> producer = lazyProducer.get();
-    if (producer != null) {
-      deliveryStrategy.send(lazyProducer.get(), record, e, failedDeliveryCallback);
+    if (!allowed) {
+      // the spill log keeps the events of the outage and replays them in order
+      if (!((SpillingDeliveryStrategy) deliveryStrategy).retain(record)) {
+        fallback(e);
+      }
+      return;
+    }
+    final BackgroundProducer current = backgroundProducer;
+    if (current != null) {
+      current.send(record, e);
     } else {
       failedDeliveryCallback.onFailedDelivery(e, null);
     }
   }
 
+  private void fallback(E e) {
+    failedDeliveries.increment();
+    aai.appendLoopOnAppenders(e);
+  }
+
+  private synchronized void startProbe() {
+    if (!isStarted()) {
+      // a delivery failed after stop, nobody would end the probe
+      return;
+    }
+    addWarn("Kafka appender [" + name + "] opened its circuit breaker after "
+        + failureThreshold + " failed deliveries");
+    Thread probing = new Thread(this::probeLoop, "kafka-appender-probe-" + getName());
+    probing.setDaemon(true);
+    prober = probing;
+    probing.start();
+  }
+
+  /**
+   * Moves the circuit to half-open every {@code probeInterval} until it is closed. The metadata
+   * cached by the producer may answer while the brokers are down, so only the acknowledgement of
+   * the trial delivery let through by the half-open circuit closes it.
+   */
+  private void probeLoop() {
+    while (prober == Thread.currentThread() && circuitBreaker.isOpen()) {
+      LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(probeInterval.getMilliseconds()));
+      if (prober == Thread.currentThread()) {
+        circuitBreaker.halfOpen();
+      }
+    }
+  }
+
+  /**
+   * Circuit breaker routing events to the fallback appenders while the brokers are unreachable.
+   */
+  public CircuitBreaker getCircuitBreaker() {
+    return circuitBreaker;
+  }
+
+  /**
+   * Events handed to the delivery strategy, the sender queue or the fallback appenders since
+   * start.
+   */
+  public long getAppendedEvents() {
+    return appendedEvents.sum();
+  }
+
+  /**
+   * Time the logging threads spent in {@code append} since start, in nanoseconds.
+   */
+  public long getAppendNanos() {
+    return appendNanos.sum();
+  }
+
+  /**
+   * Events waiting in the queue of the sender thread.
+   */
+  public int getQueuedEvents() {
+    return pendingSize.get();
+  }
+
+  /**
+   * Events dropped because the queue of the sender thread was full.
+   */
+  public long getDroppedEvents() {
+    return droppedEvents.sum();
+  }
+
+  /**
+   * Events which could not be delivered and went to the fallback appenders.
+   */
+  public long getFailedDeliveries() {
+    return failedDeliveries.sum();
+  }
+
+  /**
+   * Metrics of the producer, empty until the producer is created.
+   */
+  public Map<MetricName, ? extends Metric> getProducerMetrics() {
+    Producer<byte[], byte[]> producer = getProducer();
+    return producer == null ? Collections.<MetricName, Metric>emptyMap() : producer.metrics();
+  }
+
+  /**
+   * Whether the producer has been created and the events buffered meanwhile were replayed.
+   */
+  public boolean isProducerReady() {
+    return getProducer() != null;
+  }
+
+  private Producer<byte[], byte[]> getProducer() {
+    BackgroundProducer current = backgroundProducer;
+    return current == null ? null : current.get();
+  }
+
   protected Long getTimestamp(E e) {
     if (e instanceof ILoggingEvent) {
       return ((ILoggingEvent) e).getTimeStamp();
@@ -174,41 +480,152 @@ public class KafkaAppender<E> extends KafkaAppenderConfig<E> {
   }
 
   /**
-   * Lazy initializer for producer, patterned after commons-lang.
+   * Creates the producer on a background thread, retrying with a growing delay when it fails.
    *
-   * @see <a href="https://commons.apache.org/proper/commons-lang/javadocs/api-3.4/org/apache/commons/lang3/concurrent/LazyInitializer.html">LazyInitializer</a>
+   * <p>Records sent before the producer is ready are kept in a buffer of {@code earlyBufferSize}
+   * and replayed in order on this thread once it is; records sent during the replay are appended
+   * to the buffer, so the order is kept. Records which do not fit, and all buffered records once
+   * {@code initTimeout} has passed, go to the fallback appenders.
    */
-  private class LazyProducer {
+  private class BackgroundProducer implements Runnable {
 
+    private final Deque<EarlyRecord<E>> early = new ArrayDeque<EarlyRecord<E>>();
+    private final long deadline = System.currentTimeMillis() + initTimeout.getMilliseconds();
     private volatile Producer<byte[], byte[]> producer;
+    private volatile boolean buffering = true;
+    private volatile boolean closed;
+    private Thread thread;
+
+    void start() {
+      thread = new Thread(this, "kafka-producer-init-" + getName());
+      thread.setDaemon(true);
+      thread.start();
+    }
 
-    public Producer<byte[], byte[]> get() {
-      Producer<byte[], byte[]> result = this.producer;
-      if (result == null) {
-        synchronized (this) {
-          result = this.producer;
-          if (result == null) {
-            this.producer = result = this.initialize();
+    Producer<byte[], byte[]> get() {
+      return producer;
+    }
+
+    void send(ProducerRecord<byte[], byte[]> record, E event) {
+      Producer<byte[], byte[]> current = producer;
+      if (current == null && buffering) {
+        if (event instanceof ILoggingEvent) {
+          // may be replayed or handed to the fallback appenders by another thread
+          ((ILoggingEvent) event).prepareForDeferredProcessing();
+        }
+        List<EarlyRecord<E>> expired = null;
+        synchronized (early) {
+          if (buffering && System.currentTimeMillis() >= deadline) {
+            expired = stopBuffering();
+          } else if (buffering && early.size() < earlyBufferSize) {
+            early.add(new EarlyRecord<E>(record, event));
+            return;
           }
+          current = producer;
         }
+        fallback(expired);
       }
+      if (current != null) {
+        deliveryStrategy.send(current, record, event, failedDeliveryCallback);
+      } else {
+        failedDeliveryCallback.onFailedDelivery(event, null);
+      }
+    }
 
-      return result;
+    @Override
+    public void run() {
+      Producer<byte[], byte[]> created = null;
+      long backoff = INIT_RETRY_MILLIS;
+      while (created == null && !closed) {
+        try {
+          created = createProducer();
+        } catch (Exception e) {
+          addError("error creating producer", e);
+          if (System.currentTimeMillis() >= deadline) {
+            List<EarlyRecord<E>> expired;
+            synchronized (early) {
+              expired = stopBuffering();
+            }
+            fallback(expired);
+          }
+          LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(backoff));
+          backoff = Math.min(backoff * 2, MAX_INIT_RETRY_MILLIS);
+        }
+      }
+      while (created != null) {
+        EarlyRecord<E> next;
+        synchronized (early) {
+          next = closed ? null : early.poll();
+          if (next == null) {
+            if (!closed) {
+              producer = created;
+              buffering = false;
+              created = null;
+            }
+            break;
+          }
+        }
+        deliveryStrategy.send(created, next.record, next.event, failedDeliveryCallback);
+      }
+      if (created != null) {
+        // stopped while the producer was created
+        close(created);
+      }
     }
 
-    protected Producer<byte[], byte[]> initialize() {
-      Producer<byte[], byte[]> producer = null;
+    void close() {
+      closed = true;
+      LockSupport.unpark(thread);
       try {
-        producer = createProducer();
-      } catch (Exception e) {
-        addError("error creating producer", e);
+        thread.join(maxFlushTime);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      List<EarlyRecord<E>> remaining;
+      Producer<byte[], byte[]> current;
+      synchronized (early) {
+        remaining = stopBuffering();
+        current = producer;
+        producer = null;
+      }
+      fallback(remaining);
+      if (current != null) {
+        close(current);
+      }
+    }
+
+    private void close(Producer<byte[], byte[]> closing) {
+      try {
+        closing.close();
+      } catch (KafkaException e) {
+        addWarn("Failed to shut down kafka producer: " + e.getMessage(), e);
       }
-      return producer;
     }
 
-    public boolean isInitialized() {
-      return producer != null;
+    private List<EarlyRecord<E>> stopBuffering() {
+      buffering = false;
+      List<EarlyRecord<E>> drained = new ArrayList<EarlyRecord<E>>(early);
+      early.clear();
+      return drained;
+    }
+
+    private void fallback(List<EarlyRecord<E>> records) {
+      if (records != null) {
+        for (EarlyRecord<E> record : records) {
+          failedDeliveryCallback.onFailedDelivery(record.event, null);
+        }
+      }
     }
   }
 
+  private static final class EarlyRecord<E> {
+
+    private final ProducerRecord<byte[], byte[]> record;
+    private final E event;
+
+    EarlyRecord(ProducerRecord<byte[], byte[]> record, E event) {
+      this.record = record;
+      this.event = event;
+    }
+  }
 }
@@ -0,0 +1,62 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.kafka;
+
+import org.spring.beet.logging.kafka.metrics.KafkaAppenderHealthIndicator;
+import org.spring.beet.logging.kafka.metrics.KafkaAppenderMetricsBinder;
+import org.springframework.boot.actuate.autoconfigure.health.ConditionalOnEnabledHealthIndicator;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+/**
+ * Binds the {@link KafkaAppender}s configured in logback to the meter registry and the health
+ * endpoint, {@code logging.metrics.enabled=false} turns the metrics off like it does for the rest
+ * of the logging pipeline.
+ */
+@Configuration(proxyBeanMethods = false)
+public class KafkaAppenderAutoConfiguration {
+
+  @Configuration(proxyBeanMethods = false)
+  @ConditionalOnClass(name = "io.micrometer.core.instrument.binder.MeterBinder")
+  @ConditionalOnProperty(value = "logging.metrics.enabled", matchIfMissing = true)
+  static class KafkaAppenderMetricsConfiguration {
+
+    @Bean
+    public KafkaAppenderMetricsBinder kafkaAppenderMetricsBinder() {
+      return new KafkaAppenderMetricsBinder();
+    }
+  }
+
+  /**
+   * Reports the circuit breakers of the Kafka appenders.
+   */
+  @Configuration(proxyBeanMethods = false)
+  @ConditionalOnClass(name = "org.springframework.boot.actuate.health.HealthIndicator")
+  @ConditionalOnEnabledHealthIndicator("kafkaappender")
+  static class KafkaAppenderHealthConfiguration {
+
+    @Bean
+    @ConditionalOnMissingBean(name = "kafkaAppenderHealthIndicator")
+    public KafkaAppenderHealthIndicator kafkaAppenderHealthIndicator(Environment environment) {
+      return new KafkaAppenderHealthIndicator(environment.getProperty(
+          "management.health.kafkaappender.down-when-open", Boolean.class, false));
+    }
+  }
+}
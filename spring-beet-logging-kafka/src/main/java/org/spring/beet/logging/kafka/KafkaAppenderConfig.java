@@ -17,9 +17,11 @@ package org.spring.beet.logging.kafka;
 
 import static org.apache.kafka.clients.producer.ProducerConfig.BOOTSTRAP_SERVERS_CONFIG;
 
+import ch.qos.logback.classic.Level;
 import ch.qos.logback.core.UnsynchronizedAppenderBase;
 import ch.qos.logback.core.encoder.Encoder;
 import ch.qos.logback.core.spi.AppenderAttachable;
+import ch.qos.logback.core.util.Duration;
 import java.util.HashMap;
 import java.util.Map;
 import org.spring.beet.logging.kafka.delivery.AsynchronousDeliveryStrategy;
@@ -42,6 +44,28 @@ public abstract class KafkaAppenderConfig<E> extends UnsynchronizedAppenderBase<
 
   protected Map<String, Object> producerConfig = new HashMap<String, Object>();
 
+  protected boolean async = false;
+
+  protected int queueSize = 8192;
+
+  protected int batchSize = 512;
+
+  protected OverflowPolicy overflowPolicy = OverflowPolicy.DROP;
+
+  protected Level dropLevel = Level.INFO;
+
+  protected Duration blockTimeout = Duration.buildByMilliseconds(100);
+
+  protected int maxFlushTime = 1000;
+
+  protected Duration initTimeout = Duration.buildBySeconds(10);
+
+  protected int earlyBufferSize = 1024;
+
+  protected int failureThreshold = 5;
+
+  protected Duration probeInterval = Duration.buildBySeconds(5);
+
   protected boolean checkPrerequisites() {
     boolean errorFree = true;
 
@@ -73,9 +97,19 @@ public abstract class KafkaAppenderConfig<E> extends UnsynchronizedAppenderBase<
       deliveryStrategy = new AsynchronousDeliveryStrategy();
     }
 
+    if (async && (queueSize <= 0 || batchSize <= 0)) {
+      addError("queueSize and batchSize must be positive for the appender named [\""
+          + name + "\"].");
+      errorFree = false;
+    }
+
     return errorFree;
   }
 
+  public Encoder<E> getEncoder() {
+    return encoder;
+  }
+
   public void setEncoder(Encoder<E> encoder) {
     this.encoder = encoder;
   }
@@ -103,6 +137,10 @@ public abstract class KafkaAppenderConfig<E> extends UnsynchronizedAppenderBase<
     return producerConfig;
   }
 
+  public DeliveryStrategy getDeliveryStrategy() {
+    return deliveryStrategy;
+  }
+
   public void setDeliveryStrategy(DeliveryStrategy deliveryStrategy) {
     this.deliveryStrategy = deliveryStrategy;
   }
@@ -119,4 +157,72 @@ public abstract class KafkaAppenderConfig<E> extends UnsynchronizedAppenderBase<
     this.appendTimestamp = appendTimestamp;
   }
 
+  public boolean isAsync() {
+    return async;
+  }
+
+  /**
+   * Encodes and sends events on a dedicated thread, the logging thread only queues them.
+   */
+  public void setAsync(boolean async) {
+    this.async = async;
+  }
+
+  public void setQueueSize(int queueSize) {
+    this.queueSize = queueSize;
+  }
+
+  public void setBatchSize(int batchSize) {
+    this.batchSize = batchSize;
+  }
+
+  public void setOverflowPolicy(String overflowPolicy) {
+    this.overflowPolicy = OverflowPolicy
+        .valueOf(overflowPolicy.trim().replace('-', '_').toUpperCase());
+  }
+
+  public void setDropLevel(String dropLevel) {
+    this.dropLevel = Level.toLevel(dropLevel, Level.INFO);
+  }
+
+  public void setBlockTimeout(Duration blockTimeout) {
+    this.blockTimeout = blockTimeout;
+  }
+
+  /**
+   * Milliseconds {@code stop()} waits for queued events to be handed to the producer.
+   */
+  public void setMaxFlushTime(int maxFlushTime) {
+    this.maxFlushTime = maxFlushTime;
+  }
+
+  /**
+   * How long events are buffered while the producer is created, afterwards they go to the
+   * attached appenders until the producer is ready.
+   */
+  public void setInitTimeout(Duration initTimeout) {
+    this.initTimeout = initTimeout;
+  }
+
+  /**
+   * Maximum number of events buffered while the producer is created.
+   */
+  public void setEarlyBufferSize(int earlyBufferSize) {
+    this.earlyBufferSize = earlyBufferSize;
+  }
+
+  /**
+   * Consecutive failed deliveries opening the circuit breaker, {@code 0} disables it.
+   */
+  public void setFailureThreshold(int failureThreshold) {
+    this.failureThreshold = failureThreshold;
+  }
+
+  /**
+   * How often the brokers are probed while the circuit breaker is open.
+   */
+  public void setProbeInterval(Duration probeInterval) {
+    this.probeInterval = probeInterval;
+  }
+
 }
@@ -0,0 +1,37 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.kafka;
+
+/**
+ * What an asynchronous {@link KafkaAppender} does with an event when its queue is full.
+ */
+public enum OverflowPolicy {
+
+  /**
+   * Drops the event.
+   */
+  DROP,
+
+  /**
+   * Drops events of {@code dropLevel} or below, higher events are handled like {@link #BLOCK}.
+   */
+  DROP_BELOW_LEVEL,
+
+  /**
+   * Waits up to {@code blockTimeout} for space, then drops the event.
+   */
+  BLOCK
+}
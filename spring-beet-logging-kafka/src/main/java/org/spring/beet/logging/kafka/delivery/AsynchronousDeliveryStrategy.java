@@ -15,6 +15,9 @@
  */
 package org.spring.beet.logging.kafka.delivery;
 
+import ch.qos.logback.core.spi.ContextAwareBase;
+import ch.qos.logback.core.spi.LifeCycle;
+import java.util.concurrent.atomic.LongAdder;
 import org.apache.kafka.clients.producer.BufferExhaustedException;
 import org.apache.kafka.clients.producer.Callback;
 import org.apache.kafka.clients.producer.Producer;
@@ -22,7 +25,26 @@ import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.clients.producer.RecordMetadata;
 import org.apache.kafka.common.errors.TimeoutException;
 
-public class AsynchronousDeliveryStrategy implements DeliveryStrategy {
+/**
+ * Sends records without waiting for the broker.
+ *
+ * <p>Failures reported by the producer arrive on its network thread, they are handed to the
+ * failed delivery callback on a dispatcher thread instead, queued up to {@code callbackQueueSize}
+ * and processed in batches of {@code callbackBatchSize}; failures which do not fit are handed
+ * over on the network thread and counted. Successful deliveries are reported on the network thread, the callback must not
+ * block there. Failures thrown by {@code send} itself are handed over on the calling thread.
+ */
+public class AsynchronousDeliveryStrategy extends ContextAwareBase implements DeliveryStrategy,
+    LifeCycle {
+
+  private static final long STOP_TIMEOUT_MILLIS = 1000;
+
+  private final LongAdder overflowedCallbacks = new LongAdder();
+  private volatile int callbackQueueSize = 1024;
+  private volatile int callbackBatchSize = 64;
+  private volatile FailedDeliveryDispatcher dispatcher = new FailedDeliveryDispatcher(this,
+      callbackQueueSize, callbackBatchSize, overflowedCallbacks);
+  private volatile boolean started;
 
   @Override
   public <K, V, E> boolean send(Producer<K, V> producer, ProducerRecord<K, V> record, final E event,
@@ -32,7 +54,9 @@ public class AsynchronousDeliveryStrategy implements DeliveryStrategy {
         @Override
         public void onCompletion(RecordMetadata metadata, Exception exception) {
           if (exception != null) {
-            failedDeliveryCallback.onFailedDelivery(event, exception);
+            dispatcher.dispatch(event, exception, failedDeliveryCallback);
+          } else {
+            failedDeliveryCallback.onSuccessfulDelivery(event);
           }
         }
       });
@@ -43,4 +67,53 @@ public class AsynchronousDeliveryStrategy implements DeliveryStrategy {
     }
   }
 
+  @Override
+  public synchronized void start() {
+    if (started) {
+      return;
+    }
+    // replaces the dispatcher with the default sizes
+    dispatcher.close(STOP_TIMEOUT_MILLIS);
+    dispatcher = new FailedDeliveryDispatcher(this, Math.max(1, callbackQueueSize),
+        Math.max(1, callbackBatchSize), overflowedCallbacks);
+    started = true;
+  }
+
+  /**
+   * Waits a moment for the queued failures, failures reported afterwards, while the producer is
+   * closed, are handed over on the reporting thread.
+   */
+  @Override
+  public synchronized void stop() {
+    started = false;
+    dispatcher.close(STOP_TIMEOUT_MILLIS);
+  }
+
+  @Override
+  public boolean isStarted() {
+    return started;
+  }
+
+  /**
+   * Failures waiting for the dispatcher thread.
+   */
+  public int getQueuedCallbacks() {
+    return dispatcher.getQueued();
+  }
+
+  /**
+   * Failures handed over on the network thread because the queue of the dispatcher thread was
+   * full.
+   */
+  public long getOverflowedCallbacks() {
+    return overflowedCallbacks.sum();
+  }
+
+  public void setCallbackQueueSize(int callbackQueueSize) {
+    this.callbackQueueSize = callbackQueueSize;
+  }
+
+  public void setCallbackBatchSize(int callbackBatchSize) {
+    this.callbackBatchSize = callbackBatchSize;
+  }
 }
@@ -0,0 +1,139 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.kafka.delivery;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Opens after {@code failureThreshold} consecutive failed deliveries, while it is open events
+ * should go straight to the fallback appenders. Whoever probes the brokers moves an open circuit
+ * to half-open, which lets a single trial delivery through; the circuit closes on the first
+ * acknowledged delivery while half-open and opens again on the first failure.
+ */
+public class CircuitBreaker {
+
+  /**
+   * State of the circuit.
+   */
+  public enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  private final int failureThreshold;
+  private final AtomicInteger consecutiveFailures = new AtomicInteger();
+  private final AtomicBoolean trialPermit = new AtomicBoolean();
+  private final LongAdder openings = new LongAdder();
+  private volatile State state = State.CLOSED;
+
+  /**
+   * Creates a closed circuit breaker.
+   *
+   * @param failureThreshold consecutive failures opening the circuit, {@code 0} never opens it
+   */
+  public CircuitBreaker(int failureThreshold) {
+    this.failureThreshold = failureThreshold;
+  }
+
+  /**
+   * Whether a delivery may be attempted, always when closed and for one trial when half-open.
+   */
+  public boolean allowRequest() {
+    State current = state;
+    return current == State.CLOSED
+        || current == State.HALF_OPEN && trialPermit.compareAndSet(true, false);
+  }
+
+  /**
+   * Records a failed delivery, a half-open circuit opens again.
+   *
+   * @return {@code true} if this failure opened a closed circuit
+   */
+  public boolean recordFailure() {
+    if (state == State.HALF_OPEN) {
+      synchronized (this) {
+        if (state == State.HALF_OPEN) {
+          trialPermit.set(false);
+          state = State.OPEN;
+        }
+      }
+      return false;
+    }
+    if (failureThreshold <= 0 || consecutiveFailures.incrementAndGet() < failureThreshold) {
+      return false;
+    }
+    synchronized (this) {
+      if (state != State.CLOSED) {
+        return false;
+      }
+      state = State.OPEN;
+      openings.increment();
+      return true;
+    }
+  }
+
+  /**
+   * Records an acknowledged delivery, a half-open circuit closes.
+   *
+   * @return {@code true} if this delivery closed the circuit
+   */
+  public boolean recordSuccess() {
+    if (consecutiveFailures.get() != 0) {
+      consecutiveFailures.set(0);
+    }
+    if (state != State.HALF_OPEN) {
+      return false;
+    }
+    synchronized (this) {
+      if (state != State.HALF_OPEN) {
+        return false;
+      }
+      consecutiveFailures.set(0);
+      state = State.CLOSED;
+      return true;
+    }
+  }
+
+  /**
+   * Lets one more trial delivery through unless the circuit is closed. Called by the probe, a
+   * trial whose outcome is still unknown does not hold back the next one.
+   */
+  public synchronized void halfOpen() {
+    if (state != State.CLOSED) {
+      state = State.HALF_OPEN;
+      trialPermit.set(true);
+    }
+  }
+
+  /**
+   * Whether the circuit is open or half-open.
+   */
+  public boolean isOpen() {
+    return state != State.CLOSED;
+  }
+
+  public State getState() {
+    return state;
+  }
+
+  /**
+   * How many times the circuit has opened.
+   */
+  public long getOpenings() {
+    return openings.sum();
+  }
+}
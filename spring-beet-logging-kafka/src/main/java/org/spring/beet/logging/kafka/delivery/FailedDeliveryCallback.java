@@ -18,4 +18,18 @@ package org.spring.beet.logging.kafka.delivery;
 public interface FailedDeliveryCallback<E> {
 
   void onFailedDelivery(E evt, Throwable throwable);
+
+  /**
+   * Called when the broker acknowledged the event, by strategies able to tell.
+   */
+  default void onSuccessfulDelivery(E evt) {
+  }
+
+  /**
+   * Called when the delivery failed but the strategy kept the record to deliver it later, by
+   * strategies able to. The event does not need to be handled, {@code evt} is {@code null} for a
+   * record the strategy retried on its own.
+   */
+  default void onRetainedDelivery(E evt, Throwable throwable) {
+  }
 }
@@ -0,0 +1,166 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.kafka.delivery;
+
+import ch.qos.logback.core.spi.ContextAware;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs failed delivery callbacks on a thread of its own, so the network thread of the producer
+ * never waits for the fallback appenders.
+ *
+ * <p>Failures are offered to a lock-free queue bounded to {@code capacity}; the thread is started
+ * with the first failure and hands them to their callbacks up to {@code batchSize} per pass.
+ * Failures which do not fit run on the calling thread and are counted, so they still reach the
+ * fallback appenders and the circuit breaker. Once closed, failures run on the calling thread as
+ * well, which covers the records the producer fails while it is closed. A callback throwing is
+ * reported to the status of {@code owner}.
+ */
+final class FailedDeliveryDispatcher {
+
+  private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private final ConcurrentLinkedQueue<Failure<?>> queue = new ConcurrentLinkedQueue<Failure<?>>();
+  private final AtomicInteger queued = new AtomicInteger();
+  private final ContextAware owner;
+  private final int capacity;
+  private final int batchSize;
+  private final LongAdder overflowed;
+  private volatile Thread thread;
+  private volatile boolean closed;
+
+  FailedDeliveryDispatcher(ContextAware owner, int capacity, int batchSize,
+      LongAdder overflowed) {
+    this.owner = owner;
+    this.capacity = capacity;
+    this.batchSize = batchSize;
+    this.overflowed = overflowed;
+  }
+
+  <E> void dispatch(E event, Throwable throwable, FailedDeliveryCallback<E> callback) {
+    Thread current = closed ? null : start();
+    if (current == null) {
+      callback.onFailedDelivery(event, throwable);
+      return;
+    }
+    int size = queued.incrementAndGet();
+    if (size > capacity) {
+      queued.decrementAndGet();
+      overflowed.increment();
+      callback.onFailedDelivery(event, throwable);
+      return;
+    }
+    queue.offer(new Failure<E>(event, throwable, callback));
+    if (closed) {
+      // close raced with this failure, the final drain may have missed it
+      drain(Integer.MAX_VALUE);
+    } else if (size == 1) {
+      LockSupport.unpark(current);
+    }
+  }
+
+  private Thread start() {
+    Thread current = thread;
+    if (current == null) {
+      synchronized (this) {
+        current = thread;
+        if (current == null && !closed) {
+          current = new Thread(this::run, "kafka-delivery-callback");
+          current.setDaemon(true);
+          current.start();
+          thread = current;
+        }
+      }
+    }
+    return current;
+  }
+
+  private void run() {
+    while (!closed) {
+      if (drain(batchSize) == 0) {
+        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+      }
+    }
+    while (drain(batchSize) > 0) {
+      // hand over what was queued before close
+    }
+  }
+
+  private int drain(int max) {
+    int count = 0;
+    Failure<?> failure;
+    while (count < max && (failure = queue.poll()) != null) {
+      queued.decrementAndGet();
+      count++;
+      try {
+        failure.run();
+      } catch (Throwable t) {
+        // a failing fallback must not stop the dispatcher
+        owner.addError("Failed to hand a failed delivery to its callback", t);
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Waits up to {@code timeoutMillis} for the queued failures, later ones run on the caller.
+   */
+  void close(long timeoutMillis) {
+    Thread current;
+    synchronized (this) {
+      closed = true;
+      current = thread;
+    }
+    if (current == null) {
+      return;
+    }
+    LockSupport.unpark(current);
+    try {
+      current.join(timeoutMillis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (!current.isAlive()) {
+      // offered while the thread was finishing
+      drain(Integer.MAX_VALUE);
+    }
+  }
+
+  int getQueued() {
+    return queued.get();
+  }
+
+  private static final class Failure<E> {
+
+    private final E event;
+    private final Throwable throwable;
+    private final FailedDeliveryCallback<E> callback;
+
+    Failure(E event, Throwable throwable, FailedDeliveryCallback<E> callback) {
+      this.event = event;
+      this.throwable = throwable;
+      this.callback = callback;
+    }
+
+    void run() {
+      callback.onFailedDelivery(event, throwable);
+    }
+  }
+}
@@ -0,0 +1,457 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.kafka.delivery;
+
+import ch.qos.logback.core.spi.ContextAware;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.CRC32;
+import org.apache.kafka.clients.producer.ProducerRecord;
+
+/**
+ * Append-only log of producer records in memory-mapped segment files.
+ *
+ * <p>Segments are named {@code <name>-<sequence>.spill} and preallocated to {@code segmentSize}.
+ * A record is written as the length of its body, a CRC32 of the body and the body, the length
+ * last, so a reader never sees a half written record. After a crash the zeros behind the last
+ * record end a segment; a record whose checksum does not match ends it as well and the segment is
+ * counted as corrupted. Records are read in order from the oldest segment, which is deleted once
+ * all its records are committed. Sealed segments older than {@code maxAge} are deleted whether
+ * they were read or not, and no segment is created while the log would exceed {@code maxSize}.
+ *
+ * <p>A full segment is not forced to disk by the appending thread: rolling over only queues it,
+ * and the reading thread seals it later with {@link #seal()}. A deleted segment is unmapped right
+ * away, its space on disk is not freed as long as the mapping is alive.
+ *
+ * <p>Not thread-safe, callers synchronize on the log, except for {@link #seal()}.
+ */
+final class SpillLog {
+
+  private static final String SUFFIX = ".spill";
+  private static final int HEADER = 8;
+  private static final int NULL = -1;
+
+  private final ContextAware owner;
+  private final File directory;
+  private final String name;
+  private final long segmentSize;
+  private final long maxSize;
+  private final long maxAge;
+  private final Deque<Segment> segments = new ArrayDeque<Segment>();
+  private final Deque<Segment> rolled = new ArrayDeque<Segment>();
+  private Segment active;
+  private long sequence;
+  private long size;
+  private int readOffset;
+  private int peekOffset;
+  private long corruptedSegments;
+  private long expiredSegments;
+  private boolean closed;
+
+  SpillLog(ContextAware owner, File directory, String name, long segmentSize, long maxSize,
+      long maxAge) throws IOException {
+    this.owner = owner;
+    this.directory = directory;
+    this.name = name;
+    this.segmentSize = segmentSize;
+    this.maxSize = maxSize;
+    this.maxAge = maxAge;
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("failed to create directory " + directory);
+    }
+    recover();
+  }
+
+  /**
+   * Maps the segments left by a previous run read-only, oldest first.
+   */
+  private void recover() throws IOException {
+    File[] files = directory.listFiles((dir, file) -> file.startsWith(name + "-")
+        && file.endsWith(SUFFIX));
+    if (files == null) {
+      throw new IOException("failed to list " + directory);
+    }
+    Arrays.sort(files);
+    for (File file : files) {
+      long length = file.length();
+      String number = file.getName()
+          .substring(name.length() + 1, file.getName().length() - SUFFIX.length());
+      try {
+        sequence = Math.max(sequence, Long.parseLong(number) + 1);
+      } catch (NumberFormatException e) {
+        continue;
+      }
+      if (length == 0 || length > Integer.MAX_VALUE) {
+        if (!file.delete()) {
+          owner.addWarn("Failed to delete the spill segment " + file);
+        }
+        continue;
+      }
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+        segments.add(new Segment(file, channel.map(MapMode.READ_ONLY, 0, length), (int) length,
+            (int) length));
+      }
+      size += length;
+    }
+  }
+
+  /**
+   * Appends a record with a {@code byte[]} key and value.
+   *
+   * @return {@code false} if the log is closed or full
+   */
+  boolean append(ProducerRecord<byte[], byte[]> record) throws IOException {
+    if (closed) {
+      return false;
+    }
+    byte[] topic = record.topic().getBytes(StandardCharsets.UTF_8);
+    int length = 2 + topic.length + 4 + 8 + length(record.key()) + length(record.value());
+    if (active == null || active.buffer.remaining() < HEADER + length) {
+      if (!roll(HEADER + length)) {
+        return false;
+      }
+    }
+    MappedByteBuffer buffer = active.buffer;
+    int start = buffer.position();
+    buffer.position(start + HEADER);
+    buffer.putShort((short) topic.length).put(topic);
+    buffer.putInt(record.partition() == null ? NULL : record.partition());
+    buffer.putLong(record.timestamp() == null ? NULL : record.timestamp());
+    put(buffer, record.key());
+    put(buffer, record.value());
+    buffer.putInt(start + 4, checksum(buffer, start + HEADER, length));
+    buffer.putInt(start, length);
+    active.limit = buffer.position();
+    return true;
+  }
+
+  private boolean roll(int required) throws IOException {
+    long allocation = Math.max(segmentSize, required);
+    if (active != null) {
+      rolled.add(active);
+      active = null;
+    }
+    if (allocation > Integer.MAX_VALUE || size + allocation > maxSize) {
+      return false;
+    }
+    File file = new File(directory, String.format("%s-%020d%s", name, sequence++, SUFFIX));
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW,
+        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      active = new Segment(file, channel.map(MapMode.READ_WRITE, 0, allocation), 0,
+          (int) allocation);
+    }
+    segments.add(active);
+    size += allocation;
+    return true;
+  }
+
+  /**
+   * Forces the segments rolled over since the last call to disk and truncates them to their
+   * records. Called without holding the lock of the log, which is only taken around the
+   * bookkeeping, so appending threads never wait for the disk.
+   */
+  void seal() throws IOException {
+    while (true) {
+      Segment segment;
+      synchronized (this) {
+        segment = rolled.pollFirst();
+        if (segment == null) {
+          return;
+        }
+        // a segment read or expired in the meantime is unmapped once it is forced
+        segment.sealing = true;
+      }
+      segment.buffer.force();
+      synchronized (this) {
+        segment.sealing = false;
+        if (segment.deleted) {
+          release(segment);
+        } else {
+          truncate(segment);
+        }
+      }
+    }
+  }
+
+  /**
+   * Forces the segment to disk and truncates it to its records.
+   */
+  private void seal(Segment segment) throws IOException {
+    segment.buffer.force();
+    truncate(segment);
+  }
+
+  private void truncate(Segment segment) throws IOException {
+    try (FileChannel channel = FileChannel.open(segment.file.toPath(),
+        StandardOpenOption.WRITE)) {
+      channel.truncate(segment.limit);
+    }
+    size -= segment.length - segment.limit;
+    segment.length = segment.limit;
+  }
+
+  /**
+   * Reads up to {@code max} records following the last committed one, all from the same segment.
+   */
+  List<ProducerRecord<byte[], byte[]>> peek(int max) {
+    List<ProducerRecord<byte[], byte[]>> records = new ArrayList<ProducerRecord<byte[], byte[]>>();
+    Segment head = segments.peekFirst();
+    while (head != null && head != active && isEnd(head, readOffset)) {
+      delete(segments.pollFirst());
+      readOffset = 0;
+      head = segments.peekFirst();
+    }
+    peekOffset = readOffset;
+    while (head != null && records.size() < max && !isEnd(head, peekOffset)) {
+      ProducerRecord<byte[], byte[]> record = read(head, peekOffset);
+      if (record == null) {
+        corruptedSegments++;
+        head.limit = peekOffset;
+        break;
+      }
+      records.add(record);
+      peekOffset += HEADER + head.buffer.getInt(peekOffset);
+    }
+    return records;
+  }
+
+  /**
+   * Moves past the records returned by the last {@link #peek(int)}.
+   */
+  void commit() {
+    readOffset = peekOffset;
+  }
+
+  /**
+   * Whether every record has been committed.
+   */
+  boolean isDrained() {
+    int offset = readOffset;
+    for (Segment segment : segments) {
+      if (!isEnd(segment, offset)) {
+        return false;
+      }
+      offset = 0;
+    }
+    return true;
+  }
+
+  /**
+   * Deletes the sealed segments last modified more than {@code maxAge} ago.
+   */
+  void expire(long now) {
+    if (maxAge <= 0) {
+      return;
+    }
+    Iterator<Segment> iterator = segments.iterator();
+    boolean head = true;
+    while (iterator.hasNext()) {
+      Segment segment = iterator.next();
+      if (segment != active && segment.file.lastModified() < now - maxAge) {
+        iterator.remove();
+        delete(segment);
+        expiredSegments++;
+        if (head) {
+          readOffset = 0;
+          peekOffset = 0;
+          continue;
+        }
+      }
+      head = false;
+    }
+  }
+
+  /**
+   * Seals the active segment, and deletes all segments if every record has been committed.
+   * Otherwise the committed records of the oldest segment are read again after a restart.
+   */
+  void close() throws IOException {
+    closed = true;
+    for (Segment segment : rolled) {
+      seal(segment);
+    }
+    rolled.clear();
+    if (active != null) {
+      seal(active);
+      active = null;
+    }
+    if (isDrained()) {
+      for (Segment segment : segments) {
+        delete(segment);
+      }
+      segments.clear();
+      readOffset = 0;
+    }
+  }
+
+  /**
+   * Bytes the segments take on disk, the active one counted with its preallocated size.
+   */
+  long getSize() {
+    return size;
+  }
+
+  long getCorruptedSegments() {
+    return corruptedSegments;
+  }
+
+  long getExpiredSegments() {
+    return expiredSegments;
+  }
+
+  private void delete(Segment segment) {
+    rolled.remove(segment);
+    size -= segment.length;
+    segment.deleted = true;
+    if (!segment.sealing) {
+      release(segment);
+    }
+  }
+
+  private void release(Segment segment) {
+    if (!unmap(segment.buffer)) {
+      owner.addWarn("Failed to unmap the spill segment " + segment.file
+          + ", its space is freed once the mapping is garbage collected");
+    }
+    if (!segment.file.delete()) {
+      owner.addWarn("Failed to delete the spill segment " + segment.file);
+    }
+  }
+
+  /**
+   * Releases the mapping of the buffer without waiting for the garbage collector, through {@code
+   * Unsafe.invokeCleaner} since Java 9 and the cleaner of the buffer on Java 8. The buffer must not
+   * be accessed afterwards.
+   *
+   * @return {@code false} if the running JVM offers neither
+   */
+  private static boolean unmap(MappedByteBuffer buffer) {
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Method invokeCleaner;
+      try {
+        invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      } catch (NoSuchMethodException e) {
+        Method cleaner = buffer.getClass().getMethod("cleaner");
+        cleaner.setAccessible(true);
+        Object clean = cleaner.invoke(buffer);
+        if (clean != null) {
+          clean.getClass().getMethod("clean").invoke(clean);
+        }
+        return true;
+      }
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      invokeCleaner.invoke(theUnsafe.get(null), buffer);
+      return true;
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return false;
+    }
+  }
+
+  private static boolean isEnd(Segment segment, int offset) {
+    return offset + HEADER > segment.limit || segment.buffer.getInt(offset) <= 0;
+  }
+
+  /**
+   * Reads the record at {@code offset}, {@code null} if it is truncated or its checksum does not
+   * match.
+   */
+  private static ProducerRecord<byte[], byte[]> read(Segment segment, int offset) {
+    int length = segment.buffer.getInt(offset);
+    if (length > segment.limit - offset - HEADER
+        || checksum(segment.buffer, offset + HEADER, length) != segment.buffer.getInt(offset + 4)) {
+      return null;
+    }
+    ByteBuffer body = segment.buffer.duplicate();
+    body.limit(offset + HEADER + length).position(offset + HEADER);
+    try {
+      byte[] topic = new byte[body.getShort() & 0xFFFF];
+      body.get(topic);
+      int partition = body.getInt();
+      long timestamp = body.getLong();
+      byte[] key = get(body);
+      byte[] value = get(body);
+      return new ProducerRecord<byte[], byte[]>(new String(topic, StandardCharsets.UTF_8),
+          partition == NULL ? null : partition, timestamp == NULL ? null : timestamp, key, value);
+    } catch (BufferUnderflowException | IllegalArgumentException
+        | NegativeArraySizeException e) {
+      return null;
+    }
+  }
+
+  private static int checksum(ByteBuffer buffer, int offset, int length) {
+    ByteBuffer body = buffer.duplicate();
+    body.limit(offset + length).position(offset);
+    CRC32 crc = new CRC32();
+    crc.update(body);
+    return (int) crc.getValue();
+  }
+
+  private static int length(byte[] bytes) {
+    return 4 + (bytes == null ? 0 : bytes.length);
+  }
+
+  private static void put(ByteBuffer buffer, byte[] bytes) {
+    if (bytes == null) {
+      buffer.putInt(NULL);
+    } else {
+      buffer.putInt(bytes.length).put(bytes);
+    }
+  }
+
+  private static byte[] get(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    if (length == NULL) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  private static final class Segment {
+
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private int limit;
+    private int length;
+    private boolean sealing;
+    private boolean deleted;
+
+    Segment(File file, MappedByteBuffer buffer, int limit, int length) {
+      this.file = file;
+      this.buffer = buffer;
+      this.limit = limit;
+      this.length = length;
+    }
+  }
+}
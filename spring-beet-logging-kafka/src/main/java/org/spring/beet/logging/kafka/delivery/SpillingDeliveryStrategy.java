@@ -0,0 +1,409 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.kafka.delivery;
+
+import ch.qos.logback.core.spi.ContextAwareBase;
+import ch.qos.logback.core.spi.LifeCycle;
+import ch.qos.logback.core.util.Duration;
+import ch.qos.logback.core.util.FileSize;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.KafkaException;
+
+/**
+ * Delivery strategy keeping the records the producer could not deliver in a log on local disk and
+ * replaying them once the brokers are reachable again.
+ *
+ * <p>Records are sent like {@link AsynchronousDeliveryStrategy} does. A record which fails, because
+ * the producer buffer is exhausted or the broker did not acknowledge it, is appended with its
+ * encoded key and value to a {@link SpillLog} in {@code directory}, and from then on every record
+ * is appended to the log without touching the producer, which keeps them in order. A replay thread
+ * sends the logged records in batches of {@code replayBatchSize} at no more than
+ * {@code replayRate} records per second and moves past a batch once the producer acknowledged all
+ * of it; a failed batch is sent again after {@code retryInterval}, so a record may be delivered
+ * twice. Once the log is drained records are sent directly again.
+ *
+ * <p>The log holds at most {@code maxSize} bytes in segments of {@code segmentSize}, records which
+ * do not fit go to the failed delivery callback as before. Segments older than {@code maxAge} are
+ * deleted even if they were not replayed. Records left in the log are replayed after a restart.
+ *
+ * <p>The circuit breaker of the appender still detects the outage: a spilled failure is reported
+ * with {@link FailedDeliveryCallback#onRetainedDelivery(Object, Throwable)}, which counts it
+ * without handing the event to the fallback appenders, and so is a failed replay. While the
+ * circuit is open the appender spills its events with {@link #retain(ProducerRecord)}, and an
+ * acknowledged replay is reported as a successful delivery, which closes a half-open circuit.
+ */
+public class SpillingDeliveryStrategy extends ContextAwareBase implements DeliveryStrategy,
+    LifeCycle {
+
+  private static final String SEGMENT_NAME = "segment";
+  private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+  private static final long EXPIRE_INTERVAL_MILLIS = 1000;
+  private static final long STOP_TIMEOUT_MILLIS = 1000;
+
+  private final AsynchronousDeliveryStrategy delegate = new AsynchronousDeliveryStrategy();
+  private final LongAdder spilledRecords = new LongAdder();
+  private final LongAdder replayedRecords = new LongAdder();
+  private final LongAdder rejectedRecords = new LongAdder();
+  private String directory;
+  private FileSize segmentSize = new FileSize(16 * FileSize.MB_COEFFICIENT);
+  private FileSize maxSize = new FileSize(256 * FileSize.MB_COEFFICIENT);
+  private Duration maxAge = Duration.buildByDays(7);
+  private int replayRate = 1000;
+  private int replayBatchSize = 100;
+  private Duration retryInterval = Duration.buildBySeconds(5);
+
+  private volatile SpillLog log;
+  private volatile boolean spilling;
+  private volatile Producer<byte[], byte[]> producer;
+  private volatile FailedDeliveryCallback<Object> callback;
+  private volatile Thread replayer;
+
+  @Override
+  public void start() {
+    if (isStarted()) {
+      return;
+    }
+    if (directory == null) {
+      addError("No directory set for the spilling delivery strategy");
+      return;
+    }
+    if (segmentSize.getSize() <= 0 || segmentSize.getSize() > Integer.MAX_VALUE
+        || maxSize.getSize() < segmentSize.getSize()) {
+      addError("segmentSize must be in (0, 2GB) and not larger than maxSize");
+      return;
+    }
+    if (replayBatchSize <= 0) {
+      addError("replayBatchSize must be positive");
+      return;
+    }
+    SpillLog opened;
+    try {
+      opened = new SpillLog(this, new File(directory), SEGMENT_NAME, segmentSize.getSize(),
+          maxSize.getSize(), maxAge.getMilliseconds());
+    } catch (IOException e) {
+      addError("Failed to open the spill log in " + directory, e);
+      return;
+    }
+    spilling = !opened.isDrained();
+    if (spilling) {
+      addInfo("Replaying " + opened.getSize() + " bytes of spilled records from " + directory);
+    }
+    delegate.setContext(getContext());
+    delegate.start();
+    log = opened;
+    Thread thread = new Thread(this::replayLoop, "kafka-spill-replay");
+    thread.setDaemon(true);
+    replayer = thread;
+    thread.start();
+  }
+
+  @Override
+  public void stop() {
+    Thread thread = replayer;
+    SpillLog closing = log;
+    if (thread == null || closing == null) {
+      return;
+    }
+    replayer = null;
+    log = null;
+    // interrupts a replay blocked in the producer
+    thread.interrupt();
+    try {
+      thread.join(STOP_TIMEOUT_MILLIS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    // failures still queued are spilled before the log is closed
+    delegate.stop();
+    synchronized (closing) {
+      try {
+        closing.close();
+      } catch (IOException e) {
+        addError("Failed to close the spill log in " + directory, e);
+      }
+    }
+  }
+
+  @Override
+  public boolean isStarted() {
+    return log != null;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <K, V, E> boolean send(Producer<K, V> producer, ProducerRecord<K, V> record, E event,
+      final FailedDeliveryCallback<E> failedDeliveryCallback) {
+    final SpillLog current = log;
+    if (current == null || !isSpillable(record)) {
+      return delegate.send(producer, record, event, failedDeliveryCallback);
+    }
+    final ProducerRecord<byte[], byte[]> bytes = (ProducerRecord<byte[], byte[]>) record;
+    this.producer = (Producer<byte[], byte[]>) producer;
+    this.callback = (FailedDeliveryCallback<Object>) failedDeliveryCallback;
+    if (spilling) {
+      boolean queued;
+      boolean spilled;
+      synchronized (current) {
+        queued = spilling;
+        spilled = queued && spill(current, bytes);
+      }
+      if (queued) {
+        if (!spilled) {
+          // outside of the lock, the callback writes to the fallback appenders
+          failedDeliveryCallback.onFailedDelivery(event, null);
+        }
+        return spilled;
+      }
+    }
+    return delegate.send(producer, record, event, new FailedDeliveryCallback<E>() {
+      @Override
+      public void onFailedDelivery(E evt, Throwable throwable) {
+        if (spill(current, bytes)) {
+          failedDeliveryCallback.onRetainedDelivery(evt, throwable);
+        } else {
+          failedDeliveryCallback.onFailedDelivery(evt, throwable);
+        }
+      }
+
+      @Override
+      public void onSuccessfulDelivery(E evt) {
+        failedDeliveryCallback.onSuccessfulDelivery(evt);
+      }
+    });
+  }
+
+  /**
+   * Appends the record to the log without touching the producer, for events the appender does not
+   * send because its circuit breaker is open.
+   *
+   * @return {@code false} if the strategy is stopped or the record cannot be spilled, the event
+   *     then goes to the fallback appenders
+   */
+  @SuppressWarnings("unchecked")
+  public <K, V> boolean retain(ProducerRecord<K, V> record) {
+    SpillLog current = log;
+    return current != null && isSpillable(record)
+        && spill(current, (ProducerRecord<byte[], byte[]>) record);
+  }
+
+  private static boolean isSpillable(ProducerRecord<?, ?> record) {
+    return (record.key() == null || record.key() instanceof byte[])
+        && (record.value() == null || record.value() instanceof byte[]);
+  }
+
+  private boolean spill(SpillLog current, ProducerRecord<byte[], byte[]> record) {
+    synchronized (current) {
+      try {
+        if (current.append(record)) {
+          spilling = true;
+          spilledRecords.increment();
+          return true;
+        }
+      } catch (IOException e) {
+        addError("Failed to spill a record to " + directory, e);
+      }
+    }
+    rejectedRecords.increment();
+    return false;
+  }
+
+  private void replayLoop() {
+    long nextExpiry = 0;
+    long corrupted = 0;
+    while (replayer == Thread.currentThread()) {
+      SpillLog current = log;
+      if (current != null) {
+        seal(current);
+      }
+      Producer<byte[], byte[]> target = producer;
+      if (current == null || !spilling || target == null) {
+        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+        continue;
+      }
+      List<ProducerRecord<byte[], byte[]>> batch;
+      synchronized (current) {
+        long now = System.currentTimeMillis();
+        if (now >= nextExpiry) {
+          current.expire(now);
+          nextExpiry = now + EXPIRE_INTERVAL_MILLIS;
+        }
+        batch = current.peek(replayBatchSize);
+        if (current.getCorruptedSegments() > corrupted) {
+          corrupted = current.getCorruptedSegments();
+          addWarn("Skipped the rest of a spill segment in " + directory + " after a record with"
+              + " a bad checksum");
+        }
+        if (batch.isEmpty() && current.isDrained()) {
+          spilling = false;
+          addInfo("Replayed all spilled records from " + directory);
+          continue;
+        }
+      }
+      if (batch.isEmpty()) {
+        continue;
+      }
+      if (replay(target, batch)) {
+        synchronized (current) {
+          current.commit();
+        }
+        replayedRecords.add(batch.size());
+        FailedDeliveryCallback<Object> replayed = callback;
+        if (replayed != null) {
+          replayed.onSuccessfulDelivery(null);
+        }
+      } else {
+        LockSupport.parkNanos(this, TimeUnit.MILLISECONDS
+            .toNanos(retryInterval.getMilliseconds()));
+      }
+    }
+  }
+
+  /**
+   * Forces the segments filled by the appending threads to disk, outside of the lock of the log.
+   */
+  private void seal(SpillLog current) {
+    try {
+      current.seal();
+    } catch (IOException e) {
+      addError("Failed to seal a spill segment in " + directory, e);
+    }
+  }
+
+  /**
+   * Sends the batch at the configured rate and waits until the producer acknowledged all of it.
+   */
+  private boolean replay(Producer<byte[], byte[]> target,
+      List<ProducerRecord<byte[], byte[]>> batch) {
+    long pause = replayRate > 0 ? TimeUnit.SECONDS.toNanos(1) / replayRate : 0;
+    List<Future<RecordMetadata>> acknowledgements = new ArrayList<Future<RecordMetadata>>();
+    try {
+      for (ProducerRecord<byte[], byte[]> record : batch) {
+        acknowledgements.add(target.send(record));
+        if (pause > 0) {
+          LockSupport.parkNanos(this, pause);
+        }
+      }
+      for (Future<RecordMetadata> acknowledgement : acknowledgements) {
+        acknowledgement.get();
+      }
+      return true;
+    } catch (ExecutionException e) {
+      retained(e.getCause());
+      return false;
+    } catch (KafkaException e) {
+      retained(e);
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  private void retained(Throwable throwable) {
+    FailedDeliveryCallback<Object> failed = callback;
+    if (failed != null) {
+      failed.onRetainedDelivery(null, throwable);
+    }
+  }
+
+  /**
+   * Records appended to the log since start.
+   */
+  public long getSpilledRecords() {
+    return spilledRecords.sum();
+  }
+
+  /**
+   * Records sent from the log and acknowledged by the producer since start.
+   */
+  public long getReplayedRecords() {
+    return replayedRecords.sum();
+  }
+
+  /**
+   * Records which did not fit into the log and went to the failed delivery callback.
+   */
+  public long getRejectedRecords() {
+    return rejectedRecords.sum();
+  }
+
+  /**
+   * Failures handed over on the network thread because the queue of the callback dispatcher was
+   * full.
+   */
+  public long getOverflowedCallbacks() {
+    return delegate.getOverflowedCallbacks();
+  }
+
+  /**
+   * Bytes the log takes on disk.
+   */
+  public long getSpillSize() {
+    SpillLog current = log;
+    if (current == null) {
+      return 0;
+    }
+    synchronized (current) {
+      return current.getSize();
+    }
+  }
+
+  /**
+   * Whether records currently go to the log instead of the producer.
+   */
+  public boolean isSpilling() {
+    return spilling;
+  }
+
+  public void setDirectory(String directory) {
+    this.directory = directory;
+  }
+
+  public void setSegmentSize(FileSize segmentSize) {
+    this.segmentSize = segmentSize;
+  }
+
+  public void setMaxSize(FileSize maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  public void setMaxAge(Duration maxAge) {
+    this.maxAge = maxAge;
+  }
+
+  public void setReplayRate(int replayRate) {
+    this.replayRate = replayRate;
+  }
+
+  public void setReplayBatchSize(int replayBatchSize) {
+    this.replayBatchSize = replayBatchSize;
+  }
+
+  public void setRetryInterval(Duration retryInterval) {
+    this.retryInterval = retryInterval;
+  }
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.kafka.metrics;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.spring.beet.logging.kafka.KafkaAppender;
+import org.spring.beet.logging.kafka.delivery.CircuitBreaker;
+import org.spring.beet.logging.kafka.delivery.SpillingDeliveryStrategy;
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+
+/**
+ * Reports the {@link KafkaAppender}s of the logback context. The state of their circuit breakers
+ * is only reported in the details by default: an unreachable log cluster should not take the
+ * application out of service, e.g. through the Eureka health check. With {@code downWhenOpen} the
+ * status is {@code DOWN} while the circuit breaker of one of them is not closed.
+ */
+public class KafkaAppenderHealthIndicator extends AbstractHealthIndicator {
+
+  private final boolean downWhenOpen;
+
+  public KafkaAppenderHealthIndicator() {
+    this(false);
+  }
+
+  public KafkaAppenderHealthIndicator(boolean downWhenOpen) {
+    super("Kafka appender health check failed");
+    this.downWhenOpen = downWhenOpen;
+  }
+
+  @Override
+  protected void doHealthCheck(Health.Builder builder) {
+    builder.up();
+    LoggerContext context = LogbackAppenders.loggerContext();
+    if (context == null) {
+      return;
+    }
+    for (Appender<ILoggingEvent> appender : LogbackAppenders.appenders(context)) {
+      if (appender instanceof KafkaAppender) {
+        KafkaAppender<?> kafka = (KafkaAppender<?>) appender;
+        CircuitBreaker circuitBreaker = kafka.getCircuitBreaker();
+        Map<String, Object> details = new LinkedHashMap<>();
+        details.put("circuit", circuitBreaker.getState());
+        details.put("producerReady", kafka.isProducerReady());
+        details.put("failedDeliveries", kafka.getFailedDeliveries());
+        if (kafka.getDeliveryStrategy() instanceof SpillingDeliveryStrategy) {
+          SpillingDeliveryStrategy spill = (SpillingDeliveryStrategy) kafka.getDeliveryStrategy();
+          details.put("spilling", spill.isSpilling());
+          details.put("spillSize", spill.getSpillSize());
+        }
+        builder.withDetail(String.valueOf(kafka.getName()), details);
+        if (downWhenOpen && circuitBreaker.isOpen()) {
+          builder.down();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.kafka.metrics;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.spring.beet.logging.kafka.KafkaAppender;
+import org.spring.beet.logging.kafka.delivery.AsynchronousDeliveryStrategy;
+import org.spring.beet.logging.kafka.delivery.DeliveryStrategy;
+import org.spring.beet.logging.kafka.delivery.SpillingDeliveryStrategy;
+
+/**
+ * Binds the {@link KafkaAppender}s of the logback context to Micrometer.
+ *
+ * <p>{@code logging.kafka.append} times encoding and handing events to the producer, {@code
+ * logging.kafka.fallback} counts events which went to the fallback appenders, and {@code
+ * logging.kafka.producer} exposes the producer metrics listed in {@link #PRODUCER_METRICS}, which
+ * read {@code NaN} until the producer is created. The queue of the asynchronous mode is reported
+ * as {@code logging.queue.depth} and {@code logging.dropped}, and {@code
+ * logging.kafka.callback.overflow} counts the failures the delivery strategy handed to the
+ * fallback appenders on the network thread of the producer because its callback queue was full.
+ * {@code logging.kafka.circuit} is {@code 1} while the circuit breaker is open and {@code
+ * logging.kafka.circuit.openings} counts how often it opened. With a {@link
+ * SpillingDeliveryStrategy} {@code logging.kafka.spill.size} reports the bytes of the spill log
+ * and {@code logging.kafka.spill.records} counts the records spilled, replayed and rejected
+ * because the log was full.
+ */
+public class KafkaAppenderMetricsBinder implements MeterBinder {
+
+  static final String[] PRODUCER_METRICS = {"record-send-rate", "record-error-rate",
+      "record-retry-rate", "request-latency-avg", "record-queue-time-avg", "batch-size-avg",
+      "compression-rate-avg", "buffer-available-bytes", "bufferpool-wait-ratio",
+      "waiting-threads"};
+
+  private static final String PRODUCER_GROUP = "producer-metrics";
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    LoggerContext context = LogbackAppenders.loggerContext();
+    if (context == null) {
+      return;
+    }
+    for (Appender<ILoggingEvent> appender : LogbackAppenders.appenders(context)) {
+      if (appender instanceof KafkaAppender) {
+        bind(registry, (KafkaAppender<?>) appender);
+      }
+    }
+  }
+
+  private static void bind(MeterRegistry registry, KafkaAppender<?> appender) {
+    String name = String.valueOf(appender.getName());
+    FunctionTimer.builder("logging.kafka.append", appender, a -> a.getAppendedEvents(),
+        a -> a.getAppendNanos(), TimeUnit.NANOSECONDS).tag("appender", name).register(registry);
+    FunctionCounter.builder("logging.kafka.fallback", appender, a -> a.getFailedDeliveries())
+        .tag("appender", name).register(registry);
+    Gauge.builder("logging.kafka.circuit", appender,
+        a -> a.getCircuitBreaker().isOpen() ? 1 : 0).tag("appender", name).register(registry);
+    FunctionCounter.builder("logging.kafka.circuit.openings", appender,
+        a -> a.getCircuitBreaker().getOpenings()).tag("appender", name).register(registry);
+    Gauge.builder("logging.queue.depth", appender, a -> a.getQueuedEvents())
+        .tag("appender", name).register(registry);
+    FunctionCounter.builder("logging.dropped", appender, a -> a.getDroppedEvents())
+        .tag("source", name).tag("reason", "queue-full").register(registry);
+    DeliveryStrategy strategy = appender.getDeliveryStrategy();
+    if (strategy instanceof AsynchronousDeliveryStrategy) {
+      FunctionCounter.builder("logging.kafka.callback.overflow",
+          (AsynchronousDeliveryStrategy) strategy, s -> s.getOverflowedCallbacks())
+          .tag("appender", name).register(registry);
+    } else if (strategy instanceof SpillingDeliveryStrategy) {
+      bindSpill(registry, name, (SpillingDeliveryStrategy) strategy);
+    }
+    for (String metric : PRODUCER_METRICS) {
+      Gauge.builder("logging.kafka.producer", appender, a -> producerMetric(a, metric))
+          .tag("appender", name).tag("name", metric).register(registry);
+    }
+  }
+
+  private static void bindSpill(MeterRegistry registry, String name,
+      SpillingDeliveryStrategy strategy) {
+    Gauge.builder("logging.kafka.spill.size", strategy, s -> s.getSpillSize())
+        .baseUnit(BaseUnits.BYTES).tag("appender", name).register(registry);
+    FunctionCounter.builder("logging.kafka.spill.records", strategy, s -> s.getSpilledRecords())
+        .tag("appender", name).tag("state", "spilled").register(registry);
+    FunctionCounter.builder("logging.kafka.spill.records", strategy, s -> s.getReplayedRecords())
+        .tag("appender", name).tag("state", "replayed").register(registry);
+    FunctionCounter.builder("logging.kafka.spill.records", strategy, s -> s.getRejectedRecords())
+        .tag("appender", name).tag("state", "rejected").register(registry);
+    FunctionCounter.builder("logging.kafka.callback.overflow", strategy,
+        s -> s.getOverflowedCallbacks()).tag("appender", name).register(registry);
+  }
+
+  static double producerMetric(KafkaAppender<?> appender, String name) {
+    for (Map.Entry<MetricName, ? extends Metric> entry : appender.getProducerMetrics()
+        .entrySet()) {
+      MetricName metricName = entry.getKey();
+      if (name.equals(metricName.name()) && PRODUCER_GROUP.equals(metricName.group())) {
+        Object value = entry.getValue().metricValue();
+        return value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+      }
+    }
+    return Double.NaN;
+  }
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.kafka.metrics;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.spi.AppenderAttachable;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Set;
+import org.slf4j.ILoggerFactory;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Looks up the appenders of the logback context the application logs to.
+ */
+final class LogbackAppenders {
+
+  private LogbackAppenders() {
+  }
+
+  /**
+   * The logback context bound to slf4j, {@code null} if another backend is in use.
+   */
+  static LoggerContext loggerContext() {
+    ILoggerFactory factory = LoggerFactory.getILoggerFactory();
+    return factory instanceof LoggerContext ? (LoggerContext) factory : null;
+  }
+
+  /**
+   * All appenders of the context, including the ones attached to other appenders.
+   */
+  static Set<Appender<ILoggingEvent>> appenders(LoggerContext context) {
+    Set<Appender<ILoggingEvent>> appenders = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (Logger logger : context.getLoggerList()) {
+      collect(logger.iteratorForAppenders(), appenders);
+    }
+    return appenders;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void collect(Iterator<Appender<ILoggingEvent>> iterator,
+      Set<Appender<ILoggingEvent>> appenders) {
+    while (iterator.hasNext()) {
+      Appender<ILoggingEvent> appender = iterator.next();
+      if (appenders.add(appender) && appender instanceof AppenderAttachable) {
+        collect(((AppenderAttachable<ILoggingEvent>) appender).iteratorForAppenders(), appenders);
+      }
+    }
+  }
+}
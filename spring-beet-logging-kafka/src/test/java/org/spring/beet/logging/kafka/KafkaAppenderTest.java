@@ -15,6 +15,7 @@
  */
 package org.spring.beet.logging.kafka;
 
+import static org.awaitility.Awaitility.await;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.equalTo;
@@ -22,8 +23,11 @@ import static org.hamcrest.Matchers.hasItem;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
@@ -36,16 +40,29 @@ import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.classic.spi.LoggingEvent;
 import ch.qos.logback.core.BasicStatusManager;
 import ch.qos.logback.core.encoder.Encoder;
+import ch.qos.logback.core.read.ListAppender;
 import ch.qos.logback.core.status.ErrorStatus;
+import ch.qos.logback.core.util.Duration;
 import java.lang.reflect.Field;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.errors.TimeoutException;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.spring.beet.logging.kafka.delivery.CircuitBreaker.State;
 import org.spring.beet.logging.kafka.delivery.DeliveryStrategy;
 import org.spring.beet.logging.kafka.delivery.FailedDeliveryCallback;
+import org.spring.beet.logging.kafka.delivery.SpillingDeliveryStrategy;
 import org.spring.beet.logging.kafka.keying.KeyingStrategy;
 
 @SuppressWarnings("unchecked")
@@ -124,8 +141,8 @@ public class KafkaAppenderTest {
     final LoggingEvent evt = new LoggingEvent("fqcn", ctx.getLogger("logger"), Level.ALL, "message",
         null, new Object[0]);
     unit.append(evt);
-    verify(deliveryStrategy).send(any(KafkaProducer.class), any(ProducerRecord.class), eq(evt), any(
-        FailedDeliveryCallback.class));
+    verify(deliveryStrategy, timeout(1000)).send(any(KafkaProducer.class),
+        any(ProducerRecord.class), eq(evt), any(FailedDeliveryCallback.class));
     verify(keyingStrategy).createKey(same(evt));
     verify(deliveryStrategy).send(any(KafkaProducer.class), any(ProducerRecord.class), eq(evt),
         any(FailedDeliveryCallback.class));
@@ -141,8 +158,8 @@ public class KafkaAppenderTest {
     final LoggingEvent evt = new LoggingEvent("fqcn", ctx.getLogger("logger"), Level.ALL, "message",
         null, new Object[0]);
     unit.append(evt);
-    verify(deliveryStrategy).send(any(KafkaProducer.class), producerRecordCaptor.capture(), eq(evt),
-        any(FailedDeliveryCallback.class));
+    verify(deliveryStrategy, timeout(1000)).send(any(KafkaProducer.class),
+        producerRecordCaptor.capture(), eq(evt), any(FailedDeliveryCallback.class));
     final ProducerRecord value = producerRecordCaptor.getValue();
     assertThat(value.partition(), equalTo(1));
   }
@@ -163,11 +180,275 @@ public class KafkaAppenderTest {
     final LoggingEvent evt = new LoggingEvent("fqcn", ctx.getLogger("logger"), Level.ALL, "message",
         null, new Object[0]);
     unit.doAppend(evt);
-    verify(deliveryStrategy)
+    verify(deliveryStrategy, timeout(1000))
         .send(any(KafkaProducer.class), any(ProducerRecord.class), eq(deferredEvent),
             any(FailedDeliveryCallback.class));
-    verify(deliveryStrategy).send(any(KafkaProducer.class), any(ProducerRecord.class), eq(evt),
-        any(FailedDeliveryCallback.class));
+    verify(deliveryStrategy, timeout(1000)).send(any(KafkaProducer.class),
+        any(ProducerRecord.class), eq(evt), any(FailedDeliveryCallback.class));
+  }
+
+  @Test
+  public void testAsyncAppendSendsOnSenderThread() {
+    when(encoder.encode(any(ILoggingEvent.class))).thenReturn(new byte[]{0x00, 0x00});
+    unit.setAsync(true);
+    unit.start();
+    final LoggingEvent evt = new LoggingEvent("fqcn", ctx.getLogger("logger"), Level.ALL, "message",
+        null, new Object[0]);
+    unit.append(evt);
+    verify(deliveryStrategy, timeout(1000)).send(any(KafkaProducer.class),
+        any(ProducerRecord.class), eq(evt), any(FailedDeliveryCallback.class));
+    assertThat(unit.getAppendedEvents(), equalTo(1L));
+  }
+
+  @Test
+  public void testAsyncOverflowDropsEvents() throws InterruptedException {
+    final CountDownLatch sending = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    when(encoder.encode(any(ILoggingEvent.class))).thenReturn(new byte[]{0x00, 0x00});
+    when(deliveryStrategy.send(any(), any(), any(), any())).thenAnswer(invocation -> {
+      sending.countDown();
+      release.await(5, TimeUnit.SECONDS);
+      return true;
+    });
+    unit.setAsync(true);
+    unit.setQueueSize(2);
+    unit.setOverflowPolicy("drop-below-level");
+    unit.setBlockTimeout(Duration.buildByMilliseconds(10));
+    unit.start();
+    await().atMost(5, TimeUnit.SECONDS).until(unit::isProducerReady);
+
+    unit.append(new LoggingEvent("fqcn", ctx.getLogger("logger"), Level.INFO, "taken", null,
+        new Object[0]));
+    assertTrue("sending", sending.await(5, TimeUnit.SECONDS));
+    for (int i = 0; i < 2; i++) {
+      unit.append(new LoggingEvent("fqcn", ctx.getLogger("logger"), Level.INFO, "queued", null,
+          new Object[0]));
+    }
+    unit.append(new LoggingEvent("fqcn", ctx.getLogger("logger"), Level.INFO, "dropped", null,
+        new Object[0]));
+    unit.append(new LoggingEvent("fqcn", ctx.getLogger("logger"), Level.ERROR, "timed out", null,
+        new Object[0]));
+    assertThat(unit.getQueuedEvents(), equalTo(2));
+    assertThat(unit.getDroppedEvents(), equalTo(2L));
+
+    release.countDown();
+    verify(deliveryStrategy, timeout(1000).times(3)).send(any(KafkaProducer.class),
+        any(ProducerRecord.class), any(ILoggingEvent.class), any(FailedDeliveryCallback.class));
+  }
+
+  @Test
+  public void testEarlyEventsAreReplayedInOrder() {
+    final CountDownLatch created = new CountDownLatch(1);
+    final KafkaAppender<ILoggingEvent> slow = new KafkaAppender<ILoggingEvent>() {
+      @Override
+      protected Producer<byte[], byte[]> createProducer() {
+        try {
+          created.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return super.createProducer();
+      }
+    };
+    configure(slow);
+    when(encoder.encode(any(ILoggingEvent.class))).thenReturn(new byte[]{0x00, 0x00});
+    slow.start();
+    try {
+      final LoggingEvent first = new LoggingEvent("fqcn", ctx.getLogger("logger"), Level.INFO,
+          "first", null, new Object[0]);
+      final LoggingEvent second = new LoggingEvent("fqcn", ctx.getLogger("logger"), Level.INFO,
+          "second", null, new Object[0]);
+      slow.append(first);
+      slow.append(second);
+      assertFalse("isProducerReady", slow.isProducerReady());
+      verifyZeroInteractions(deliveryStrategy);
+
+      created.countDown();
+      await().atMost(5, TimeUnit.SECONDS).until(slow::isProducerReady);
+      final InOrder inOrder = inOrder(deliveryStrategy);
+      inOrder.verify(deliveryStrategy).send(any(KafkaProducer.class), any(ProducerRecord.class),
+          eq(first), any(FailedDeliveryCallback.class));
+      inOrder.verify(deliveryStrategy).send(any(KafkaProducer.class), any(ProducerRecord.class),
+          eq(second), any(FailedDeliveryCallback.class));
+    } finally {
+      slow.stop();
+    }
+  }
+
+  @Test
+  public void testEarlyEventsFallBackAfterInitTimeout() {
+    final KafkaAppender<ILoggingEvent> failing = new KafkaAppender<ILoggingEvent>() {
+      @Override
+      protected Producer<byte[], byte[]> createProducer() {
+        throw new KafkaException("unreachable");
+      }
+    };
+    configure(failing);
+    failing.setInitTimeout(Duration.buildByMilliseconds(50));
+    final ListAppender<ILoggingEvent> fallback = new ListAppender<>();
+    fallback.start();
+    failing.addAppender(fallback);
+    when(encoder.encode(any(ILoggingEvent.class))).thenReturn(new byte[]{0x00, 0x00});
+    failing.start();
+    try {
+      failing.append(new LoggingEvent("fqcn", ctx.getLogger("logger"), Level.INFO, "early", null,
+          new Object[0]));
+      await().atMost(5, TimeUnit.SECONDS).until(() -> fallback.list.size() == 1);
+      failing.append(new LoggingEvent("fqcn", ctx.getLogger("logger"), Level.INFO, "late", null,
+          new Object[0]));
+      assertThat(fallback.list.size(), equalTo(2));
+      assertThat(failing.getFailedDeliveries(), equalTo(2L));
+      verifyZeroInteractions(deliveryStrategy);
+    } finally {
+      failing.stop();
+    }
+  }
+
+  @Test
+  public void testOpenCircuitSkipsTheProducer() {
+    when(encoder.encode(any(ILoggingEvent.class))).thenReturn(new byte[]{0x00, 0x00});
+    when(deliveryStrategy.send(any(), any(), any(), any())).thenAnswer(invocation -> {
+      invocation.<FailedDeliveryCallback<Object>>getArgument(3)
+          .onFailedDelivery(invocation.getArgument(2), new TimeoutException("unreachable"));
+      return false;
+    });
+    final ListAppender<ILoggingEvent> fallback = new ListAppender<>();
+    fallback.start();
+    unit.addAppender(fallback);
+    unit.setFailureThreshold(2);
+    // no probe half-opens the circuit while the test runs
+    unit.setProbeInterval(Duration.buildByHours(1));
+    unit.addProducerConfig("max.block.ms=100");
+    unit.start();
+    await().atMost(5, TimeUnit.SECONDS).until(unit::isProducerReady);
+
+    for (int i = 0; i < 3; i++) {
+      unit.append(new LoggingEvent("fqcn", ctx.getLogger("logger"), Level.INFO, "message", null,
+          new Object[0]));
+    }
+    assertTrue("isOpen", unit.getCircuitBreaker().isOpen());
+    verify(deliveryStrategy, times(2)).send(any(), any(), any(), any());
+    assertThat(fallback.list.size(), equalTo(3));
+    assertThat(unit.getFailedDeliveries(), equalTo(3L));
+  }
+
+  @Test
+  public void testHalfOpenCircuitClosesOnAcknowledgedTrial() {
+    final AtomicBoolean reachable = new AtomicBoolean();
+    when(encoder.encode(any(ILoggingEvent.class))).thenReturn(new byte[]{0x00, 0x00});
+    when(deliveryStrategy.send(any(), any(), any(), any())).thenAnswer(invocation -> {
+      FailedDeliveryCallback<Object> callback = invocation.getArgument(3);
+      if (reachable.get()) {
+        callback.onSuccessfulDelivery(invocation.getArgument(2));
+        return true;
+      }
+      callback.onFailedDelivery(invocation.getArgument(2), new TimeoutException("unreachable"));
+      return false;
+    });
+    final ListAppender<ILoggingEvent> fallback = new ListAppender<>();
+    fallback.start();
+    unit.addAppender(fallback);
+    unit.setFailureThreshold(1);
+    // the test plays the probe, so the circuit changes state only when it says so
+    unit.setProbeInterval(Duration.buildByHours(1));
+    unit.addProducerConfig("max.block.ms=100");
+    unit.start();
+    await().atMost(5, TimeUnit.SECONDS).until(unit::isProducerReady);
+
+    unit.append(new LoggingEvent("fqcn", ctx.getLogger("logger"), Level.INFO, "message", null,
+        new Object[0]));
+    assertTrue("isOpen", unit.getCircuitBreaker().isOpen());
+
+    // the trial fails and the circuit opens again
+    unit.getCircuitBreaker().halfOpen();
+    unit.append(new LoggingEvent("fqcn", ctx.getLogger("logger"), Level.INFO, "message", null,
+        new Object[0]));
+    assertThat(unit.getCircuitBreaker().getState(), equalTo(State.OPEN));
+    verify(deliveryStrategy, times(2)).send(any(), any(), any(), any());
+    assertThat(fallback.list.size(), equalTo(2));
+
+    reachable.set(true);
+    unit.getCircuitBreaker().halfOpen();
+    unit.append(new LoggingEvent("fqcn", ctx.getLogger("logger"), Level.INFO, "message", null,
+        new Object[0]));
+    assertThat(unit.getCircuitBreaker().getState(), equalTo(State.CLOSED));
+    verify(deliveryStrategy, times(3)).send(any(), any(), any(), any());
+    assertThat(fallback.list.size(), equalTo(2));
+  }
+
+  @Test
+  public void testOpenCircuitSpillsEvents(@TempDir Path dir) {
+    final SpillingDeliveryStrategy spilling = new SpillingDeliveryStrategy();
+    spilling.setDirectory(dir.toString());
+    when(encoder.encode(any(ILoggingEvent.class))).thenReturn(new byte[]{0x00, 0x00});
+    final ListAppender<ILoggingEvent> fallback = new ListAppender<>();
+    fallback.start();
+    unit.addAppender(fallback);
+    unit.setDeliveryStrategy(spilling);
+    unit.setFailureThreshold(1);
+    unit.setProbeInterval(Duration.buildByHours(1));
+    unit.addProducerConfig("max.block.ms=100");
+    unit.start();
+    await().atMost(5, TimeUnit.SECONDS).until(unit::isProducerReady);
+
+    // the brokers are unreachable, the spilled failure opens the circuit
+    unit.append(new LoggingEvent("fqcn", ctx.getLogger("logger"), Level.INFO, "message", null,
+        new Object[0]));
+    await().atMost(5, TimeUnit.SECONDS).until(() -> unit.getCircuitBreaker().isOpen());
+    unit.append(new LoggingEvent("fqcn", ctx.getLogger("logger"), Level.INFO, "message", null,
+        new Object[0]));
+    assertThat(spilling.getSpilledRecords(), equalTo(2L));
+    assertThat(fallback.list, empty());
+  }
+
+  @Test
+  public void testProbeHalfOpensTheCircuit() {
+    when(encoder.encode(any(ILoggingEvent.class))).thenReturn(new byte[]{0x00, 0x00});
+    when(deliveryStrategy.send(any(), any(), any(), any())).thenAnswer(invocation -> {
+      invocation.<FailedDeliveryCallback<Object>>getArgument(3)
+          .onFailedDelivery(invocation.getArgument(2), new TimeoutException("unreachable"));
+      return false;
+    });
+    unit.setFailureThreshold(1);
+    unit.setProbeInterval(Duration.buildByMilliseconds(50));
+    unit.start();
+    await().atMost(5, TimeUnit.SECONDS).until(unit::isProducerReady);
+
+    unit.append(new LoggingEvent("fqcn", ctx.getLogger("logger"), Level.INFO, "message", null,
+        new Object[0]));
+    await().atMost(5, TimeUnit.SECONDS)
+        .until(() -> unit.getCircuitBreaker().getState() == State.HALF_OPEN);
+  }
+
+  @Test
+  public void testFailureAfterStopStartsNoProbe() {
+    final ArgumentCaptor<FailedDeliveryCallback<ILoggingEvent>> callback = ArgumentCaptor
+        .forClass(FailedDeliveryCallback.class);
+    when(encoder.encode(any(ILoggingEvent.class))).thenReturn(new byte[]{0x00, 0x00});
+    unit.setFailureThreshold(1);
+    unit.start();
+    await().atMost(5, TimeUnit.SECONDS).until(unit::isProducerReady);
+    final LoggingEvent evt = new LoggingEvent("fqcn", ctx.getLogger("logger"), Level.INFO,
+        "message", null, new Object[0]);
+    unit.append(evt);
+    verify(deliveryStrategy).send(any(), any(), any(), callback.capture());
+    unit.stop();
+
+    // e.g. the producer failing the outstanding records while it is closed
+    callback.getValue().onFailedDelivery(evt, new TimeoutException("closed"));
+    assertTrue("isOpen", unit.getCircuitBreaker().isOpen());
+    assertFalse("probing", Thread.getAllStackTraces().keySet().stream()
+        .anyMatch(t -> t.getName().equals("kafka-appender-probe-" + unit.getName())));
+  }
+
+  private void configure(KafkaAppender<ILoggingEvent> appender) {
+    appender.setContext(ctx);
+    appender.setName("kafkaAppender");
+    appender.setEncoder(encoder);
+    appender.setTopic("topic");
+    appender.addProducerConfig("bootstrap.servers=localhost:1234");
+    appender.setKeyingStrategy(keyingStrategy);
+    appender.setDeliveryStrategy(deliveryStrategy);
   }
 
   @Test
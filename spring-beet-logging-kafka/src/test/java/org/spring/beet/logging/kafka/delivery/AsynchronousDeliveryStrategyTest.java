@@ -15,22 +15,33 @@
  */
 package org.spring.beet.logging.kafka.delivery;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.core.status.Status;
 import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import org.apache.kafka.clients.producer.Callback;
 import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.clients.producer.RecordMetadata;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.errors.TimeoutException;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
@@ -48,6 +59,11 @@ public class AsynchronousDeliveryStrategyTest {
   private final RecordMetadata recordMetadata = new RecordMetadata(topicAndPartition, 0, 0, System
       .currentTimeMillis(), null, 32, 64);
 
+  @AfterEach
+  public void after() {
+    unit.stop();
+  }
+
   @Test
   public void testCallbackWillNotTriggerOnFailedDeliveryOnNoException() {
     final ProducerRecord<String, String> record = new ProducerRecord<String, String>("topic", 0,
@@ -61,6 +77,7 @@ public class AsynchronousDeliveryStrategyTest {
     callback.onCompletion(recordMetadata, null);
 
     verify(failedDeliveryCallback, never()).onFailedDelivery(anyString(), any(Throwable.class));
+    verify(failedDeliveryCallback).onSuccessfulDelivery("msg");
   }
 
   @Test
@@ -76,7 +93,85 @@ public class AsynchronousDeliveryStrategyTest {
     final Callback callback = callbackCaptor.getValue();
     callback.onCompletion(recordMetadata, exception);
 
+    verify(failedDeliveryCallback, timeout(1000)).onFailedDelivery("msg", exception);
+  }
+
+  @Test
+  public void testFailuresAreHandedOverOffTheNetworkThread() throws InterruptedException {
+    final CountDownLatch entered = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicReference<String> thread = new AtomicReference<>();
+    doAnswer(invocation -> {
+      thread.set(Thread.currentThread().getName());
+      entered.countDown();
+      release.await(5, TimeUnit.SECONDS);
+      return null;
+    }).when(failedDeliveryCallback).onFailedDelivery(eq("first"), any(Throwable.class));
+    unit.setCallbackQueueSize(1);
+    unit.start();
+    final ProducerRecord<String, String> record = new ProducerRecord<String, String>("topic", 0,
+        null, "msg");
+    final IOException exception = new IOException("KABOOM");
+    final ArgumentCaptor<Callback> callbackCaptor = ArgumentCaptor.forClass(Callback.class);
+
+    unit.send(producer, record, "first", failedDeliveryCallback);
+    unit.send(producer, record, "second", failedDeliveryCallback);
+    unit.send(producer, record, "third", failedDeliveryCallback);
+    verify(producer, Mockito.times(3)).send(Mockito.refEq(record), callbackCaptor.capture());
+    callbackCaptor.getAllValues().get(0).onCompletion(recordMetadata, exception);
+    assertTrue(entered.await(5, TimeUnit.SECONDS));
+    // the dispatcher is busy with the first failure, the second one fills the queue
+    callbackCaptor.getAllValues().get(1).onCompletion(recordMetadata, exception);
+    callbackCaptor.getAllValues().get(2).onCompletion(recordMetadata, exception);
+    assertEquals(1, unit.getOverflowedCallbacks());
+    assertEquals("kafka-delivery-callback", thread.get());
+    // the third one does not fit and is handed over on the network thread
+    verify(failedDeliveryCallback).onFailedDelivery("third", exception);
+
+    release.countDown();
+    verify(failedDeliveryCallback, timeout(1000)).onFailedDelivery("second", exception);
+  }
+
+  @Test
+  public void testThrowingCallbackKeepsTheDispatcherAlive() {
+    final LoggerContext context = new LoggerContext();
+    doThrow(new IllegalStateException("fallback failed")).when(failedDeliveryCallback)
+        .onFailedDelivery(eq("first"), any(Throwable.class));
+    doThrow(new AssertionError("fallback failed")).when(failedDeliveryCallback)
+        .onFailedDelivery(eq("second"), any(Throwable.class));
+    unit.setContext(context);
+    unit.start();
+    final ProducerRecord<String, String> record = new ProducerRecord<String, String>("topic", 0,
+        null, "msg");
+    final IOException exception = new IOException("KABOOM");
+    final ArgumentCaptor<Callback> callbackCaptor = ArgumentCaptor.forClass(Callback.class);
+
+    unit.send(producer, record, "first", failedDeliveryCallback);
+    unit.send(producer, record, "second", failedDeliveryCallback);
+    unit.send(producer, record, "third", failedDeliveryCallback);
+    verify(producer, Mockito.times(3)).send(Mockito.refEq(record), callbackCaptor.capture());
+    for (Callback callback : callbackCaptor.getAllValues()) {
+      callback.onCompletion(recordMetadata, exception);
+    }
+    verify(failedDeliveryCallback, timeout(1000)).onFailedDelivery("third", exception);
+    assertEquals(2, context.getStatusManager().getCopyOfStatusList().stream()
+        .filter(status -> status.getLevel() == Status.ERROR).count());
+  }
+
+  @Test
+  public void testFailuresAfterStopAreHandedOverOnTheCallingThread() {
+    final ProducerRecord<String, String> record = new ProducerRecord<String, String>("topic", 0,
+        null, "msg");
+    final IOException exception = new IOException("KABOOM");
+    final ArgumentCaptor<Callback> callbackCaptor = ArgumentCaptor.forClass(Callback.class);
+    unit.start();
+    unit.send(producer, record, "msg", failedDeliveryCallback);
+    verify(producer).send(Mockito.refEq(record), callbackCaptor.capture());
+    unit.stop();
+
+    callbackCaptor.getValue().onCompletion(recordMetadata, exception);
     verify(failedDeliveryCallback).onFailedDelivery("msg", exception);
+    assertEquals(0, unit.getQueuedCallbacks());
   }
 
   @Test
@@ -0,0 +1,87 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.kafka.delivery;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import org.junit.jupiter.api.Test;
+import org.spring.beet.logging.kafka.delivery.CircuitBreaker.State;
+
+public class CircuitBreakerTest {
+
+  @Test
+  public void testOpensAfterConsecutiveFailures() {
+    CircuitBreaker unit = new CircuitBreaker(3);
+    assertThat(unit.recordFailure(), equalTo(false));
+    assertThat(unit.recordFailure(), equalTo(false));
+    unit.recordSuccess();
+    assertThat(unit.recordFailure(), equalTo(false));
+    assertThat(unit.recordFailure(), equalTo(false));
+    assertThat(unit.getState(), equalTo(State.CLOSED));
+
+    assertThat(unit.recordFailure(), equalTo(true));
+    assertThat(unit.recordFailure(), equalTo(false));
+    assertThat(unit.isOpen(), equalTo(true));
+    assertThat(unit.getOpenings(), equalTo(1L));
+  }
+
+  @Test
+  public void testOnlyAcknowledgedTrialCloses() {
+    CircuitBreaker unit = new CircuitBreaker(1);
+    assertThat(unit.recordFailure(), equalTo(true));
+    assertThat(unit.recordSuccess(), equalTo(false));
+    assertThat(unit.allowRequest(), equalTo(false));
+    assertThat(unit.getState(), equalTo(State.OPEN));
+
+    unit.halfOpen();
+    assertThat(unit.allowRequest(), equalTo(true));
+    assertThat(unit.allowRequest(), equalTo(false));
+    assertThat(unit.isOpen(), equalTo(true));
+    assertThat(unit.recordSuccess(), equalTo(true));
+    assertThat(unit.getState(), equalTo(State.CLOSED));
+    assertThat(unit.allowRequest(), equalTo(true));
+
+    assertThat(unit.recordFailure(), equalTo(true));
+    assertThat(unit.getOpenings(), equalTo(2L));
+  }
+
+  @Test
+  public void testFailedTrialOpensAgain() {
+    CircuitBreaker unit = new CircuitBreaker(1);
+    unit.recordFailure();
+    unit.halfOpen();
+    assertThat(unit.allowRequest(), equalTo(true));
+    assertThat(unit.recordFailure(), equalTo(false));
+    assertThat(unit.getState(), equalTo(State.OPEN));
+    assertThat(unit.allowRequest(), equalTo(false));
+    assertThat(unit.getOpenings(), equalTo(1L));
+
+    unit.halfOpen();
+    unit.halfOpen();
+    assertThat(unit.allowRequest(), equalTo(true));
+    assertThat(unit.allowRequest(), equalTo(false));
+  }
+
+  @Test
+  public void testZeroThresholdNeverOpens() {
+    CircuitBreaker unit = new CircuitBreaker(0);
+    for (int i = 0; i < 100; i++) {
+      unit.recordFailure();
+    }
+    assertThat(unit.isOpen(), equalTo(false));
+  }
+}
@@ -0,0 +1,173 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.kafka.delivery;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+import ch.qos.logback.core.spi.ContextAwareBase;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SpillLogTest {
+
+  @TempDir
+  Path dir;
+
+  private SpillLog open(long segmentSize, long maxSize) throws IOException {
+    return new SpillLog(new ContextAwareBase(), dir.toFile(), "segment", segmentSize, maxSize,
+        TimeUnit.DAYS.toMillis(1));
+  }
+
+  private static ProducerRecord<byte[], byte[]> record(String value) {
+    return new ProducerRecord<>("topic", null, 42L, "key".getBytes(StandardCharsets.UTF_8),
+        value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String value(ProducerRecord<byte[], byte[]> record) {
+    return new String(record.value(), StandardCharsets.UTF_8);
+  }
+
+  private File[] segments() {
+    File[] files = dir.toFile().listFiles((d, name) -> name.endsWith(".spill"));
+    Arrays.sort(files);
+    return files;
+  }
+
+  @Test
+  public void testRecordsAreReadInOrderAcrossSegments() throws IOException {
+    SpillLog log = open(64, 1024);
+    for (int i = 0; i < 5; i++) {
+      assertThat(log.append(record("value-" + i)), equalTo(true));
+    }
+    assertThat(segments().length, equalTo(5));
+
+    List<ProducerRecord<byte[], byte[]>> batch = log.peek(10);
+    assertThat(batch.size(), equalTo(1));
+    assertThat(batch.get(0).topic(), equalTo("topic"));
+    assertThat(batch.get(0).partition(), nullValue());
+    assertThat(batch.get(0).timestamp(), equalTo(42L));
+    assertThat(new String(batch.get(0).key(), StandardCharsets.UTF_8), equalTo("key"));
+    assertThat(value(batch.get(0)), equalTo("value-0"));
+    // not committed, read again
+    assertThat(value(log.peek(10).get(0)), equalTo("value-0"));
+    for (int i = 0; i < 5; i++) {
+      batch = log.peek(10);
+      assertThat(value(batch.get(0)), equalTo("value-" + i));
+      log.commit();
+    }
+    assertThat(log.isDrained(), equalTo(true));
+    assertThat(log.peek(10), empty());
+    assertThat(segments().length, equalTo(1));
+  }
+
+  @Test
+  public void testRolledSegmentsAreSealedByTheReader() throws IOException {
+    SpillLog log = open(64, 1024);
+    log.append(record("value-0"));
+    log.append(record("value-1"));
+    // rolling over neither forces nor truncates the full segment
+    assertThat(segments()[0].length(), equalTo(64L));
+    assertThat(log.getSize(), equalTo(128L));
+
+    log.seal();
+    long sealed = segments()[0].length();
+    assertThat(sealed < 64, equalTo(true));
+    assertThat(log.getSize(), equalTo(sealed + 64));
+    assertThat(value(log.peek(10).get(0)), equalTo("value-0"));
+  }
+
+  @Test
+  public void testFullLogRejectsRecords() throws IOException {
+    SpillLog log = open(64, 128);
+    assertThat(log.append(record("value-0")), equalTo(true));
+    assertThat(log.append(record("value-1")), equalTo(true));
+    assertThat(log.append(record("value-2")), equalTo(false));
+
+    log.peek(10);
+    log.commit();
+    // deletes the first segment
+    log.peek(10);
+    assertThat(log.append(record("value-3")), equalTo(true));
+  }
+
+  @Test
+  public void testRecordsSurviveReopening() throws IOException {
+    SpillLog log = open(1024, 4096);
+    log.append(record("value-0"));
+    log.append(record("value-1"));
+    log.close();
+    assertThat(log.append(record("value-2")), equalTo(false));
+
+    SpillLog reopened = open(1024, 4096);
+    assertThat(reopened.isDrained(), equalTo(false));
+    List<ProducerRecord<byte[], byte[]>> batch = reopened.peek(10);
+    assertThat(batch.size(), equalTo(2));
+    assertThat(value(batch.get(1)), equalTo("value-1"));
+    reopened.commit();
+    reopened.append(record("value-2"));
+    assertThat(value(reopened.peek(10).get(0)), equalTo("value-2"));
+    reopened.commit();
+    reopened.close();
+    assertThat(segments().length, equalTo(0));
+  }
+
+  @Test
+  public void testBadChecksumEndsTheSegment() throws IOException {
+    SpillLog log = open(1024, 4096);
+    log.append(record("value-0"));
+    log.append(record("value-1"));
+    log.close();
+    File segment = segments()[0];
+    try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+      // the last byte of the second value
+      file.seek(file.length() - 1);
+      file.write('X');
+    }
+
+    SpillLog reopened = open(1024, 4096);
+    List<ProducerRecord<byte[], byte[]>> batch = reopened.peek(10);
+    assertThat(batch.size(), equalTo(1));
+    assertThat(value(batch.get(0)), equalTo("value-0"));
+    assertThat(reopened.getCorruptedSegments(), equalTo(1L));
+    reopened.commit();
+    assertThat(reopened.isDrained(), equalTo(true));
+  }
+
+  @Test
+  public void testOldSegmentsExpire() throws IOException {
+    SpillLog log = open(64, 1024);
+    log.append(record("value-0"));
+    log.append(record("value-1"));
+    File[] segments = segments();
+    segments[0].setLastModified(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(2));
+
+    log.expire(System.currentTimeMillis());
+    assertThat(log.getExpiredSegments(), equalTo(1L));
+    assertThat(value(log.peek(10).get(0)), equalTo("value-1"));
+  }
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.kafka.delivery;
+
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import ch.qos.logback.core.util.Duration;
+import ch.qos.logback.core.util.FileSize;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+@SuppressWarnings("unchecked")
+public class SpillingDeliveryStrategyTest {
+
+  private final Producer<byte[], byte[]> producer = mock(
+      (Class<Producer<byte[], byte[]>>) (Class) Producer.class);
+  private final FailedDeliveryCallback<String> failedDeliveryCallback = mock(
+      (Class<FailedDeliveryCallback<String>>) (Class) FailedDeliveryCallback.class);
+  private final SpillingDeliveryStrategy unit = new SpillingDeliveryStrategy();
+
+  @TempDir
+  Path dir;
+
+  @AfterEach
+  public void after() {
+    unit.stop();
+  }
+
+  private static ProducerRecord<byte[], byte[]> record(String value) {
+    return new ProducerRecord<>("topic", null, null, value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testFailedRecordsAreReplayedOnRecovery() {
+    final AtomicBoolean available = new AtomicBoolean();
+    when(producer.send(any(ProducerRecord.class), any(Callback.class))).thenAnswer(invocation -> {
+      invocation.<Callback>getArgument(1).onCompletion(null,
+          available.get() ? null : new TimeoutException("unreachable"));
+      return null;
+    });
+    when(producer.send(any(ProducerRecord.class))).thenAnswer(invocation -> available.get()
+        ? CompletableFuture.completedFuture(null) : failed());
+    unit.setDirectory(dir.toString());
+    unit.setReplayRate(0);
+    unit.setRetryInterval(Duration.buildByMilliseconds(10));
+    unit.start();
+
+    unit.send(producer, record("first"), "first", failedDeliveryCallback);
+    await().atMost(5, TimeUnit.SECONDS).until(unit::isSpilling);
+    unit.send(producer, record("second"), "second", failedDeliveryCallback);
+    verify(producer, times(1)).send(any(ProducerRecord.class), any(Callback.class));
+    assertThat(unit.getSpilledRecords(), equalTo(2L));
+    // counted by the circuit breaker of the appender, but not handed to the fallback appenders
+    verify(failedDeliveryCallback, timeout(5000)).onRetainedDelivery(eq("first"),
+        any(TimeoutException.class));
+
+    available.set(true);
+    await().atMost(5, TimeUnit.SECONDS).until(() -> !unit.isSpilling());
+    assertThat(unit.getReplayedRecords(), equalTo(2L));
+    unit.send(producer, record("third"), "third", failedDeliveryCallback);
+    verify(producer, times(2)).send(any(ProducerRecord.class), any(Callback.class));
+    verify(failedDeliveryCallback, never()).onFailedDelivery(any(), any());
+    verify(failedDeliveryCallback).onSuccessfulDelivery("third");
+    verify(failedDeliveryCallback, atLeastOnce()).onSuccessfulDelivery(null);
+  }
+
+  @Test
+  public void testRetainedRecordsAreReplayed() {
+    when(producer.send(any(ProducerRecord.class))).thenAnswer(invocation -> failed());
+    unit.setDirectory(dir.toString());
+    unit.setReplayRate(0);
+    unit.setRetryInterval(Duration.buildByMilliseconds(10));
+    unit.start();
+
+    assertThat(unit.retain(record("first")), equalTo(true));
+    assertThat(unit.isSpilling(), equalTo(true));
+    unit.send(producer, record("second"), "second", failedDeliveryCallback);
+    verify(producer, never()).send(any(ProducerRecord.class), any(Callback.class));
+    // the failed replay is reported to the circuit breaker
+    verify(failedDeliveryCallback, timeout(5000).atLeastOnce()).onRetainedDelivery(eq(null),
+        any(TimeoutException.class));
+
+    when(producer.send(any(ProducerRecord.class)))
+        .thenReturn(CompletableFuture.completedFuture(null));
+    await().atMost(5, TimeUnit.SECONDS).until(() -> !unit.isSpilling());
+    assertThat(unit.getReplayedRecords(), equalTo(2L));
+    verify(failedDeliveryCallback, never()).onFailedDelivery(any(), any());
+  }
+
+  @Test
+  public void testRecordsWhichDoNotFitGoToTheCallback() {
+    when(producer.send(any(ProducerRecord.class), any(Callback.class))).thenAnswer(invocation -> {
+      invocation.<Callback>getArgument(1).onCompletion(null, new TimeoutException("unreachable"));
+      return null;
+    });
+    when(producer.send(any(ProducerRecord.class))).thenAnswer(invocation -> failed());
+    unit.setDirectory(dir.toString());
+    unit.setSegmentSize(new FileSize(64));
+    unit.setMaxSize(new FileSize(64));
+    unit.start();
+
+    unit.send(producer, record("first"), "first", failedDeliveryCallback);
+    await().atMost(5, TimeUnit.SECONDS).until(unit::isSpilling);
+    unit.send(producer, record("second"), "second", failedDeliveryCallback);
+    verify(failedDeliveryCallback, never()).onFailedDelivery(eq("first"), any());
+    verify(failedDeliveryCallback).onFailedDelivery("second", null);
+    assertThat(unit.getRejectedRecords(), equalTo(1L));
+  }
+
+  private static CompletableFuture<RecordMetadata> failed() {
+    CompletableFuture<RecordMetadata> future = new CompletableFuture<>();
+    future.completeExceptionally(new TimeoutException("unreachable"));
+    return future;
+  }
+}
@@ -0,0 +1,34 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging;
+
+/**
+ * What a guarded {@code logging.sensitive[n]} rule does when its regex runs out of steps.
+ *
+ * @author zhanglei
+ */
+public enum BudgetExceededAction {
+
+  /**
+   * Replace the whole message, nothing the rule was meant to hide can leak.
+   */
+  MASK_MESSAGE,
+
+  /**
+   * Leave the message as it was before the rule and continue with the next rule.
+   */
+  SKIP_RULE
+}
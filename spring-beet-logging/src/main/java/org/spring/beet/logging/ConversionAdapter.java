@@ -17,32 +17,62 @@ package org.spring.beet.logging;
 
 import ch.qos.logback.classic.pattern.MessageConverter;
 import ch.qos.logback.classic.spi.ILoggingEvent;
-import java.util.Iterator;
-import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
-import org.spring.beet.common.springboot.ApplicationContextWrapper;
+import org.slf4j.helpers.MessageFormatter;
+import org.spring.beet.logging.metrics.LoggerCosts;
+import org.spring.beet.logging.metrics.LoggingMetrics;
+import org.spring.beet.logging.sensitive.ArgumentMasker;
+import org.spring.beet.logging.sensitive.Masker;
+import org.spring.beet.logging.sensitive.SensitiveRules;
 
+/**
+ * Masks {@code %msg} with the {@link SensitiveRules} snapshot published by {@link
+ * LoggingAutoConfiguration}, a sample of the calls is timed for {@link LoggerCosts}.
+ */
 @Slf4j
 public class ConversionAdapter extends MessageConverter {
 
-  @Setter
-  private LoggingSensitiveProperties loggingSensitiveProperties;
+  private SensitiveRules rules;
+
+  /**
+   * Pins this converter to the given properties instead of the published snapshot.
+   */
+  public void setLoggingSensitiveProperties(LoggingSensitiveProperties properties) {
+    this.rules = SensitiveRules.compile(properties);
+  }
 
   @Override
   public String convert(ILoggingEvent event) {
-    if (loggingSensitiveProperties == null) {
-      ApplicationContextWrapper.getContext().ifPresent(context -> {
-        if (context.containsBean("loggingSensitiveProperties")) {
-          loggingSensitiveProperties = context.getBean(LoggingSensitiveProperties.class);
-        }
-      });
-    }
-    if (loggingSensitiveProperties == null) {
+    SensitiveRules rules = this.rules != null ? this.rules : SensitiveRules.current();
+    boolean sampled = LoggerCosts.sample();
+    if (rules.isDisabled() && !sampled) {
       return event.getFormattedMessage();
+    }
+    long start = System.nanoTime();
+    String message = rules.isDisabled() ? event.getFormattedMessage() : mask(event, rules);
+    long nanos = System.nanoTime() - start;
+    if (!rules.isDisabled()) {
+      LoggingMetrics.masking().record(event.getLevel(), nanos);
+    }
+    if (sampled) {
+      LoggerCosts.recordFormatting(event, nanos);
+    }
+    return message;
+  }
+
+  private String mask(ILoggingEvent event, SensitiveRules rules) {
+    if (rules.getMode() == SensitiveMode.ARGUMENTS
+        && event.getArgumentArray() != null && event.getMessage() != null) {
+      try {
+        return maskArguments(event, rules.getMasker());
+      } catch (Exception e) {
+        log.error("sensitive argument masking fail:", e); // $COVERAGE-IGNORE$
+        return event.getFormattedMessage(); // $COVERAGE-IGNORE$
+      }
     } else {
       String msg = event.getFormattedMessage();
       try {
-        return sensitiveRegexReplacement(msg);
+        return rules.getMasker().mask(msg);
       } catch (Exception e) {
         log.error("sensitive regex replacement fail:", e); // $COVERAGE-IGNORE$
         return msg; // $COVERAGE-IGNORE$
@@ -50,12 +80,13 @@ public class ConversionAdapter extends MessageConverter {
     }
   }
 
-  private String sensitiveRegexReplacement(String msg) {
-    Iterator<Integer> it = loggingSensitiveProperties.getSensitive().keySet().iterator();
-    while (it.hasNext()) {
-      RegexReplacement regexReplacement = loggingSensitiveProperties.getSensitive().get(it.next());
-      msg = msg.replaceAll(regexReplacement.getRegex(), regexReplacement.getReplacement());
+  private String maskArguments(ILoggingEvent event, Masker masker) {
+    Object[] args = event.getArgumentArray();
+    Object[] maskedArgs = ArgumentMasker.mask(args, masker);
+    String template = masker.mask(event.getMessage());
+    if (maskedArgs == args && template.equals(event.getMessage())) {
+      return event.getFormattedMessage();
     }
-    return msg;
+    return MessageFormatter.arrayFormat(template, maskedArgs).getMessage();
   }
-}
\ No newline at end of file
+}
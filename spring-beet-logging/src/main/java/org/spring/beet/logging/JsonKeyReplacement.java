@@ -0,0 +1,36 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Key based masking of JSON embedded in log messages, bound from
+ * {@code logging.sensitive-json}.
+ */
+@Getter
+@Setter
+public class JsonKeyReplacement {
+
+  private Set<String> keys = new LinkedHashSet<>();
+
+  private String replacement = "****";
+
+  private boolean ignoreCase = false;
+}
@@ -17,13 +17,32 @@ package org.spring.beet.logging;
 
 import lombok.extern.slf4j.Slf4j;
 import org.spring.beet.common.springboot.ApplicationContextWrapper;
+import org.spring.beet.logging.metrics.LoggerCostEncoder;
+import org.spring.beet.logging.metrics.LoggerCostEndpoint;
+import org.spring.beet.logging.metrics.LoggerCosts;
+import org.spring.beet.logging.metrics.LoggingMetricsBinder;
+import org.spring.beet.logging.sensitive.SensitiveRules;
+import org.spring.beet.logging.tail.TailBufferFilter;
 import org.springframework.beans.BeansException;
+import org.springframework.boot.actuate.autoconfigure.endpoint.condition.ConditionalOnAvailableEndpoint;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.cloud.context.environment.EnvironmentChangeEvent;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.ApplicationListener;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.Ordered;
+import org.springframework.core.env.Environment;
 
 @Slf4j
+@Configuration(proxyBeanMethods = false)
 @SuppressWarnings("unchecked")
 public class LoggingAutoConfiguration implements ApplicationContextAware {
 
@@ -43,9 +62,103 @@ public class LoggingAutoConfiguration implements ApplicationContextAware {
 
   @Bean(name = "loggingSensitiveProperties")
   public LoggingSensitiveProperties loggingSensitiveProperties() {
-    LoggingSensitiveProperties loggingSensitiveProperties = Binder
-        .get(this.applicationContext.getEnvironment())
-        .bind("logging", LoggingSensitiveProperties.class).orElse(null);
+    LoggingSensitiveProperties loggingSensitiveProperties = bindSensitiveProperties(
+        this.applicationContext.getEnvironment());
+    publishSensitiveRules(loggingSensitiveProperties);
     return loggingSensitiveProperties;
   }
+
+  static LoggingSensitiveProperties bindSensitiveProperties(Environment environment) {
+    return Binder.get(environment).bind("logging", LoggingSensitiveProperties.class).orElse(null);
+  }
+
+  static void publishSensitiveRules(LoggingSensitiveProperties loggingSensitiveProperties) {
+    try {
+      SensitiveRules.publish(SensitiveRules.compile(loggingSensitiveProperties));
+    } catch (IllegalArgumentException e) {
+      log.error("invalid logging.sensitive rules, keep the rules in use:", e);
+    }
+  }
+
+  @Bean(name = "loggerCostProperties")
+  public LoggerCostProperties loggerCostProperties() {
+    LoggerCostProperties loggerCostProperties = Binder.get(this.applicationContext.getEnvironment())
+        .bind("logging.cost", LoggerCostProperties.class).orElseGet(LoggerCostProperties::new);
+    LoggerCosts.configure(loggerCostProperties.isEnabled(), loggerCostProperties.isByTemplate(),
+        loggerCostProperties.getMaxEntries(), loggerCostProperties.getSampleRate());
+    if (loggerCostProperties.isEnabled()) {
+      LoggerCostEncoder.instrument();
+    }
+    return loggerCostProperties;
+  }
+
+  /**
+   * Recompiles the sensitive rules when {@code logging.sensitive*} properties change at runtime,
+   * e.g. through a refresh or the actuator {@code env} endpoint of Spring Cloud.
+   */
+  @Configuration(proxyBeanMethods = false)
+  @ConditionalOnClass(name = "org.springframework.cloud.context.environment.EnvironmentChangeEvent")
+  static class SensitiveRulesRefreshConfiguration {
+
+    @Bean
+    public ApplicationListener<EnvironmentChangeEvent> sensitiveRulesRefreshListener(
+        Environment environment) {
+      return event -> {
+        if (event.getKeys().stream().anyMatch(key -> key.startsWith("logging.sensitive"))) {
+          log.info("logging.sensitive properties changed, recompile sensitive rules");
+          publishSensitiveRules(bindSensitiveProperties(environment));
+        }
+      };
+    }
+  }
+
+  /**
+   * Binds the logging pipeline to the meter registry, {@code logging.metrics.enabled=false} turns
+   * it off.
+   */
+  @Configuration(proxyBeanMethods = false)
+  @ConditionalOnClass(name = "io.micrometer.core.instrument.binder.MeterBinder")
+  @ConditionalOnProperty(value = "logging.metrics.enabled", matchIfMissing = true)
+  static class LoggingMetricsConfiguration {
+
+    @Bean
+    public LoggingMetricsBinder loggingMetricsBinder() {
+      return new LoggingMetricsBinder();
+    }
+
+  }
+
+  /**
+   * Reports the costs recorded by {@link LoggerCosts}, exposed like any other actuator endpoint
+   * ({@code management.endpoints.web.exposure.include=loggercost}).
+   */
+  @Configuration(proxyBeanMethods = false)
+  @ConditionalOnClass(name = "org.springframework.boot.actuate.endpoint.annotation.Endpoint")
+  static class LoggerCostEndpointConfiguration {
+
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnAvailableEndpoint
+    public LoggerCostEndpoint loggerCostEndpoint() {
+      return new LoggerCostEndpoint();
+    }
+  }
+
+  /**
+   * Tracks servlet requests for the tail buffer configured in {@code logback-spring.xml}.
+   */
+  @Configuration(proxyBeanMethods = false)
+  @Profile("log-tail-buffer")
+  @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+  @ConditionalOnClass(name = "org.springframework.web.filter.OncePerRequestFilter")
+  static class TailBufferConfiguration {
+
+    @Bean
+    public FilterRegistrationBean<TailBufferFilter> tailBufferFilter() {
+      FilterRegistrationBean<TailBufferFilter> registration = new FilterRegistrationBean<>(
+          new TailBufferFilter());
+      registration.setOrder(Ordered.HIGHEST_PRECEDENCE + 10);
+      return registration;
+    }
+  }
 }
\ No newline at end of file
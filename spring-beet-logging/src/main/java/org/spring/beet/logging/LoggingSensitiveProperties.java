@@ -25,4 +25,8 @@ import lombok.Setter;
 public class LoggingSensitiveProperties {
 
   public Map<Integer, RegexReplacement> sensitive = new HashMap<>();
+
+  private JsonKeyReplacement sensitiveJson = new JsonKeyReplacement();
+
+  private SensitiveMode sensitiveMode = SensitiveMode.MESSAGE;
 }
\ No newline at end of file
@@ -22,6 +22,12 @@ public class RegexReplacement {
 
   public String regex;
   private String replacement;
+  /**
+   * Upper bound of characters the regex may inspect per message, {@code null} runs the rule
+   * unguarded.
+   */
+  private Long maxSteps;
+  private BudgetExceededAction onBudgetExceeded;
 
   public String getRegex() {
     return regex;
@@ -30,4 +36,12 @@ public class RegexReplacement {
   public String getReplacement() {
     return replacement;
   }
+
+  public Long getMaxSteps() {
+    return maxSteps;
+  }
+
+  public BudgetExceededAction getOnBudgetExceeded() {
+    return onBudgetExceeded;
+  }
 }
\ No newline at end of file
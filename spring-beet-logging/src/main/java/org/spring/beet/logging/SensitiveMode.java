@@ -0,0 +1,36 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging;
+
+/**
+ * Where {@link ConversionAdapter} applies the sensitive rules.
+ *
+ * @author zhanglei
+ */
+public enum SensitiveMode {
+
+  /**
+   * Mask the formatted message with the {@code logging.sensitive[n]} rules.
+   */
+  MESSAGE,
+
+  /**
+   * Mask the message template and each argument before formatting. Arguments whose type declares
+   * {@link org.spring.beet.logging.sensitive.Sensitive} fields are rendered by a cached per-type
+   * masker and are not scanned by the regex rules.
+   */
+  ARGUMENTS
+}
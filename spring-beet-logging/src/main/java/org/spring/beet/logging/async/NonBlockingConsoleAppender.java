@@ -0,0 +1,329 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.async;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.CoreConstants;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.encoder.Encoder;
+import ch.qos.logback.core.util.FileSize;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import org.spring.beet.logging.metrics.LoggingMetrics;
+import org.spring.beet.logging.metrics.StageMetrics;
+
+/**
+ * Console appender whose logging threads never wait for stdout.
+ *
+ * <p>Events are encoded by the logging thread and queued in a lock-free {@link RingBuffer} of
+ * {@code ringBufferSize} events holding at most {@code maxBufferedSize} bytes. A single writer
+ * thread gathers the queued events into one channel write, so a slow or stuck reader of stdout,
+ * such as a log collector in a container, stalls only the writer thread. When the buffer is full
+ * the event is dropped, with {@link OverflowPolicy#DEGRADE} low severity events are already
+ * dropped and severe ones truncated once the buffer is three quarters full. Drops and truncations
+ * are counted, the time to encode and queue an event is recorded in {@link LoggingMetrics}.
+ *
+ * <pre>
+ * &lt;appender name="Console" class="org.spring.beet.logging.async.NonBlockingConsoleAppender"&gt;
+ *   &lt;encoder&gt;
+ *     &lt;pattern&gt;%ts %p %cls{1.} [%t] %m%n&lt;/pattern&gt;
+ *   &lt;/encoder&gt;
+ * &lt;/appender&gt;
+ * </pre>
+ *
+ * @author zhanglei
+ */
+public class NonBlockingConsoleAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
+
+  private static final byte[] TRUNCATED = (" [truncated]" + CoreConstants.LINE_SEPARATOR)
+      .getBytes(StandardCharsets.UTF_8);
+  private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private final AtomicLong bufferedBytes = new AtomicLong();
+  private final LongAdder droppedEvents = new LongAdder();
+  private final LongAdder degradedEvents = new LongAdder();
+
+  private Encoder<ILoggingEvent> encoder;
+  private String target = "System.out";
+  private int ringBufferSize = RingBufferAppender.DEFAULT_RING_BUFFER_SIZE;
+  private FileSize maxBufferedSize = new FileSize(8 * FileSize.MB_COEFFICIENT);
+  private int batchSize = 256;
+  private OverflowPolicy overflowPolicy = OverflowPolicy.DEGRADE;
+  private Level degradeLevel = Level.WARN;
+  private int degradedLength = 1024;
+  private int maxFlushTime = 1000;
+
+  private WritableByteChannel channel;
+  private RingBuffer<byte[]> ringBuffer;
+  private long maxBytes;
+  private Writer writer;
+  private StageMetrics metrics;
+  private volatile boolean writerParked;
+
+  @Override
+  public void start() {
+    if (isStarted()) {
+      return;
+    }
+    if (encoder == null) {
+      addError("no encoder set for the appender named [" + name + "]");
+      return;
+    }
+    if (batchSize <= 0 || degradedLength <= 0 || maxBufferedSize.getSize() <= 0) {
+      addError("batchSize, degradedLength and maxBufferedSize must be positive");
+      return;
+    }
+    try {
+      ringBuffer = new RingBuffer<>(ringBufferSize);
+    } catch (IllegalArgumentException e) {
+      addError("invalid ringBufferSize", e);
+      return;
+    }
+    if (channel == null) {
+      channel = new FileOutputStream(
+          "System.err".equalsIgnoreCase(target) ? FileDescriptor.err : FileDescriptor.out)
+          .getChannel();
+    }
+    maxBytes = maxBufferedSize.getSize();
+    metrics = LoggingMetrics.appender(String.valueOf(getName()));
+    writer = new Writer();
+    writer.setDaemon(true);
+    writer.setName("NonBlockingConsoleAppender-Writer-" + getName());
+    super.start();
+    writer.start();
+    byte[] header = encoder.headerBytes();
+    if (header != null && header.length > 0) {
+      offer(header);
+    }
+  }
+
+  @Override
+  public void stop() {
+    if (!isStarted()) {
+      return;
+    }
+    byte[] footer = encoder.footerBytes();
+    if (footer != null && footer.length > 0) {
+      offer(footer);
+    }
+    super.stop();
+    LockSupport.unpark(writer);
+    try {
+      writer.join(maxFlushTime);
+      if (writer.isAlive()) {
+        addWarn("max flush timeout (" + maxFlushTime + " ms) reached, "
+            + ringBuffer.size() + " queued events may be discarded");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      addError("interrupted while waiting for the writer to finish", e);
+    }
+    // the channel of stdout is left open
+  }
+
+  @Override
+  protected void append(ILoggingEvent event) {
+    long start = System.nanoTime();
+    enqueue(event);
+    metrics.record(event.getLevel(), System.nanoTime() - start);
+  }
+
+  private void enqueue(ILoggingEvent event) {
+    byte[] bytes = encoder.encode(event);
+    if (bytes == null || bytes.length == 0) {
+      return;
+    }
+    if (overflowPolicy == OverflowPolicy.DEGRADE && bufferedBytes.get() > maxBytes / 4 * 3) {
+      if (!event.getLevel().isGreaterOrEqual(degradeLevel)) {
+        droppedEvents.increment();
+        return;
+      }
+      if (bytes.length > degradedLength) {
+        bytes = truncate(bytes, degradedLength);
+        degradedEvents.increment();
+      }
+    }
+    if (!offer(bytes)) {
+      droppedEvents.increment();
+    }
+  }
+
+  private boolean offer(byte[] bytes) {
+    if (bufferedBytes.addAndGet(bytes.length) > maxBytes) {
+      bufferedBytes.addAndGet(-bytes.length);
+      return false;
+    }
+    if (!ringBuffer.offer(bytes)) {
+      bufferedBytes.addAndGet(-bytes.length);
+      return false;
+    }
+    if (writerParked) {
+      LockSupport.unpark(writer);
+    }
+    return true;
+  }
+
+  static byte[] truncate(byte[] bytes, int length) {
+    int end = length;
+    while (end > 0 && (bytes[end] & 0xc0) == 0x80) {
+      // do not cut a UTF-8 sequence
+      end--;
+    }
+    byte[] truncated = Arrays.copyOf(bytes, end + TRUNCATED.length);
+    System.arraycopy(TRUNCATED, 0, truncated, end, TRUNCATED.length);
+    return truncated;
+  }
+
+  private void write(byte[][] batch, ByteBuffer[] buffers, int count) {
+    long length = 0;
+    for (int i = 0; i < count; i++) {
+      buffers[i] = ByteBuffer.wrap(batch[i]);
+      length += batch[i].length;
+      batch[i] = null;
+    }
+    try {
+      if (channel instanceof GatheringByteChannel) {
+        GatheringByteChannel gathering = (GatheringByteChannel) channel;
+        for (long written = 0; written < length; ) {
+          written += gathering.write(buffers, 0, count);
+        }
+      } else {
+        for (int i = 0; i < count; i++) {
+          while (buffers[i].hasRemaining()) {
+            channel.write(buffers[i]);
+          }
+        }
+      }
+    } catch (IOException e) {
+      addError("failed to write to " + target, e);
+    } finally {
+      Arrays.fill(buffers, 0, count, null);
+      bufferedBytes.addAndGet(-length);
+    }
+  }
+
+  private class Writer extends Thread {
+
+    @Override
+    public void run() {
+      byte[][] batch = new byte[batchSize][];
+      ByteBuffer[] buffers = new ByteBuffer[batchSize];
+      while (isStarted()) {
+        int count = ringBuffer.drainTo(batch, batchSize);
+        if (count > 0) {
+          write(batch, buffers, count);
+          continue;
+        }
+        writerParked = true;
+        if (ringBuffer.isEmpty() && isStarted()) {
+          LockSupport.parkNanos(this, MAX_PARK_NANOS);
+        }
+        writerParked = false;
+      }
+      for (int count = ringBuffer.drainTo(batch, batchSize); count > 0;
+          count = ringBuffer.drainTo(batch, batchSize)) {
+        write(batch, buffers, count);
+      }
+    }
+  }
+
+  /**
+   * Replaces stdout, for tests.
+   */
+  void setChannel(WritableByteChannel channel) {
+    this.channel = channel;
+  }
+
+  public Encoder<ILoggingEvent> getEncoder() {
+    return encoder;
+  }
+
+  public void setEncoder(Encoder<ILoggingEvent> encoder) {
+    this.encoder = encoder;
+  }
+
+  public void setTarget(String target) {
+    this.target = target.trim();
+  }
+
+  public void setRingBufferSize(int ringBufferSize) {
+    this.ringBufferSize = ringBufferSize;
+  }
+
+  public void setMaxBufferedSize(FileSize maxBufferedSize) {
+    this.maxBufferedSize = maxBufferedSize;
+  }
+
+  public void setBatchSize(int batchSize) {
+    this.batchSize = batchSize;
+  }
+
+  public void setOverflowPolicy(String overflowPolicy) {
+    this.overflowPolicy = OverflowPolicy.valueOf(overflowPolicy.trim().toUpperCase());
+  }
+
+  public void setDegradeLevel(String degradeLevel) {
+    this.degradeLevel = Level.toLevel(degradeLevel, Level.WARN);
+  }
+
+  public void setDegradedLength(int degradedLength) {
+    this.degradedLength = degradedLength;
+  }
+
+  public void setMaxFlushTime(int maxFlushTime) {
+    this.maxFlushTime = maxFlushTime;
+  }
+
+  /**
+   * Bytes currently queued for the writer.
+   */
+  public long getBufferedBytes() {
+    return bufferedBytes.get();
+  }
+
+  /**
+   * Events currently queued for the writer.
+   */
+  public int getQueuedEvents() {
+    return ringBuffer == null ? 0 : ringBuffer.size();
+  }
+
+  /**
+   * Events dropped because the buffer was full, or degraded and the event below {@code
+   * degradeLevel}.
+   */
+  public long getDroppedEvents() {
+    return droppedEvents.sum();
+  }
+
+  /**
+   * Events truncated while the buffer was degraded.
+   */
+  public long getDegradedEvents() {
+    return degradedEvents.sum();
+  }
+}
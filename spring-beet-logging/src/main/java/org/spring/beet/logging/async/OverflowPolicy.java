@@ -0,0 +1,36 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.async;
+
+/**
+ * What a {@link NonBlockingConsoleAppender} does when its buffer fills up.
+ *
+ * @author zhanglei
+ */
+public enum OverflowPolicy {
+
+  /**
+   * Drops events only when they do not fit into the buffer any more.
+   */
+  DROP,
+
+  /**
+   * Once the buffer is three quarters full, drops events below {@code degradeLevel} and truncates
+   * the others to {@code degradedLength} bytes, so that the most severe events still fit. Events
+   * are dropped when the buffer is full.
+   */
+  DEGRADE
+}
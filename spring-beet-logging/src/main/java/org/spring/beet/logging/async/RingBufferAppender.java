@@ -0,0 +1,356 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.async;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.OutputStreamAppender;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.spi.AppenderAttachable;
+import ch.qos.logback.core.spi.AppenderAttachableImpl;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import org.spring.beet.logging.metrics.LoggingMetrics;
+import org.spring.beet.logging.metrics.StageMetrics;
+
+/**
+ * Asynchronous appender on top of a preallocated lock-free {@link RingBuffer}.
+ *
+ * <p>Logging threads only claim a slot of the ring buffer; a single worker thread drains up to
+ * {@code batchSize} events at a time into the attached appenders. Attached {@link
+ * OutputStreamAppender}s with {@code immediateFlush} are switched to flush once per batch
+ * instead of once per event, so they must not be referenced anywhere else.
+ *
+ * <p>When the buffer is full, events of {@code dropLevel} or below are dropped and counted.
+ * More severe events wait for a free slot, unless {@code neverBlock} is set. The worker waits
+ * for events according to {@link WaitStrategy}, {@link WaitStrategy#BLOCKING} by default. Caller
+ * data is only computed before an event is queued if {@code includeCallerData} is set. The time
+ * each attached appender takes per event is recorded in {@link LoggingMetrics}.
+ *
+ * @author zhanglei
+ */
+public class RingBufferAppender extends UnsynchronizedAppenderBase<ILoggingEvent> implements
+    AppenderAttachable<ILoggingEvent> {
+
+  public static final int DEFAULT_RING_BUFFER_SIZE = 8192;
+
+  static final long SLEEP_NANOS = 100_000L;
+
+  private static final int SPIN_TRIES = 100;
+  private static final int YIELD_TRIES = 100;
+  private static final long MAX_BLOCK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private final AppenderAttachableImpl<ILoggingEvent> aai = new AppenderAttachableImpl<>();
+  private final List<OutputStreamAppender<ILoggingEvent>> batchFlushed =
+      new CopyOnWriteArrayList<>();
+  private final LongAdder droppedEvents = new LongAdder();
+
+  private int ringBufferSize = DEFAULT_RING_BUFFER_SIZE;
+  private int batchSize = 256;
+  private WaitStrategy waitStrategy = WaitStrategy.BLOCKING;
+  private Level dropLevel = Level.INFO;
+  private boolean neverBlock;
+  private boolean includeCallerData;
+  private int maxFlushTime = 1000;
+
+  private volatile Targets targets = new Targets(new ArrayList<>());
+  private RingBuffer<ILoggingEvent> ringBuffer;
+  private Worker worker;
+  private volatile boolean workerParked;
+
+  @Override
+  public void start() {
+    if (isStarted()) {
+      return;
+    }
+    if (batchSize <= 0) {
+      addError("batchSize must be positive");
+      return;
+    }
+    try {
+      ringBuffer = new RingBuffer<>(ringBufferSize);
+    } catch (IllegalArgumentException e) {
+      addError("invalid ringBufferSize", e);
+      return;
+    }
+    if (!aai.iteratorForAppenders().hasNext()) {
+      addWarn("no appender attached to [" + name + "]");
+    }
+    worker = new Worker();
+    worker.setDaemon(true);
+    worker.setName("RingBufferAppender-Worker-" + getName());
+    super.start();
+    worker.start();
+  }
+
+  @Override
+  public void stop() {
+    if (!isStarted()) {
+      return;
+    }
+    super.stop();
+    LockSupport.unpark(worker);
+    try {
+      worker.join(maxFlushTime);
+      if (worker.isAlive()) {
+        addWarn("max flush timeout (" + maxFlushTime + " ms) reached, "
+            + ringBuffer.size() + " queued events may be discarded");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      addError("interrupted while waiting for the worker to finish", e);
+    }
+    aai.detachAndStopAllAppenders();
+    batchFlushed.clear();
+    updateTargets();
+  }
+
+  @Override
+  protected void append(ILoggingEvent event) {
+    event.prepareForDeferredProcessing();
+    if (includeCallerData) {
+      event.getCallerData();
+    }
+    if (!ringBuffer.offer(event) && !offerWhenFull(event)) {
+      droppedEvents.increment();
+      return;
+    }
+    if (workerParked) {
+      LockSupport.unpark(worker);
+    }
+  }
+
+  private boolean offerWhenFull(ILoggingEvent event) {
+    if (neverBlock || dropLevel.isGreaterOrEqual(event.getLevel())) {
+      return false;
+    }
+    int tries = 0;
+    while (isStarted()) {
+      if (ringBuffer.offer(event)) {
+        return true;
+      }
+      LockSupport.unpark(worker);
+      if (++tries < SPIN_TRIES) {
+        Thread.yield();
+      } else {
+        LockSupport.parkNanos(SLEEP_NANOS);
+      }
+    }
+    return false;
+  }
+
+  private void idle(int idleCount) {
+    switch (waitStrategy) {
+      case BUSY_SPIN:
+        return;
+      case YIELDING:
+        if (idleCount > SPIN_TRIES) {
+          Thread.yield();
+        }
+        return;
+      case BLOCKING:
+        workerParked = true;
+        if (ringBuffer.isEmpty() && isStarted()) {
+          LockSupport.parkNanos(this, MAX_BLOCK_NANOS);
+        }
+        workerParked = false;
+        return;
+      default:
+        if (idleCount > SPIN_TRIES + YIELD_TRIES) {
+          LockSupport.parkNanos(SLEEP_NANOS);
+        } else if (idleCount > SPIN_TRIES) {
+          Thread.yield();
+        }
+    }
+  }
+
+  private void appendBatch(ILoggingEvent[] batch, int count) {
+    Targets current = targets;
+    for (int i = 0; i < count; i++) {
+      ILoggingEvent event = batch[i];
+      for (int j = 0; j < current.appenders.length; j++) {
+        long start = System.nanoTime();
+        current.appenders[j].doAppend(event);
+        current.metrics[j].record(event.getLevel(), System.nanoTime() - start);
+      }
+      batch[i] = null;
+    }
+    for (OutputStreamAppender<ILoggingEvent> appender : batchFlushed) {
+      OutputStream outputStream = appender.getOutputStream();
+      if (outputStream != null) {
+        try {
+          outputStream.flush();
+        } catch (IOException e) {
+          addError("failed to flush [" + appender.getName() + "]", e);
+        }
+      }
+    }
+  }
+
+  private class Worker extends Thread {
+
+    @Override
+    public void run() {
+      ILoggingEvent[] batch = new ILoggingEvent[batchSize];
+      int idleCount = 0;
+      while (isStarted()) {
+        int count = ringBuffer.drainTo(batch, batchSize);
+        if (count == 0) {
+          idle(++idleCount);
+        } else {
+          idleCount = 0;
+          appendBatch(batch, count);
+        }
+      }
+      for (int count = ringBuffer.drainTo(batch, batchSize); count > 0;
+          count = ringBuffer.drainTo(batch, batchSize)) {
+        appendBatch(batch, count);
+      }
+    }
+  }
+
+  /**
+   * Snapshot of the attached appenders and their metrics, read by the worker once per batch.
+   */
+  private static final class Targets {
+
+    final Appender<ILoggingEvent>[] appenders;
+    final StageMetrics[] metrics;
+
+    @SuppressWarnings("unchecked")
+    Targets(List<Appender<ILoggingEvent>> attached) {
+      appenders = attached.toArray(new Appender[0]);
+      metrics = new StageMetrics[appenders.length];
+      for (int i = 0; i < appenders.length; i++) {
+        metrics[i] = LoggingMetrics.appender(String.valueOf(appenders[i].getName()));
+      }
+    }
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public void addAppender(Appender<ILoggingEvent> newAppender) {
+    if (newAppender instanceof OutputStreamAppender
+        && ((OutputStreamAppender<ILoggingEvent>) newAppender).isImmediateFlush()) {
+      ((OutputStreamAppender<ILoggingEvent>) newAppender).setImmediateFlush(false);
+      batchFlushed.add((OutputStreamAppender<ILoggingEvent>) newAppender);
+    }
+    addInfo("attaching appender named [" + newAppender.getName() + "] to " + getName());
+    aai.addAppender(newAppender);
+    updateTargets();
+  }
+
+  private void updateTargets() {
+    List<Appender<ILoggingEvent>> appenders = new ArrayList<>();
+    aai.iteratorForAppenders().forEachRemaining(appenders::add);
+    targets = new Targets(appenders);
+  }
+
+  @Override
+  public Iterator<Appender<ILoggingEvent>> iteratorForAppenders() {
+    return aai.iteratorForAppenders();
+  }
+
+  @Override
+  public Appender<ILoggingEvent> getAppender(String name) {
+    return aai.getAppender(name);
+  }
+
+  @Override
+  public boolean isAttached(Appender<ILoggingEvent> appender) {
+    return aai.isAttached(appender);
+  }
+
+  @Override
+  public void detachAndStopAllAppenders() {
+    batchFlushed.clear();
+    aai.detachAndStopAllAppenders();
+    updateTargets();
+  }
+
+  @Override
+  public boolean detachAppender(Appender<ILoggingEvent> appender) {
+    batchFlushed.remove(appender);
+    boolean detached = aai.detachAppender(appender);
+    updateTargets();
+    return detached;
+  }
+
+  @Override
+  public boolean detachAppender(String name) {
+    batchFlushed.removeIf(appender -> name.equals(appender.getName()));
+    boolean detached = aai.detachAppender(name);
+    updateTargets();
+    return detached;
+  }
+
+  public void setRingBufferSize(int ringBufferSize) {
+    this.ringBufferSize = ringBufferSize;
+  }
+
+  public void setBatchSize(int batchSize) {
+    this.batchSize = batchSize;
+  }
+
+  public void setWaitStrategy(String waitStrategy) {
+    this.waitStrategy = WaitStrategy.valueOf(waitStrategy.trim().toUpperCase());
+  }
+
+  public void setDropLevel(String dropLevel) {
+    this.dropLevel = Level.toLevel(dropLevel, Level.INFO);
+  }
+
+  public void setNeverBlock(boolean neverBlock) {
+    this.neverBlock = neverBlock;
+  }
+
+  public void setIncludeCallerData(boolean includeCallerData) {
+    this.includeCallerData = includeCallerData;
+  }
+
+  public void setMaxFlushTime(int maxFlushTime) {
+    this.maxFlushTime = maxFlushTime;
+  }
+
+  /**
+   * Capacity of the ring buffer, {@code ringBufferSize} rounded up to a power of two.
+   */
+  public int getRingBufferCapacity() {
+    return ringBuffer == null ? 0 : ringBuffer.capacity();
+  }
+
+  /**
+   * Events currently queued.
+   */
+  public int getQueuedEvents() {
+    return ringBuffer == null ? 0 : ringBuffer.size();
+  }
+
+  /**
+   * Events dropped because the ring buffer was full.
+   */
+  public long getDroppedEvents() {
+    return droppedEvents.sum();
+  }
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.async;
+
+/**
+ * How the worker of a {@link RingBufferAppender} waits for events.
+ *
+ * @author zhanglei
+ */
+public enum WaitStrategy {
+
+  /**
+   * Spins without ever giving up the CPU, lowest latency for a dedicated core.
+   */
+  BUSY_SPIN,
+
+  /**
+   * Spins for a while, then yields the CPU between polls.
+   */
+  YIELDING,
+
+  /**
+   * Spins, yields and finally sleeps for {@value RingBufferAppender#SLEEP_NANOS} ns between
+   * polls. Producers never signal the worker.
+   */
+  SLEEPING,
+
+  /**
+   * Parks until a producer signals a new event. Costs producers one volatile read, plus an
+   * unpark when the worker is idle.
+   */
+  BLOCKING
+}
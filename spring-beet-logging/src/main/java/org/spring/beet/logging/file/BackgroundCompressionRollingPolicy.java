@@ -0,0 +1,338 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.file;
+
+import ch.qos.logback.core.rolling.RolloverFailure;
+import ch.qos.logback.core.rolling.TimeBasedFileNamingAndTriggeringPolicy;
+import ch.qos.logback.core.rolling.TimeBasedRollingPolicy;
+import ch.qos.logback.core.rolling.helper.ArchiveRemover;
+import ch.qos.logback.core.rolling.helper.FileFilterUtil;
+import ch.qos.logback.core.rolling.helper.FileNamePattern;
+import ch.qos.logback.core.rolling.helper.RenameUtil;
+import ch.qos.logback.core.util.Duration;
+import ch.qos.logback.core.util.FileSize;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * {@link TimeBasedRollingPolicy} compressing rolled files on a bounded pool of its own.
+ *
+ * <p>At rollover the logging thread only renames the active file to its archive name without
+ * the compression suffix; a pool of {@code compressionThreads} threads then writes the
+ * compressed archive with the {@link CompressionCodec} (gzip by default) and deletes the
+ * uncompressed file. {@code fileNamePattern} must end with the codec extension, e.g.
+ * {@code ${LOGS}/archived/${FILE}-%d{yyyy-MM-dd}.%i.gz}, so that {@code maxHistory}, {@code
+ * totalSizeCap} and the {@code %i} counter of {@code SizeAndTimeBasedFNATP} see the compressed
+ * archives. When more than {@code maxQueuedFiles} files wait for compression, further files are
+ * kept uncompressed instead of delaying the rollover; they are queued again at the next rollover,
+ * as are the files whose compression failed. Archives left uncompressed by a previous run are
+ * queued when the policy starts. A rollover never overwrites an existing archive: since the
+ * {@code %i} counter only counts compressed archives, it is deferred to the next index instead.
+ *
+ * <p>After every compression the oldest archives, compressed or not, are deleted as long as the
+ * archive directory has less than {@code minFreeSpace} usable space.
+ *
+ * @author zhanglei
+ */
+public class BackgroundCompressionRollingPolicy<E> extends TimeBasedRollingPolicy<E> {
+
+  private CompressionCodec codec = new GzipCodec();
+  private int compressionThreads = 1;
+  private int maxQueuedFiles = 64;
+  private FileSize minFreeSpace = new FileSize(0);
+  private Duration shutdownTimeout = Duration.buildBySeconds(30);
+
+  private final RenameUtil renameUtil = new RenameUtil();
+  private final AtomicInteger backlog = new AtomicInteger();
+  private final LongAdder compressedFiles = new LongAdder();
+  private final LongAdder uncompressedBytes = new LongAdder();
+  private final LongAdder compressedBytes = new LongAdder();
+  private final LongAdder skippedFiles = new LongAdder();
+  private final LongAdder failedFiles = new LongAdder();
+  private final LongAdder deletedFiles = new LongAdder();
+  private final Queue<File> deferred = new ConcurrentLinkedQueue<>();
+
+  private ThreadPoolExecutor executor;
+  private Pattern archiveRegex;
+
+  @Override
+  public void start() {
+    if (codec == null || getFileNamePattern() == null
+        || !getFileNamePattern().endsWith(codec.getExtension())) {
+      addError("fileNamePattern must end with the codec extension "
+          + (codec == null ? null : codec.getExtension()));
+      return;
+    }
+    renameUtil.setContext(context);
+    super.start();
+    if (!isStarted()) {
+      return;
+    }
+    String stem = FileFilterUtil.afterLastSlash(
+        new FileNamePattern(getFileNamePattern(), context).toRegex());
+    String extension = codec.getExtension();
+    if (stem.endsWith(extension)) {
+      stem = stem.substring(0, stem.length() - extension.length());
+    }
+    // archives left uncompressed count against minFreeSpace as well
+    archiveRegex = Pattern.compile(stem + "(" + Pattern.quote(extension) + ")?");
+    Pattern uncompressedRegex = Pattern.compile(stem);
+    AtomicInteger threadCount = new AtomicInteger();
+    ThreadFactory threadFactory = runnable -> {
+      Thread thread = new Thread(runnable, "logback-compression-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+    executor = new ThreadPoolExecutor(compressionThreads, compressionThreads, 60L,
+        TimeUnit.SECONDS, new ArrayBlockingQueue<>(maxQueuedFiles), threadFactory);
+    executor.allowCoreThreadTimeOut(true);
+    File directory = new File(getTimeBasedFileNamingAndTriggeringPolicy()
+        .getCurrentPeriodsFileNameWithoutCompressionSuffix()).getAbsoluteFile().getParentFile();
+    File[] leftovers = directory == null ? null
+        : directory.listFiles((dir, name) -> uncompressedRegex.matcher(name).matches());
+    if (leftovers != null) {
+      Arrays.sort(leftovers, Comparator.comparingLong(File::lastModified));
+      for (File leftover : leftovers) {
+        recover(leftover);
+      }
+    }
+  }
+
+  /**
+   * Queues an archive left uncompressed by a previous run.
+   */
+  private void recover(File source) {
+    File target = new File(source.getPath() + codec.getExtension());
+    if (!target.exists()) {
+      submit(source, target);
+    } else if (source.delete()) {
+      // the previous run was stopped between writing the archive and deleting its source
+      addInfo("deleted " + source + ", already compressed to " + target);
+    }
+  }
+
+  @Override
+  public void stop() {
+    if (!isStarted()) {
+      return;
+    }
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(shutdownTimeout.getMilliseconds(), TimeUnit.MILLISECONDS)) {
+        addWarn(backlog.get() + " archives are left uncompressed");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    super.stop();
+  }
+
+  @Override
+  public void rollover() throws RolloverFailure {
+    String rawFile = getParentsRawFileProperty();
+    if (rawFile == null) {
+      // prudent mode has no file of its own to rename
+      super.rollover();
+      return;
+    }
+    TimeBasedFileNamingAndTriggeringPolicy<E> triggeringPolicy =
+        getTimeBasedFileNamingAndTriggeringPolicy();
+    rollover(rawFile, triggeringPolicy.getElapsedPeriodsFileName());
+    ArchiveRemover archiveRemover = triggeringPolicy.getArchiveRemover();
+    if (archiveRemover != null) {
+      archiveRemover.cleanAsynchronously(new Date(triggeringPolicy.getCurrentTime()));
+    }
+  }
+
+  void rollover(String rawFile, String elapsed) throws RolloverFailure {
+    String extension = codec.getExtension();
+    String archive = elapsed.endsWith(extension) ? elapsed : elapsed + extension;
+    String uncompressed = archive.substring(0, archive.length() - extension.length());
+    if (new File(archive).exists() || new File(uncompressed).exists()) {
+      // the appender keeps writing to the active file and rolls it to the next index
+      throw new RolloverFailure(archive + " already exists");
+    }
+    for (int retries = deferred.size(); retries > 0; retries--) {
+      File source = deferred.poll();
+      if (source == null) {
+        break;
+      }
+      if (source.exists()) {
+        submit(source, new File(source.getPath() + extension));
+      }
+    }
+    renameUtil.rename(rawFile, uncompressed);
+    submit(new File(uncompressed), new File(archive));
+  }
+
+  private void submit(File source, File target) {
+    backlog.incrementAndGet();
+    try {
+      executor.execute(() -> {
+        try {
+          if (!compress(source, target)) {
+            deferred.add(source);
+          }
+        } finally {
+          backlog.decrementAndGet();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      backlog.decrementAndGet();
+      skippedFiles.increment();
+      deferred.add(source);
+      addWarn("compression backlog is full, " + source + " is kept uncompressed until the next "
+          + "rollover");
+    }
+  }
+
+  /**
+   * Compresses {@code source} to {@code target} and deletes it, returns {@code false} if the
+   * compression failed and {@code source} is left in place.
+   */
+  boolean compress(File source, File target) {
+    File partial = new File(target.getPath() + ".part");
+    try {
+      try (InputStream in = new FileInputStream(source);
+          OutputStream out = codec.compress(
+              new BufferedOutputStream(new FileOutputStream(partial), 65536))) {
+        byte[] buffer = new byte[65536];
+        for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+          out.write(buffer, 0, n);
+        }
+      }
+      if (!partial.renameTo(target)) {
+        throw new IOException("failed to rename " + partial + " to " + target);
+      }
+      compressedFiles.increment();
+      uncompressedBytes.add(source.length());
+      compressedBytes.add(target.length());
+      if (!source.delete()) {
+        addWarn("failed to delete " + source);
+      }
+      freeDiskSpace(target.getAbsoluteFile().getParentFile());
+      return true;
+    } catch (IOException | RuntimeException e) {
+      failedFiles.increment();
+      if (partial.exists() && !partial.delete()) {
+        addWarn("failed to delete " + partial);
+      }
+      addError("failed to compress " + source + ", retried at the next rollover", e);
+      freeDiskSpace(target.getAbsoluteFile().getParentFile());
+      return !source.exists();
+    }
+  }
+
+  /**
+   * Deletes the oldest archives while the archive directory is short of {@code minFreeSpace}.
+   */
+  void freeDiskSpace(File directory) {
+    long required = minFreeSpace.getSize();
+    if (required <= 0 || directory == null || directory.getUsableSpace() >= required) {
+      return;
+    }
+    File[] archives = directory.listFiles(
+        (dir, name) -> archiveRegex.matcher(name).matches());
+    if (archives == null) {
+      return;
+    }
+    Arrays.sort(archives, Comparator.comparingLong(File::lastModified));
+    for (File archive : archives) {
+      if (directory.getUsableSpace() >= required) {
+        return;
+      }
+      if (archive.delete()) {
+        deletedFiles.increment();
+        addInfo("deleted " + archive + " to keep " + minFreeSpace + " free");
+      }
+    }
+  }
+
+  public void setCodec(CompressionCodec codec) {
+    this.codec = codec;
+  }
+
+  public void setCompressionThreads(int compressionThreads) {
+    this.compressionThreads = compressionThreads;
+  }
+
+  public void setMaxQueuedFiles(int maxQueuedFiles) {
+    this.maxQueuedFiles = maxQueuedFiles;
+  }
+
+  public void setMinFreeSpace(FileSize minFreeSpace) {
+    this.minFreeSpace = minFreeSpace;
+  }
+
+  public void setShutdownTimeout(Duration shutdownTimeout) {
+    this.shutdownTimeout = shutdownTimeout;
+  }
+
+  /**
+   * Archives waiting for or in compression.
+   */
+  public int getCompressionBacklog() {
+    return backlog.get();
+  }
+
+  public long getCompressedFiles() {
+    return compressedFiles.sum();
+  }
+
+  /**
+   * Compressed size over uncompressed size of all archives compressed so far.
+   */
+  public double getCompressionRatio() {
+    long uncompressed = uncompressedBytes.sum();
+    return uncompressed == 0 ? 1.0 : (double) compressedBytes.sum() / uncompressed;
+  }
+
+  /**
+   * Times an archive could not be queued because the backlog was full.
+   */
+  public long getSkippedFiles() {
+    return skippedFiles.sum();
+  }
+
+  public long getFailedFiles() {
+    return failedFiles.sum();
+  }
+
+  /**
+   * Archives deleted to keep {@code minFreeSpace} free.
+   */
+  public long getDeletedFiles() {
+    return deletedFiles.sum();
+  }
+}
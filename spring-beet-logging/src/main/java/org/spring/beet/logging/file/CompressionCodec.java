@@ -0,0 +1,37 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.file;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Compression format used by {@link BackgroundCompressionRollingPolicy}.
+ *
+ * @author zhanglei
+ */
+public interface CompressionCodec {
+
+  /**
+   * File name suffix of compressed archives, e.g. {@code .gz}.
+   */
+  String getExtension();
+
+  /**
+   * Wraps the archive output stream; closing the returned stream must close {@code out}.
+   */
+  OutputStream compress(OutputStream out) throws IOException;
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.file;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Default {@link CompressionCodec}.
+ *
+ * @author zhanglei
+ */
+public class GzipCodec implements CompressionCodec {
+
+  private int bufferSize = 8192;
+
+  @Override
+  public String getExtension() {
+    return ".gz";
+  }
+
+  @Override
+  public OutputStream compress(OutputStream out) throws IOException {
+    return new GZIPOutputStream(out, bufferSize);
+  }
+
+  public void setBufferSize(int bufferSize) {
+    this.bufferSize = bufferSize;
+  }
+}
@@ -0,0 +1,311 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.file;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.encoder.Encoder;
+import ch.qos.logback.core.rolling.helper.DateTokenConverter;
+import ch.qos.logback.core.rolling.helper.FileNamePattern;
+import ch.qos.logback.core.rolling.helper.RollingCalendar;
+import ch.qos.logback.core.rolling.helper.TimeBasedArchiveRemover;
+import ch.qos.logback.core.util.Duration;
+import ch.qos.logback.core.util.FileSize;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import org.spring.beet.logging.metrics.LoggingMetrics;
+import org.spring.beet.logging.metrics.StageMetrics;
+
+/**
+ * File appender writing into preallocated memory-mapped segments.
+ *
+ * <p>The active {@code file} is mapped {@code segmentSize} bytes at a time, an append is a
+ * memory copy into the mapping without any system call. When the segment is full or the period
+ * of {@code fileNamePattern} ends, the file is truncated to its content and renamed to the next
+ * name of {@code fileNamePattern}, which takes a {@code %d} and an {@code %i} token just like
+ * {@code SizeAndTimeBasedFNATP} ({@code ${LOGS}/archived/${FILE}-%d{yyyy-MM-dd}.%i}), and a new
+ * segment is mapped. Archives older than {@code maxHistory} periods are removed.
+ *
+ * <p>The operating system writes the mapping back on its own; in addition it is forced to disk
+ * every {@code forceInterval} from the scheduler of the logback context, never from a logging
+ * thread. Until the segment is rolled the active file is {@code segmentSize} long with zeros after
+ * the last event, a restart continues after the last non-zero byte.
+ *
+ * @author zhanglei
+ */
+public class MappedFileAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Object forceLock = new Object();
+
+  private Encoder<ILoggingEvent> encoder;
+  private String file;
+  private String fileNamePattern;
+  private FileSize segmentSize = new FileSize(50 * FileSize.MB_COEFFICIENT);
+  private Duration forceInterval = Duration.buildBySeconds(1);
+  private StageMetrics metrics;
+  private int maxHistory;
+
+  private File activeFile;
+  private FileNamePattern archivePattern;
+  private RollingCalendar rollingCalendar;
+  private TimeBasedArchiveRemover archiveRemover;
+  private ScheduledFuture<?> forceTask;
+  private FileChannel channel;
+  private volatile MappedByteBuffer segment;
+  private int segmentStart;
+  private volatile boolean dirty;
+  private long periodTime;
+  private long nextPeriod;
+  private int nextIndex;
+
+  @Override
+  public void start() {
+    if (encoder == null || file == null || fileNamePattern == null) {
+      addError("encoder, file and fileNamePattern are required for [" + name + "]");
+      return;
+    }
+    if (segmentSize.getSize() <= 0 || segmentSize.getSize() > Integer.MAX_VALUE) {
+      addError("segmentSize must be in (0, 2GB)");
+      return;
+    }
+    archivePattern = new FileNamePattern(fileNamePattern, context);
+    DateTokenConverter<Object> dateToken = archivePattern.getPrimaryDateTokenConverter();
+    if (dateToken == null || archivePattern.getIntegerTokenConverter() == null) {
+      addError("fileNamePattern [" + fileNamePattern + "] needs a %d and an %i token");
+      return;
+    }
+    rollingCalendar = new RollingCalendar(dateToken.getDatePattern());
+    if (maxHistory > 0) {
+      archiveRemover = new TimeBasedArchiveRemover(archivePattern, rollingCalendar);
+      archiveRemover.setContext(context);
+      archiveRemover.setMaxHistory(maxHistory);
+    }
+    activeFile = new File(file);
+    try {
+      File parent = activeFile.getAbsoluteFile().getParentFile();
+      if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+        addError("failed to create directory " + parent);
+        return;
+      }
+      startPeriod(activeFile.exists() ? activeFile.lastModified() : System.currentTimeMillis());
+      openSegment(0);
+    } catch (IOException e) {
+      addError("failed to map " + file, e);
+      return;
+    }
+    if (forceInterval != null && forceInterval.getMilliseconds() > 0) {
+      forceTask = context.getScheduledExecutorService().scheduleAtFixedRate(this::force,
+          forceInterval.getMilliseconds(), forceInterval.getMilliseconds(), TimeUnit.MILLISECONDS);
+    }
+    metrics = LoggingMetrics.appender(String.valueOf(getName()));
+    super.start();
+  }
+
+  @Override
+  public void stop() {
+    if (!isStarted()) {
+      return;
+    }
+    super.stop();
+    if (forceTask != null) {
+      forceTask.cancel(false);
+    }
+    lock.lock();
+    try {
+      closeSegment();
+    } catch (IOException e) {
+      addError("failed to close " + file, e);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  protected void append(ILoggingEvent event) {
+    long start = System.nanoTime();
+    write(event);
+    metrics.record(event.getLevel(), System.nanoTime() - start);
+  }
+
+  private void write(ILoggingEvent event) {
+    byte[] bytes = encoder.encode(event);
+    lock.lock();
+    try {
+      if (segment == null) {
+        return;
+      }
+      long now = event.getTimeStamp();
+      if (now >= nextPeriod) {
+        if (segment.position() > 0) {
+          rollover(bytes.length);
+        }
+        startPeriod(now);
+      }
+      if (segment.remaining() < bytes.length) {
+        if (segment.position() > segmentStart) {
+          rollover(bytes.length);
+        } else {
+          // nothing written since the segment was mapped, there is nothing to archive
+          extend(bytes.length);
+        }
+      }
+      segment.put(bytes);
+      dirty = true;
+    } catch (IOException e) {
+      addError("failed to write " + file, e);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void startPeriod(long time) {
+    if (rollingCalendar.periodBarriersCrossed(periodTime, time) > 0 || nextPeriod == 0) {
+      nextIndex = 0;
+    }
+    periodTime = time;
+    nextPeriod = rollingCalendar.getNextTriggeringDate(new Date(time)).getTime();
+  }
+
+  private void rollover(int required) throws IOException {
+    closeSegment();
+    File archive;
+    do {
+      archive = new File(archivePattern.convertMultipleArguments(new Date(periodTime),
+          nextIndex++));
+    } while (archive.exists());
+    File parent = archive.getAbsoluteFile().getParentFile();
+    if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+      addError("failed to create directory " + parent);
+    }
+    if (!activeFile.renameTo(archive)) {
+      addError("failed to rename " + activeFile + " to " + archive);
+    }
+    openSegment(required);
+    if (archiveRemover != null) {
+      archiveRemover.cleanAsynchronously(new Date(periodTime));
+    }
+  }
+
+  /**
+   * Maps the active file, continuing after its last non-zero byte if it already exists.
+   */
+  private void openSegment(int required) throws IOException {
+    channel = FileChannel.open(activeFile.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    long existing = channel.size();
+    byte[] header = encoder.headerBytes();
+    int headerLength = header == null ? 0 : header.length;
+    long size = Math.max(segmentSize.getSize(), existing + headerLength + required);
+    if (size > Integer.MAX_VALUE) {
+      // the previous run left a file too large to continue, start a new one
+      channel.close();
+      rollover(required);
+      return;
+    }
+    MappedByteBuffer mapped = channel.map(MapMode.READ_WRITE, 0, size);
+    int position = (int) existing;
+    while (position > 0 && mapped.get(position - 1) == 0) {
+      position--;
+    }
+    mapped.position(position);
+    if (position == 0 && header != null) {
+      mapped.put(header);
+    }
+    segmentStart = mapped.position();
+    segment = mapped;
+  }
+
+  /**
+   * Maps the active file larger to make room for the next event.
+   */
+  private void extend(int required) throws IOException {
+    int position = segment.position();
+    MappedByteBuffer mapped = channel.map(MapMode.READ_WRITE, 0, (long) position + required);
+    mapped.position(position);
+    synchronized (forceLock) {
+      segment = mapped;
+    }
+  }
+
+  private void closeSegment() throws IOException {
+    MappedByteBuffer closing = segment;
+    if (closing == null) {
+      return;
+    }
+    byte[] footer = encoder.footerBytes();
+    if (footer != null && closing.remaining() >= footer.length) {
+      closing.put(footer);
+    }
+    synchronized (forceLock) {
+      segment = null;
+      closing.force();
+      channel.truncate(closing.position());
+      channel.close();
+      channel = null;
+    }
+  }
+
+  private void force() {
+    synchronized (forceLock) {
+      MappedByteBuffer current = segment;
+      if (current != null && dirty) {
+        dirty = false;
+        current.force();
+      }
+    }
+  }
+
+  public Encoder<ILoggingEvent> getEncoder() {
+    return encoder;
+  }
+
+  public void setEncoder(Encoder<ILoggingEvent> encoder) {
+    this.encoder = encoder;
+  }
+
+  public void setFile(String file) {
+    this.file = file;
+  }
+
+  public String getFile() {
+    return file;
+  }
+
+  public void setFileNamePattern(String fileNamePattern) {
+    this.fileNamePattern = fileNamePattern;
+  }
+
+  public void setSegmentSize(FileSize segmentSize) {
+    this.segmentSize = segmentSize;
+  }
+
+  public void setForceInterval(Duration forceInterval) {
+    this.forceInterval = forceInterval;
+  }
+
+  public void setMaxHistory(int maxHistory) {
+    this.maxHistory = maxHistory;
+  }
+}
@@ -0,0 +1,229 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.filter;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.EventArgUtil;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+import ch.qos.logback.core.util.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Marker;
+
+/**
+ * Collapses bursts of the same log line into the first occurrence and one repeat record.
+ *
+ * <p>An event is identified by its logger, level, message template and the {@link
+ * StackFingerprint} of its throwable, before the event is built or formatted. The first
+ * occurrence is logged in full and opens a window of {@code window}; further occurrences inside
+ * the window are dropped and counted. When the window ends, the count is written to the
+ * appenders of the same logger at the same level as
+ *
+ * <pre>
+ * [retry {} failed] repeated 41237 times, fingerprint 3fa85f64
+ * </pre>
+ *
+ * <p>where the fingerprint is the one of the throwable, or {@code -} without throwable. Windows
+ * are closed by the next occurrence after the window, or by a sweep from the logback scheduler
+ * every {@code window}. At most {@code maxEntries} lines are tracked, events beyond that are not
+ * de-duplicated.
+ *
+ * @author zhanglei
+ */
+public class DeduplicationTurboFilter extends TurboFilter {
+
+  static final String REPEAT_FORMAT = "[{}] repeated {} times, fingerprint {}";
+
+  private static final String NO_THROWABLE = "-";
+
+  private final ConcurrentMap<Key, Entry> entries = new ConcurrentHashMap<>();
+  private final LongAdder droppedEvents = new LongAdder();
+
+  private Duration window = Duration.buildBySeconds(10);
+  private int maxEntries = 10_000;
+  private long windowNanos;
+  private ScheduledFuture<?> sweepTask;
+
+  @Override
+  public void start() {
+    if (window == null || window.getMilliseconds() <= 0 || maxEntries <= 0) {
+      addError("window and maxEntries must be positive");
+      return;
+    }
+    windowNanos = TimeUnit.MILLISECONDS.toNanos(window.getMilliseconds());
+    sweepTask = context.getScheduledExecutorService().scheduleAtFixedRate(this::sweep,
+        window.getMilliseconds(), window.getMilliseconds(), TimeUnit.MILLISECONDS);
+    super.start();
+  }
+
+  @Override
+  public void stop() {
+    super.stop();
+    if (sweepTask != null) {
+      sweepTask.cancel(false);
+    }
+    for (Entry entry : entries.values()) {
+      close(entry);
+    }
+    entries.clear();
+  }
+
+  @Override
+  public FilterReply decide(Marker marker, Logger logger, Level level, String format,
+      Object[] params, Throwable t) {
+    if (!isStarted() || format == null || !level.isGreaterOrEqual(logger.getEffectiveLevel())) {
+      return FilterReply.NEUTRAL;
+    }
+    // SLF4J passes a throwable given after the arguments as the last parameter
+    Throwable throwable = t != null ? t : EventArgUtil.extractThrowable(params);
+    Key key = new Key(logger.getName(), level, format,
+        throwable == null ? NO_THROWABLE : StackFingerprint.of(throwable));
+    long now = System.nanoTime();
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      if (entries.size() < maxEntries) {
+        entries.putIfAbsent(key, new Entry(key, logger, now));
+      }
+      return FilterReply.NEUTRAL;
+    }
+    long start = entry.windowStart.get();
+    if (now - start < windowNanos) {
+      entry.repeats.incrementAndGet();
+      droppedEvents.increment();
+      return FilterReply.DENY;
+    }
+    if (entry.windowStart.compareAndSet(start, now)) {
+      // this occurrence opens the next window and is logged in full
+      close(entry);
+      return FilterReply.NEUTRAL;
+    }
+    entry.repeats.incrementAndGet();
+    droppedEvents.increment();
+    return FilterReply.DENY;
+  }
+
+  /**
+   * Closes the windows which ended and forgets the lines which were not repeated.
+   */
+  void sweep() {
+    long now = System.nanoTime();
+    for (Entry entry : entries.values()) {
+      long start = entry.windowStart.get();
+      if (now - start < windowNanos) {
+        continue;
+      }
+      if (entry.repeats.get() == 0) {
+        // an occurrence racing with the removal finds the window ended and is logged in full
+        entries.remove(entry.key, entry);
+      } else if (entry.windowStart.compareAndSet(start, now)) {
+        close(entry);
+      }
+    }
+  }
+
+  /**
+   * Writes the repeat record of a window, if there were repeats.
+   */
+  private void close(Entry entry) {
+    long repeats = entry.repeats.getAndSet(0);
+    if (repeats == 0) {
+      return;
+    }
+    Key key = entry.key;
+    LoggingEvent event = new LoggingEvent(Logger.FQCN, entry.logger, key.level, REPEAT_FORMAT,
+        null, new Object[] {key.format, repeats, key.fingerprint});
+    entry.logger.callAppenders(event);
+  }
+
+  public void setWindow(Duration window) {
+    this.window = window;
+  }
+
+  public void setMaxEntries(int maxEntries) {
+    this.maxEntries = maxEntries;
+  }
+
+  /**
+   * Number of events dropped as repeats since start.
+   */
+  public long getDroppedEvents() {
+    return droppedEvents.sum();
+  }
+
+  /**
+   * Number of lines currently tracked.
+   */
+  public int getTrackedEntries() {
+    return entries.size();
+  }
+
+  private static final class Key {
+
+    final String logger;
+    final Level level;
+    final String format;
+    final String fingerprint;
+    final int hash;
+
+    Key(String logger, Level level, String format, String fingerprint) {
+      this.logger = logger;
+      this.level = level;
+      this.format = format;
+      this.fingerprint = fingerprint;
+      this.hash = ((logger.hashCode() * 31 + level.levelInt) * 31 + format.hashCode()) * 31
+          + fingerprint.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return level == other.level && logger.equals(other.logger) && format.equals(other.format)
+          && fingerprint.equals(other.fingerprint);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  private static final class Entry {
+
+    final Key key;
+    final Logger logger;
+    final AtomicLong windowStart;
+    final AtomicLong repeats = new AtomicLong();
+
+    Entry(Key key, Logger logger, long now) {
+      this.key = key;
+      this.logger = logger;
+      this.windowStart = new AtomicLong(now);
+    }
+  }
+}
@@ -0,0 +1,315 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.filter;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+import ch.qos.logback.core.util.Duration;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Marker;
+
+/**
+ * Limits how often the same message template may be logged by the same logger at one level.
+ *
+ * <p>Every (logger, level, template) has its own rate limiter implemented as a generic cell rate
+ * algorithm: one {@link AtomicLong} holding the theoretical arrival time, updated with a single
+ * compare-and-set, so admitting an event takes no lock. {@code <level>Rate} is the sustained
+ * number of events per second allowed for each template of that level, a non-positive rate
+ * disables the limit, and up to {@code burst} events may pass at once. The decision is taken from
+ * the unformatted template before the event is built, a suppressed event costs a map lookup.
+ * By default TRACE and DEBUG are not limited, INFO, WARN and ERROR allow 100 events per second.
+ *
+ * <p>At most {@code maxTemplates} templates are tracked. Templates seen once the table is full
+ * share one limiter per level. Every {@code summaryInterval} the suppressed counts are logged as
+ * one WARN line of this class, the ten largest by template, and idle limiters are removed.
+ *
+ * @author zhanglei
+ */
+public class RateLimitTurboFilter extends TurboFilter {
+
+  static final int SUMMARY_TEMPLATES = 10;
+
+  private static final String OTHER_TEMPLATES = "(other templates)";
+  private static final Level[] LEVELS = {Level.TRACE, Level.DEBUG, Level.INFO, Level.WARN,
+      Level.ERROR};
+
+  private final double[] rates = {0, 0, 100, 100, 100};
+  private final long[] intervals = new long[rates.length];
+  private final Bucket[] overflow = new Bucket[rates.length];
+  private final ConcurrentMap<Key, Bucket> buckets = new ConcurrentHashMap<>();
+  private final LongAdder suppressedEvents = new LongAdder();
+
+  private int burst = 100;
+  private int maxTemplates = 10_000;
+  private Duration summaryInterval = Duration.buildByMinutes(1);
+  private ScheduledFuture<?> summaryTask;
+
+  @Override
+  public void start() {
+    if (burst <= 0 || maxTemplates <= 0) {
+      addError("burst and maxTemplates must be positive");
+      return;
+    }
+    long now = System.nanoTime();
+    for (int i = 0; i < rates.length; i++) {
+      intervals[i] = rates[i] > 0 ? Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1) / rates[i]))
+          : 0;
+      overflow[i] = new Bucket(new Key(OTHER_TEMPLATES, LEVELS[i], OTHER_TEMPLATES), now);
+    }
+    if (summaryInterval != null && summaryInterval.getMilliseconds() > 0) {
+      summaryTask = context.getScheduledExecutorService().scheduleAtFixedRate(this::logSummary,
+          summaryInterval.getMilliseconds(), summaryInterval.getMilliseconds(),
+          TimeUnit.MILLISECONDS);
+    }
+    super.start();
+  }
+
+  @Override
+  public void stop() {
+    super.stop();
+    if (summaryTask != null) {
+      summaryTask.cancel(false);
+    }
+    buckets.clear();
+  }
+
+  @Override
+  public FilterReply decide(Marker marker, Logger logger, Level level, String format,
+      Object[] params, Throwable t) {
+    if (!isStarted() || format == null) {
+      // is<Level>Enabled() checks are not counted
+      return FilterReply.NEUTRAL;
+    }
+    int index = indexOf(level);
+    long interval = intervals[index];
+    if (interval == 0 || !level.isGreaterOrEqual(logger.getEffectiveLevel())
+        || logger.getName().equals(RateLimitTurboFilter.class.getName())) {
+      return FilterReply.NEUTRAL;
+    }
+    long now = System.nanoTime();
+    Bucket bucket = bucket(new Key(logger.getName(), level, format), index, now);
+    return bucket.acquire(now, interval, interval * burst) ? FilterReply.NEUTRAL
+        : suppress(bucket);
+  }
+
+  private Bucket bucket(Key key, int index, long now) {
+    Bucket bucket = buckets.get(key);
+    if (bucket == null) {
+      if (buckets.size() >= maxTemplates) {
+        return overflow[index];
+      }
+      Bucket created = new Bucket(key, now);
+      bucket = buckets.putIfAbsent(key, created);
+      if (bucket == null) {
+        bucket = created;
+      }
+    }
+    return bucket;
+  }
+
+  private FilterReply suppress(Bucket bucket) {
+    bucket.suppressed.increment();
+    suppressedEvents.increment();
+    return FilterReply.DENY;
+  }
+
+  private void logSummary() {
+    String summary = summarize();
+    if (summary != null && context instanceof LoggerContext) {
+      ((LoggerContext) context).getLogger(RateLimitTurboFilter.class).warn(summary);
+    }
+  }
+
+  /**
+   * Collects and resets the suppressed counts and removes idle limiters.
+   *
+   * @return the summary line, {@code null} if nothing was suppressed
+   */
+  String summarize() {
+    long now = System.nanoTime();
+    List<Map.Entry<Key, Long>> suppressed = new ArrayList<>();
+    long total = 0;
+    for (Bucket bucket : buckets.values()) {
+      total += collect(bucket, suppressed);
+      if (now - bucket.arrival.get() >= 0 && bucket.suppressed.sum() == 0) {
+        // a limiter whose arrival time has passed behaves like a new one
+        buckets.remove(bucket.key, bucket);
+      }
+    }
+    for (Bucket bucket : overflow) {
+      total += collect(bucket, suppressed);
+    }
+    if (total == 0) {
+      return null;
+    }
+    suppressed.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+    StringBuilder sb = new StringBuilder("rate limit suppressed ").append(total)
+        .append(" events in the last ").append(summaryInterval).append(':');
+    for (int i = 0; i < suppressed.size() && i < SUMMARY_TEMPLATES; i++) {
+      Key key = suppressed.get(i).getKey();
+      sb.append(i == 0 ? " " : ", ").append(key.logger).append(' ').append(key.level);
+      if (key.format != OTHER_TEMPLATES) {
+        sb.append(" [").append(key.format).append(']');
+      }
+      sb.append(" x").append(suppressed.get(i).getValue());
+    }
+    if (suppressed.size() > SUMMARY_TEMPLATES) {
+      sb.append(" and ").append(suppressed.size() - SUMMARY_TEMPLATES).append(" more templates");
+    }
+    return sb.toString();
+  }
+
+  private static long collect(Bucket bucket, List<Map.Entry<Key, Long>> suppressed) {
+    long count = bucket.suppressed.sumThenReset();
+    if (count > 0) {
+      suppressed.add(new SimpleImmutableEntry<>(bucket.key, count));
+    }
+    return count;
+  }
+
+  private static int indexOf(Level level) {
+    switch (level.toInt()) {
+      case Level.TRACE_INT:
+        return 0;
+      case Level.DEBUG_INT:
+        return 1;
+      case Level.INFO_INT:
+        return 2;
+      case Level.WARN_INT:
+        return 3;
+      default:
+        return 4;
+    }
+  }
+
+  public void setTraceRate(double traceRate) {
+    rates[0] = traceRate;
+  }
+
+  public void setDebugRate(double debugRate) {
+    rates[1] = debugRate;
+  }
+
+  public void setInfoRate(double infoRate) {
+    rates[2] = infoRate;
+  }
+
+  public void setWarnRate(double warnRate) {
+    rates[3] = warnRate;
+  }
+
+  public void setErrorRate(double errorRate) {
+    rates[4] = errorRate;
+  }
+
+  public void setBurst(int burst) {
+    this.burst = burst;
+  }
+
+  public void setMaxTemplates(int maxTemplates) {
+    this.maxTemplates = maxTemplates;
+  }
+
+  public void setSummaryInterval(Duration summaryInterval) {
+    this.summaryInterval = summaryInterval;
+  }
+
+  /**
+   * Number of events suppressed since start.
+   */
+  public long getSuppressedEvents() {
+    return suppressedEvents.sum();
+  }
+
+  /**
+   * Number of templates with their own limiter.
+   */
+  public int getTrackedTemplates() {
+    return buckets.size();
+  }
+
+  private static final class Key {
+
+    final String logger;
+    final Level level;
+    final String format;
+    final int hash;
+
+    Key(String logger, Level level, String format) {
+      this.logger = logger;
+      this.level = level;
+      this.format = format;
+      this.hash = (logger.hashCode() * 31 + level.levelInt) * 31 + format.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return level == other.level && logger.equals(other.logger) && format.equals(other.format);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  /**
+   * Theoretical arrival time of the next event, in {@link System#nanoTime()}.
+   */
+  private static final class Bucket {
+
+    final Key key;
+    final AtomicLong arrival;
+    final LongAdder suppressed = new LongAdder();
+
+    Bucket(Key key, long now) {
+      this.key = key;
+      this.arrival = new AtomicLong(now);
+    }
+
+    boolean acquire(long now, long interval, long tolerance) {
+      while (true) {
+        long tat = arrival.get();
+        long next = (tat - now > 0 ? tat : now) + interval;
+        if (next - now > tolerance) {
+          return false;
+        }
+        if (arrival.compareAndSet(tat, next)) {
+          return true;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.filter;
+
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.StackTraceElementProxy;
+
+/**
+ * Short hash identifying a stack trace.
+ *
+ * <p>The hash covers the class name of the throwable and of each cause, and the class, method and
+ * line of every frame. Messages are left out, so the same failure with a different id in its
+ * message gets the same fingerprint. A {@link Throwable} and its {@link IThrowableProxy} have the
+ * same fingerprint.
+ *
+ * @author zhanglei
+ */
+public final class StackFingerprint {
+
+  static final int MAX_CAUSES = 16;
+
+  private StackFingerprint() {
+  }
+
+  /**
+   * Fingerprint of a throwable and its causes, eight hexadecimal digits.
+   */
+  public static String of(Throwable throwable) {
+    int hash = 1;
+    for (int depth = 0; throwable != null && depth < MAX_CAUSES; depth++) {
+      hash = 31 * hash + throwable.getClass().getName().hashCode();
+      for (StackTraceElement frame : throwable.getStackTrace()) {
+        hash = frame(hash, frame);
+      }
+      Throwable cause = throwable.getCause();
+      throwable = cause == throwable ? null : cause;
+    }
+    return hex(hash);
+  }
+
+  /**
+   * Fingerprint of a throwable proxy and its causes, eight hexadecimal digits.
+   */
+  public static String of(IThrowableProxy throwable) {
+    int hash = 1;
+    for (int depth = 0; throwable != null && depth < MAX_CAUSES; depth++) {
+      hash = 31 * hash + throwable.getClassName().hashCode();
+      StackTraceElementProxy[] frames = throwable.getStackTraceElementProxyArray();
+      if (frames != null) {
+        for (StackTraceElementProxy frame : frames) {
+          hash = frame(hash, frame.getStackTraceElement());
+        }
+      }
+      throwable = throwable.getCause();
+    }
+    return hex(hash);
+  }
+
+  private static int frame(int hash, StackTraceElement frame) {
+    hash = 31 * hash + frame.getClassName().hashCode();
+    hash = 31 * hash + frame.getMethodName().hashCode();
+    return 31 * hash + frame.getLineNumber();
+  }
+
+  private static String hex(int hash) {
+    // murmur3 finalizer, spreads the bits of the polynomial hash
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    hash *= 0xc2b2ae35;
+    hash ^= hash >>> 16;
+    char[] digits = new char[8];
+    for (int i = 7; i >= 0; i--) {
+      digits[i] = Character.forDigit(hash & 0xf, 16);
+      hash >>>= 4;
+    }
+    return new String(digits);
+  }
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.json;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.ThrowableProxyUtil;
+import ch.qos.logback.core.encoder.EncoderBase;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.spring.beet.logging.ConversionAdapter;
+
+/**
+ * Encodes an event as one line of JSON.
+ *
+ * <pre>
+ * {"@timestamp":"2020-06-01T08:00:00.123Z","host":"10.0.0.1","level":"INFO",
+ * "logger":"org.spring.beet.Foo","thread":"main","message":"...","mdc":{...},"stack_trace":"..."}
+ * </pre>
+ *
+ * <p>The event is written as UTF-8 straight into a byte buffer reused by the encoding thread, the
+ * only allocation per event is the returned array. Quoted and escaped logger and thread names are
+ * cached, at most {@value #MAX_CACHED_NAMES} of each. The message is masked exactly like {@code
+ * %msg} by {@link ConversionAdapter}. The timestamp is always UTC.
+ *
+ * @author zhanglei
+ */
+public class JsonEncoder extends EncoderBase<ILoggingEvent> {
+
+  static final int MAX_CACHED_NAMES = 4096;
+
+  private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+
+  private static final byte[] TIMESTAMP = bytes("{\"@timestamp\":");
+  private static final byte[] HOST = bytes(",\"host\":");
+  private static final byte[] LEVEL = bytes(",\"level\":");
+  private static final byte[] LOGGER = bytes(",\"logger\":");
+  private static final byte[] THREAD = bytes(",\"thread\":");
+  private static final byte[] MESSAGE = bytes(",\"message\":");
+  private static final byte[] MDC = bytes(",\"mdc\":{");
+  private static final byte[] STACK_TRACE = bytes(",\"stack_trace\":");
+  private static final byte[] END = bytes("}\n");
+  private static final byte[] NULL = bytes("null");
+  private static final byte[][] LEVELS = {bytes("\"TRACE\""), bytes("\"DEBUG\""),
+      bytes("\"INFO\""), bytes("\"WARN\""), bytes("\"ERROR\"")};
+
+  private final ThreadLocal<JsonWriter> writers = ThreadLocal
+      .withInitial(() -> new JsonWriter(1024));
+  private final ConcurrentMap<String, byte[]> loggerNames = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, byte[]> threadNames = new ConcurrentHashMap<>();
+  private final ConversionAdapter messageConverter = new ConversionAdapter();
+
+  private String host;
+  private boolean includeMdc = true;
+  private boolean includeStackTrace = true;
+  private byte[] hostValue;
+
+  private static byte[] bytes(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public void start() {
+    hostValue = host == null ? null : quote(host);
+    super.start();
+  }
+
+  @Override
+  public byte[] headerBytes() {
+    return null;
+  }
+
+  @Override
+  public byte[] footerBytes() {
+    return null;
+  }
+
+  @Override
+  public byte[] encode(ILoggingEvent event) {
+    JsonWriter writer = writers.get();
+    writer.reset();
+    writer.raw(TIMESTAMP).timestamp(event.getTimeStamp());
+    if (hostValue != null) {
+      writer.raw(HOST).raw(hostValue);
+    }
+    writer.raw(LEVEL).raw(level(event.getLevel()));
+    writer.raw(LOGGER).raw(quoted(loggerNames, event.getLoggerName()));
+    writer.raw(THREAD).raw(quoted(threadNames, event.getThreadName()));
+    writer.raw(MESSAGE).string(messageConverter.convert(event));
+    Map<String, String> mdc = event.getMDCPropertyMap();
+    if (includeMdc && mdc != null && !mdc.isEmpty()) {
+      writer.raw(MDC);
+      boolean first = true;
+      for (Map.Entry<String, String> entry : mdc.entrySet()) {
+        if (!first) {
+          writer.raw(',');
+        }
+        first = false;
+        writer.string(entry.getKey()).raw(':');
+        if (entry.getValue() == null) {
+          writer.raw(NULL);
+        } else {
+          writer.string(entry.getValue());
+        }
+      }
+      writer.raw('}');
+    }
+    IThrowableProxy throwable = event.getThrowableProxy();
+    if (includeStackTrace && throwable != null) {
+      writer.raw(STACK_TRACE).string(ThrowableProxyUtil.asString(throwable));
+    }
+    writer.raw(END);
+    byte[] encoded = writer.toByteArray();
+    if (writer.capacity() > MAX_RETAINED_BUFFER) {
+      // do not keep the buffer of an exceptionally large event for the life of the thread
+      writers.remove();
+    }
+    return encoded;
+  }
+
+  private static byte[] level(Level level) {
+    switch (level.toInt()) {
+      case Level.TRACE_INT:
+        return LEVELS[0];
+      case Level.DEBUG_INT:
+        return LEVELS[1];
+      case Level.INFO_INT:
+        return LEVELS[2];
+      case Level.WARN_INT:
+        return LEVELS[3];
+      default:
+        return LEVELS[4];
+    }
+  }
+
+  private static byte[] quoted(ConcurrentMap<String, byte[]> cache, String name) {
+    if (name == null) {
+      return NULL;
+    }
+    byte[] quoted = cache.get(name);
+    if (quoted == null) {
+      quoted = quote(name);
+      if (cache.size() < MAX_CACHED_NAMES) {
+        byte[] cached = cache.putIfAbsent(name, quoted);
+        if (cached != null) {
+          quoted = cached;
+        }
+      }
+    }
+    return quoted;
+  }
+
+  private static byte[] quote(String value) {
+    JsonWriter writer = new JsonWriter(value.length() + 8);
+    writer.string(value);
+    return writer.toByteArray();
+  }
+
+  public void setHost(String host) {
+    this.host = host;
+  }
+
+  public void setIncludeMdc(boolean includeMdc) {
+    this.includeMdc = includeMdc;
+  }
+
+  public void setIncludeStackTrace(boolean includeStackTrace) {
+    this.includeStackTrace = includeStackTrace;
+  }
+}
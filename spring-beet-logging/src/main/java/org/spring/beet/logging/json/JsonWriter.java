@@ -0,0 +1,192 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.json;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * Growable UTF-8 byte buffer with the JSON primitives needed by {@link JsonEncoder}. An
+ * instance is confined to one thread and reused for every event of that thread.
+ *
+ * @author zhanglei
+ */
+final class JsonWriter {
+
+  private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+  private byte[] buffer;
+  private int length;
+  private long cachedSecond = Long.MIN_VALUE;
+  private final byte[] secondPrefix = new byte[20];
+
+  JsonWriter(int initialCapacity) {
+    this.buffer = new byte[initialCapacity];
+  }
+
+  void reset() {
+    length = 0;
+  }
+
+  int capacity() {
+    return buffer.length;
+  }
+
+  byte[] toByteArray() {
+    return Arrays.copyOf(buffer, length);
+  }
+
+  private void ensure(int extra) {
+    if (length + extra > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, length + extra));
+    }
+  }
+
+  JsonWriter raw(byte[] bytes) {
+    ensure(bytes.length);
+    System.arraycopy(bytes, 0, buffer, length, bytes.length);
+    length += bytes.length;
+    return this;
+  }
+
+  JsonWriter raw(char ascii) {
+    ensure(1);
+    buffer[length++] = (byte) ascii;
+    return this;
+  }
+
+  /**
+   * Writes {@code value} as a quoted JSON string.
+   */
+  JsonWriter string(CharSequence value) {
+    raw('"');
+    escaped(value);
+    return raw('"');
+  }
+
+  /**
+   * Writes the escaped content of a JSON string, without quotes.
+   */
+  void escaped(CharSequence value) {
+    int n = value.length();
+    ensure(n);
+    for (int i = 0; i < n; i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        if (c >= 0x20 && c != '"' && c != '\\') {
+          ensure(1);
+          buffer[length++] = (byte) c;
+        } else {
+          escape(c);
+        }
+      } else if (c < 0x800) {
+        ensure(2);
+        buffer[length++] = (byte) (0xc0 | c >> 6);
+        buffer[length++] = (byte) (0x80 | c & 0x3f);
+      } else if (Character.isHighSurrogate(c) && i + 1 < n
+          && Character.isLowSurrogate(value.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        ensure(4);
+        buffer[length++] = (byte) (0xf0 | codePoint >> 18);
+        buffer[length++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+        buffer[length++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+        buffer[length++] = (byte) (0x80 | codePoint & 0x3f);
+      } else if (Character.isSurrogate(c)) {
+        // unpaired surrogate, not encodable
+        raw('?');
+      } else {
+        ensure(3);
+        buffer[length++] = (byte) (0xe0 | c >> 12);
+        buffer[length++] = (byte) (0x80 | c >> 6 & 0x3f);
+        buffer[length++] = (byte) (0x80 | c & 0x3f);
+      }
+    }
+  }
+
+  private void escape(char c) {
+    ensure(6);
+    buffer[length++] = '\\';
+    switch (c) {
+      case '"':
+      case '\\':
+        buffer[length++] = (byte) c;
+        break;
+      case '\n':
+        buffer[length++] = 'n';
+        break;
+      case '\r':
+        buffer[length++] = 'r';
+        break;
+      case '\t':
+        buffer[length++] = 't';
+        break;
+      case '\b':
+        buffer[length++] = 'b';
+        break;
+      case '\f':
+        buffer[length++] = 'f';
+        break;
+      default:
+        buffer[length++] = 'u';
+        buffer[length++] = '0';
+        buffer[length++] = '0';
+        buffer[length++] = HEX[c >> 4];
+        buffer[length++] = HEX[c & 0xf];
+    }
+  }
+
+  /**
+   * Writes {@code epochMillis} as a quoted ISO-8601 UTC timestamp with milliseconds. The part up
+   * to the seconds is reused while the second does not change.
+   */
+  JsonWriter timestamp(long epochMillis) {
+    long second = Math.floorDiv(epochMillis, 1000L);
+    if (second != cachedSecond) {
+      LocalDateTime time = LocalDateTime.ofEpochSecond(second, 0, ZoneOffset.UTC);
+      digits(secondPrefix, 0, time.getYear(), 4);
+      secondPrefix[4] = '-';
+      digits(secondPrefix, 5, time.getMonthValue(), 2);
+      secondPrefix[7] = '-';
+      digits(secondPrefix, 8, time.getDayOfMonth(), 2);
+      secondPrefix[10] = 'T';
+      digits(secondPrefix, 11, time.getHour(), 2);
+      secondPrefix[13] = ':';
+      digits(secondPrefix, 14, time.getMinute(), 2);
+      secondPrefix[16] = ':';
+      digits(secondPrefix, 17, time.getSecond(), 2);
+      secondPrefix[19] = '.';
+      cachedSecond = second;
+    }
+    ensure(26);
+    buffer[length++] = '"';
+    System.arraycopy(secondPrefix, 0, buffer, length, secondPrefix.length);
+    length += secondPrefix.length;
+    digits(buffer, length, (int) Math.floorMod(epochMillis, 1000L), 3);
+    length += 3;
+    buffer[length++] = 'Z';
+    buffer[length++] = '"';
+    return this;
+  }
+
+  private static void digits(byte[] target, int offset, int value, int width) {
+    for (int i = offset + width - 1; i >= offset; i--) {
+      target[i] = (byte) ('0' + value % 10);
+      value /= 10;
+    }
+  }
+}
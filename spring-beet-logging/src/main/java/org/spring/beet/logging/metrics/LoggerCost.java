@@ -0,0 +1,106 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Logging cost of one logger, or of one message template of a logger, accumulated by {@link
+ * LoggerCosts}.
+ *
+ * @author zhanglei
+ */
+public final class LoggerCost {
+
+  private final String logger;
+  private final String template;
+  private final LongAdder events = new LongAdder();
+  private final LongAdder bytes = new LongAdder();
+  private final LongAdder samples = new LongAdder();
+  private final LongAdder formattingNanos = new LongAdder();
+  private final ConcurrentMap<String, LoggerCost> templates;
+
+  LoggerCost(String logger, String template) {
+    this.logger = logger;
+    this.template = template;
+    this.templates = template == null ? new ConcurrentHashMap<>() : null;
+  }
+
+  void record(int encodedBytes) {
+    events.increment();
+    bytes.add(encodedBytes);
+  }
+
+  void recordFormatting(long nanos, int sampleRate) {
+    samples.increment();
+    formattingNanos.add(nanos * sampleRate);
+  }
+
+  ConcurrentMap<String, LoggerCost> templateMap() {
+    return templates;
+  }
+
+  public String getLogger() {
+    return logger;
+  }
+
+  /**
+   * Message template, {@code null} for the totals of the logger.
+   */
+  public String getTemplate() {
+    return template;
+  }
+
+  /**
+   * Encoded events, an event written by two appenders counts twice.
+   */
+  public long getEvents() {
+    return events.sum();
+  }
+
+  /**
+   * Encoded bytes.
+   */
+  public long getBytes() {
+    return bytes.sum();
+  }
+
+  /**
+   * Formatting and masking calls of {@code %msg} that were timed.
+   */
+  public long getSamples() {
+    return samples.sum();
+  }
+
+  /**
+   * Estimated time spent formatting and masking {@code %msg}, in nanoseconds: the sampled time
+   * scaled by the sample rate in effect when it was taken.
+   */
+  public long getFormattingNanos() {
+    return formattingNanos.sum();
+  }
+
+  /**
+   * Templates tracked for this logger, empty unless {@link LoggerCosts} tracks templates.
+   */
+  public List<LoggerCost> getTemplates() {
+    return templates == null ? new ArrayList<>() : new ArrayList<>(templates.values());
+  }
+}
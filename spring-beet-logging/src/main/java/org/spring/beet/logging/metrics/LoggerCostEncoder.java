@@ -0,0 +1,145 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.metrics;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.encoder.Encoder;
+import ch.qos.logback.core.spi.ContextAwareBase;
+import java.lang.reflect.Method;
+
+/**
+ * Encoder recording the bytes encoded by another encoder in {@link LoggerCosts}, whatever that
+ * encoder is.
+ *
+ * <p>{@link #instrument()} wraps the encoder of every appender exposing {@code
+ * getEncoder} and {@code setEncoder}, so the appenders keep the encoders they are configured
+ * with. The wrapper can also be declared explicitly:
+ *
+ * <pre>
+ * &lt;encoder class="org.spring.beet.logging.metrics.LoggerCostEncoder"&gt;
+ *   &lt;encoder class="ch.qos.logback.classic.encoder.PatternLayoutEncoder"&gt;
+ *     &lt;pattern&gt;%msg%n&lt;/pattern&gt;
+ *   &lt;/encoder&gt;
+ * &lt;/encoder&gt;
+ * </pre>
+ *
+ * @author zhanglei
+ */
+public class LoggerCostEncoder extends ContextAwareBase implements Encoder<ILoggingEvent> {
+
+  private Encoder<ILoggingEvent> encoder;
+
+  public LoggerCostEncoder() {
+  }
+
+  public LoggerCostEncoder(Encoder<ILoggingEvent> encoder) {
+    this.encoder = encoder;
+  }
+
+  /**
+   * Wraps the encoder of every appender of the logback context, encoders already wrapped are left
+   * alone. Returns the number of encoders wrapped.
+   */
+  public static int instrument() {
+    LoggerContext context = LoggingMetricsBinder.loggerContext();
+    return context == null ? 0 : instrument(context);
+  }
+
+  static int instrument(LoggerContext context) {
+    int wrapped = 0;
+    for (Appender<ILoggingEvent> appender : LoggingMetricsBinder.appenders(context)) {
+      if (wrap(appender)) {
+        wrapped++;
+      }
+    }
+    return wrapped;
+  }
+
+  @SuppressWarnings("unchecked")
+  static boolean wrap(Appender<ILoggingEvent> appender) {
+    Method getter;
+    Method setter;
+    try {
+      getter = appender.getClass().getMethod("getEncoder");
+      setter = appender.getClass().getMethod("setEncoder", Encoder.class);
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+    try {
+      Object current = getter.invoke(appender);
+      if (!(current instanceof Encoder) || current instanceof LoggerCostEncoder) {
+        return false;
+      }
+      LoggerCostEncoder wrapper = new LoggerCostEncoder((Encoder<ILoggingEvent>) current);
+      wrapper.setContext(appender.getContext());
+      setter.invoke(appender, wrapper);
+      return true;
+    } catch (ReflectiveOperationException e) {
+      appender.addWarn("cannot record the encoded bytes of [" + appender.getName() + "]", e);
+      return false;
+    }
+  }
+
+  @Override
+  public byte[] headerBytes() {
+    return encoder.headerBytes();
+  }
+
+  @Override
+  public byte[] encode(ILoggingEvent event) {
+    byte[] encoded = encoder.encode(event);
+    if (encoded != null) {
+      LoggerCosts.record(event, encoded.length);
+    }
+    return encoded;
+  }
+
+  @Override
+  public byte[] footerBytes() {
+    return encoder.footerBytes();
+  }
+
+  @Override
+  public void start() {
+    if (encoder == null) {
+      addError("no encoder to wrap");
+      return;
+    }
+    encoder.start();
+  }
+
+  @Override
+  public void stop() {
+    if (encoder != null) {
+      encoder.stop();
+    }
+  }
+
+  @Override
+  public boolean isStarted() {
+    return encoder != null && encoder.isStarted();
+  }
+
+  public Encoder<ILoggingEvent> getEncoder() {
+    return encoder;
+  }
+
+  public void setEncoder(Encoder<ILoggingEvent> encoder) {
+    this.encoder = encoder;
+  }
+}
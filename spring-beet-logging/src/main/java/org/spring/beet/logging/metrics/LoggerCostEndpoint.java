@@ -0,0 +1,148 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import org.spring.beet.logging.metrics.LoggerCosts.Order;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.lang.Nullable;
+
+/**
+ * Actuator endpoint {@code loggercost} reporting the most expensive loggers recorded by {@link
+ * LoggerCosts}.
+ *
+ * <p>{@code GET /actuator/loggercost?sort=bytes&limit=20} lists the loggers sorted by encoded
+ * bytes, {@code events} or formatting {@code time}, each with its most expensive templates when
+ * templates are tracked. {@code DELETE /actuator/loggercost} resets the costs.
+ *
+ * @author zhanglei
+ */
+@Endpoint(id = "loggercost")
+public class LoggerCostEndpoint {
+
+  static final int DEFAULT_LIMIT = 20;
+
+  @ReadOperation
+  public LoggerCostReport report(@Nullable String sort, @Nullable Integer limit) {
+    Order order = order(sort);
+    int max = limit == null ? DEFAULT_LIMIT : limit;
+    if (max <= 0) {
+      throw new InvalidEndpointRequestException("limit must be positive", "Invalid limit");
+    }
+    List<LoggerCostDescriptor> loggers = new ArrayList<>();
+    for (LoggerCost logger : LoggerCosts.top(order, max)) {
+      List<LoggerCost> templates = logger.getTemplates();
+      templates.sort(order.comparator());
+      List<LoggerCostDescriptor> templateDescriptors = new ArrayList<>();
+      for (LoggerCost template : templates.subList(0, Math.min(max, templates.size()))) {
+        templateDescriptors.add(new LoggerCostDescriptor(template.getTemplate(), template,
+            new ArrayList<>()));
+      }
+      loggers.add(new LoggerCostDescriptor(logger.getLogger(), logger, templateDescriptors));
+    }
+    return new LoggerCostReport(order.name().toLowerCase(Locale.ROOT), loggers);
+  }
+
+  @DeleteOperation
+  public void reset() {
+    LoggerCosts.reset();
+  }
+
+  private static Order order(String sort) {
+    if (sort == null) {
+      return Order.BYTES;
+    }
+    try {
+      return Order.valueOf(sort.toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      throw new InvalidEndpointRequestException("sort must be one of bytes, events, time",
+          "Invalid sort");
+    }
+  }
+
+  /**
+   * Loggers sorted by the requested cost.
+   */
+  public static final class LoggerCostReport {
+
+    private final String sort;
+    private final List<LoggerCostDescriptor> loggers;
+
+    LoggerCostReport(String sort, List<LoggerCostDescriptor> loggers) {
+      this.sort = sort;
+      this.loggers = loggers;
+    }
+
+    public String getSort() {
+      return sort;
+    }
+
+    public List<LoggerCostDescriptor> getLoggers() {
+      return loggers;
+    }
+  }
+
+  /**
+   * Cost of a logger or of a message template.
+   */
+  public static final class LoggerCostDescriptor {
+
+    private final String name;
+    private final long events;
+    private final long bytes;
+    private final long formattingNanos;
+    private final long samples;
+    private final List<LoggerCostDescriptor> templates;
+
+    LoggerCostDescriptor(String name, LoggerCost cost, List<LoggerCostDescriptor> templates) {
+      this.name = name;
+      this.events = cost.getEvents();
+      this.bytes = cost.getBytes();
+      this.formattingNanos = cost.getFormattingNanos();
+      this.samples = cost.getSamples();
+      this.templates = templates;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getEvents() {
+      return events;
+    }
+
+    public long getBytes() {
+      return bytes;
+    }
+
+    public long getFormattingNanos() {
+      return formattingNanos;
+    }
+
+    public long getSamples() {
+      return samples;
+    }
+
+    public List<LoggerCostDescriptor> getTemplates() {
+      return templates;
+    }
+  }
+}
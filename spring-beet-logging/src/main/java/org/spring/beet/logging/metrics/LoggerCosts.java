@@ -0,0 +1,207 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.metrics;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToLongFunction;
+
+/**
+ * Logging cost per logger name, and optionally per message template, to find the call sites
+ * that dominate the log volume.
+ *
+ * <p>{@link LoggerCostEncoder} records the encoded bytes of every event, {@link
+ * org.spring.beet.logging.ConversionAdapter} times the formatting and masking of about one
+ * {@code %msg} in {@code sampleRate}. Recording an event for a known logger is a map lookup and
+ * a few {@link java.util.concurrent.atomic.LongAdder} updates, striped across threads and
+ * without allocation. At most {@code maxEntries} loggers and templates are tracked, further
+ * loggers are accounted to {@link #OTHER} and further templates only to their logger.
+ *
+ * @author zhanglei
+ */
+public final class LoggerCosts {
+
+  /**
+   * Entry collecting the loggers beyond {@code maxEntries}.
+   */
+  public static final String OTHER = "(other)";
+
+  private static volatile boolean enabled = true;
+  private static volatile boolean trackTemplates;
+  private static volatile int maxEntries = 10000;
+  private static volatile int sampleRate = 64;
+  private static volatile Registry registry = new Registry();
+
+  private LoggerCosts() {
+  }
+
+  /**
+   * Applies the settings, the accumulated costs are kept.
+   *
+   * @param enabled whether costs are recorded at all
+   * @param trackTemplates whether costs are also recorded per message template
+   * @param maxEntries maximum number of loggers and templates tracked
+   * @param sampleRate one formatting call in {@code sampleRate} is timed
+   */
+  public static void configure(boolean enabled, boolean trackTemplates, int maxEntries,
+      int sampleRate) {
+    if (maxEntries <= 0 || sampleRate <= 0) {
+      throw new IllegalArgumentException("maxEntries and sampleRate must be positive");
+    }
+    LoggerCosts.trackTemplates = trackTemplates;
+    LoggerCosts.maxEntries = maxEntries;
+    LoggerCosts.sampleRate = sampleRate;
+    LoggerCosts.enabled = enabled;
+  }
+
+  /**
+   * Records one encoded event.
+   */
+  public static void record(ILoggingEvent event, int bytes) {
+    if (!enabled) {
+      return;
+    }
+    Registry current = registry;
+    LoggerCost logger = current.logger(event.getLoggerName());
+    logger.record(bytes);
+    if (trackTemplates) {
+      LoggerCost template = current.template(logger, event.getMessage());
+      if (template != null) {
+        template.record(bytes);
+      }
+    }
+  }
+
+  /**
+   * Whether the caller should time the formatting of the current event, true for about one call
+   * in {@code sampleRate}.
+   */
+  public static boolean sample() {
+    return enabled && ThreadLocalRandom.current().nextInt(sampleRate) == 0;
+  }
+
+  /**
+   * Records the time of a formatting call selected by {@link #sample()}.
+   */
+  public static void recordFormatting(ILoggingEvent event, long nanos) {
+    Registry current = registry;
+    int rate = sampleRate;
+    LoggerCost logger = current.logger(event.getLoggerName());
+    logger.recordFormatting(nanos, rate);
+    if (trackTemplates) {
+      LoggerCost template = current.template(logger, event.getMessage());
+      if (template != null) {
+        template.recordFormatting(nanos, rate);
+      }
+    }
+  }
+
+  /**
+   * The most expensive loggers.
+   *
+   * @param order cost to sort by, descending
+   * @param limit maximum number of loggers returned
+   */
+  public static List<LoggerCost> top(Order order, int limit) {
+    Registry current = registry;
+    List<LoggerCost> loggers = new ArrayList<>(current.loggers.values());
+    if (current.other.getEvents() > 0 || current.other.getSamples() > 0) {
+      loggers.add(current.other);
+    }
+    loggers.sort(order.comparator);
+    return loggers.size() > limit ? new ArrayList<>(loggers.subList(0, limit)) : loggers;
+  }
+
+  /**
+   * Discards all accumulated costs.
+   */
+  public static void reset() {
+    registry = new Registry();
+  }
+
+  /**
+   * Loggers and templates currently tracked.
+   */
+  public static int getTrackedEntries() {
+    return registry.size.get();
+  }
+
+  /**
+   * Cost a report is sorted by.
+   */
+  public enum Order {
+    BYTES(LoggerCost::getBytes),
+    EVENTS(LoggerCost::getEvents),
+    TIME(LoggerCost::getFormattingNanos);
+
+    private final Comparator<LoggerCost> comparator;
+
+    Order(ToLongFunction<LoggerCost> cost) {
+      this.comparator = Comparator.comparingLong(cost).reversed();
+    }
+
+    public Comparator<LoggerCost> comparator() {
+      return comparator;
+    }
+  }
+
+  private static final class Registry {
+
+    private final ConcurrentMap<String, LoggerCost> loggers = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final LoggerCost other = new LoggerCost(OTHER, null);
+
+    LoggerCost logger(String name) {
+      if (name == null) {
+        return other;
+      }
+      LoggerCost cost = loggers.get(name);
+      if (cost == null) {
+        cost = add(loggers, name, null);
+      }
+      return cost == null ? other : cost;
+    }
+
+    LoggerCost template(LoggerCost logger, String template) {
+      if (template == null || logger == other) {
+        return null;
+      }
+      ConcurrentMap<String, LoggerCost> templates = logger.templateMap();
+      LoggerCost cost = templates.get(template);
+      return cost != null ? cost : add(templates, logger.getLogger(), template);
+    }
+
+    private LoggerCost add(ConcurrentMap<String, LoggerCost> map, String logger,
+        String template) {
+      if (size.get() >= maxEntries) {
+        return null;
+      }
+      LoggerCost created = new LoggerCost(logger, template);
+      LoggerCost existing = map.putIfAbsent(template == null ? logger : template, created);
+      if (existing != null) {
+        return existing;
+      }
+      size.incrementAndGet();
+      return created;
+    }
+  }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+
+/**
+ * Registry of the {@link StageMetrics} recorded by the appenders of this module.
+ *
+ * <p>Appenders start before the Spring context, so the stages are created on first use and
+ * bound to a meter registry later by {@link LoggingMetricsBinder}; stages created after that
+ * are bound immediately.
+ *
+ * @author zhanglei
+ */
+public final class LoggingMetrics {
+
+  private static final StageMetrics MASKING = new StageMetrics("masking");
+  private static final ConcurrentMap<String, StageMetrics> APPENDERS = new ConcurrentHashMap<>();
+  private static volatile Consumer<StageMetrics> binder;
+
+  private LoggingMetrics() {
+  }
+
+  /**
+   * Stage of the appender with the given name.
+   */
+  public static StageMetrics appender(String name) {
+    StageMetrics stage = APPENDERS.get(name);
+    if (stage == null) {
+      StageMetrics created = new StageMetrics(name);
+      stage = APPENDERS.putIfAbsent(name, created);
+      if (stage == null) {
+        stage = created;
+        Consumer<StageMetrics> current = binder;
+        if (current != null) {
+          current.accept(stage);
+        }
+      }
+    }
+    return stage;
+  }
+
+  /**
+   * Masking of {@code %msg} by {@link org.spring.beet.logging.ConversionAdapter}.
+   */
+  public static StageMetrics masking() {
+    return MASKING;
+  }
+
+  static List<StageMetrics> appenders() {
+    return new ArrayList<>(APPENDERS.values());
+  }
+
+  static synchronized void bind(Consumer<StageMetrics> appenderBinder) {
+    binder = appenderBinder;
+    for (StageMetrics stage : APPENDERS.values()) {
+      appenderBinder.accept(stage);
+    }
+  }
+}
@@ -0,0 +1,204 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.metrics;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.rolling.RollingFileAppender;
+import ch.qos.logback.core.spi.AppenderAttachable;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.function.ToDoubleFunction;
+import org.slf4j.ILoggerFactory;
+import org.slf4j.LoggerFactory;
+import org.spring.beet.logging.async.NonBlockingConsoleAppender;
+import org.spring.beet.logging.async.RingBufferAppender;
+import org.spring.beet.logging.file.BackgroundCompressionRollingPolicy;
+import org.spring.beet.logging.filter.DeduplicationTurboFilter;
+import org.spring.beet.logging.filter.RateLimitTurboFilter;
+import org.spring.beet.logging.tail.TailBufferTurboFilter;
+
+/**
+ * Binds the logging pipeline to Micrometer.
+ *
+ * <ul>
+ *   <li>{@code logging.events} and {@code logging.append}: events per appender and level, and
+ *   the append latency histogram of every appender recording {@link StageMetrics}</li>
+ *   <li>{@code logging.masking.events} and {@code logging.masking}: the same for the masking of
+ *   {@code %msg}</li>
+ *   <li>{@code logging.queue.depth}, {@code logging.queue.capacity} and {@code
+ *   logging.queue.bytes}: queues of the asynchronous appenders</li>
+ *   <li>{@code logging.dropped} by {@code source} and {@code reason}: events dropped by full
+ *   queues, rate limiting, de-duplication and the tail buffer, and {@code logging.degraded}</li>
+ *   <li>{@code logging.tail.*} and {@code logging.compression.*}: the tail buffer and the
+ *   background compression of archives</li>
+ * </ul>
+ *
+ * <p>Every meter reads counters the components maintain anyway, so binding adds nothing to the
+ * logging path except the latency histograms.
+ *
+ * @author zhanglei
+ */
+public class LoggingMetricsBinder implements MeterBinder {
+
+  static final String SOURCE = "source";
+  static final String REASON = "reason";
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    bindStage(registry, "logging.masking", "logging.masking.events", null,
+        LoggingMetrics.masking());
+    LoggingMetrics.bind(stage -> bindStage(registry, "logging.append", "logging.events",
+        stage.getName(), stage));
+
+    LoggerContext context = loggerContext();
+    if (context == null) {
+      return;
+    }
+    for (Appender<ILoggingEvent> appender : appenders(context)) {
+      bindAppender(registry, appender);
+    }
+    for (TurboFilter filter : context.getTurboFilterList()) {
+      bindTurboFilter(registry, filter);
+    }
+  }
+
+  private static void bindStage(MeterRegistry registry, String timerName, String counterName,
+      String appender, StageMetrics stage) {
+    Timer.Builder timer = Timer.builder(timerName)
+        .publishPercentileHistogram()
+        .minimumExpectedValue(Duration.ofNanos(1_000))
+        .maximumExpectedValue(Duration.ofSeconds(1));
+    if (appender != null) {
+      timer.tag("appender", appender);
+    }
+    stage.bind(timer.register(registry));
+    for (Level level : StageMetrics.LEVELS) {
+      FunctionCounter.Builder<StageMetrics> counter = FunctionCounter
+          .builder(counterName, stage, s -> s.getEvents(level))
+          .tag("level", level.toString());
+      if (appender != null) {
+        counter.tag("appender", appender);
+      }
+      counter.register(registry);
+    }
+  }
+
+  private static void bindAppender(MeterRegistry registry, Appender<ILoggingEvent> appender) {
+    String name = String.valueOf(appender.getName());
+    if (appender instanceof RingBufferAppender) {
+      RingBufferAppender ring = (RingBufferAppender) appender;
+      Gauge.builder("logging.queue.depth", ring, RingBufferAppender::getQueuedEvents)
+          .tag("appender", name).register(registry);
+      Gauge.builder("logging.queue.capacity", ring, RingBufferAppender::getRingBufferCapacity)
+          .tag("appender", name).register(registry);
+      dropped(registry, name, "queue-full", ring, RingBufferAppender::getDroppedEvents);
+    } else if (appender instanceof NonBlockingConsoleAppender) {
+      NonBlockingConsoleAppender console = (NonBlockingConsoleAppender) appender;
+      Gauge.builder("logging.queue.depth", console, NonBlockingConsoleAppender::getQueuedEvents)
+          .tag("appender", name).register(registry);
+      Gauge.builder("logging.queue.bytes", console, NonBlockingConsoleAppender::getBufferedBytes)
+          .tag("appender", name).register(registry);
+      dropped(registry, name, "queue-full", console, NonBlockingConsoleAppender::getDroppedEvents);
+      FunctionCounter.builder("logging.degraded", console,
+          NonBlockingConsoleAppender::getDegradedEvents).tag("appender", name).register(registry);
+    } else if (appender instanceof RollingFileAppender && ((RollingFileAppender<?>) appender)
+        .getRollingPolicy() instanceof BackgroundCompressionRollingPolicy) {
+      BackgroundCompressionRollingPolicy<?> policy = (BackgroundCompressionRollingPolicy<?>)
+          ((RollingFileAppender<?>) appender).getRollingPolicy();
+      Gauge.builder("logging.compression.backlog", policy, p -> p.getCompressionBacklog())
+          .tag("appender", name).register(registry);
+      Gauge.builder("logging.compression.ratio", policy, p -> p.getCompressionRatio())
+          .tag("appender", name).register(registry);
+      compressed(registry, name, "compressed", policy, p -> p.getCompressedFiles());
+      compressed(registry, name, "skipped", policy, p -> p.getSkippedFiles());
+      compressed(registry, name, "failed", policy, p -> p.getFailedFiles());
+      compressed(registry, name, "deleted", policy, p -> p.getDeletedFiles());
+    }
+  }
+
+  private static void bindTurboFilter(MeterRegistry registry, TurboFilter filter) {
+    String name = filter.getName() != null ? filter.getName() : filter.getClass().getSimpleName();
+    if (filter instanceof RateLimitTurboFilter) {
+      dropped(registry, name, "rate-limit", (RateLimitTurboFilter) filter,
+          RateLimitTurboFilter::getSuppressedEvents);
+    } else if (filter instanceof DeduplicationTurboFilter) {
+      dropped(registry, name, "duplicate", (DeduplicationTurboFilter) filter,
+          DeduplicationTurboFilter::getDroppedEvents);
+    } else if (filter instanceof TailBufferTurboFilter) {
+      TailBufferTurboFilter tail = (TailBufferTurboFilter) filter;
+      Gauge.builder("logging.tail.requests", tail, TailBufferTurboFilter::getTrackedRequests)
+          .register(registry);
+      Gauge.builder("logging.tail.buffered", tail, TailBufferTurboFilter::getBufferedEvents)
+          .register(registry);
+      FunctionCounter.builder("logging.tail.flushed", tail,
+          TailBufferTurboFilter::getFlushedEvents).register(registry);
+      dropped(registry, name, "tail-discarded", tail, TailBufferTurboFilter::getDiscardedEvents);
+      dropped(registry, name, "tail-evicted", tail, TailBufferTurboFilter::getEvictedEvents);
+    }
+  }
+
+  static <T> void dropped(MeterRegistry registry, String source, String reason, T obj,
+      ToDoubleFunction<T> count) {
+    FunctionCounter.builder("logging.dropped", obj, count)
+        .tag(SOURCE, source).tag(REASON, reason).register(registry);
+  }
+
+  private static <T> void compressed(MeterRegistry registry, String appender, String outcome,
+      T obj, ToDoubleFunction<T> count) {
+    FunctionCounter.builder("logging.compression.files", obj, count)
+        .tag("appender", appender).tag("outcome", outcome).register(registry);
+  }
+
+  static LoggerContext loggerContext() {
+    ILoggerFactory factory = LoggerFactory.getILoggerFactory();
+    return factory instanceof LoggerContext ? (LoggerContext) factory : null;
+  }
+
+  /**
+   * All appenders of the context, including the ones attached to other appenders.
+   */
+  static Set<Appender<ILoggingEvent>> appenders(LoggerContext context) {
+    Set<Appender<ILoggingEvent>> appenders = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (Logger logger : context.getLoggerList()) {
+      collect(logger.iteratorForAppenders(), appenders);
+    }
+    return appenders;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void collect(Iterator<Appender<ILoggingEvent>> iterator,
+      Set<Appender<ILoggingEvent>> appenders) {
+    while (iterator.hasNext()) {
+      Appender<ILoggingEvent> appender = iterator.next();
+      if (appenders.add(appender) && appender instanceof AppenderAttachable) {
+        collect(((AppenderAttachable<ILoggingEvent>) appender).iteratorForAppenders(), appenders);
+      }
+    }
+  }
+}
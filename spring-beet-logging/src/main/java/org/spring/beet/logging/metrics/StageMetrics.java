@@ -0,0 +1,101 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.metrics;
+
+import ch.qos.logback.classic.Level;
+import io.micrometer.core.instrument.Timer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Event counts per level and latency of one stage of the logging pipeline, an appender or the
+ * masking of {@code %msg}.
+ *
+ * <p>Counts are kept in {@link LongAdder}s from the first event on, even before Spring starts.
+ * Latencies are recorded into a Micrometer {@link Timer} with a percentile histogram once {@link
+ * LoggingMetricsBinder} has bound the stage to a registry.
+ *
+ * @author zhanglei
+ */
+public final class StageMetrics {
+
+  static final Level[] LEVELS = {Level.TRACE, Level.DEBUG, Level.INFO, Level.WARN, Level.ERROR};
+
+  private final String name;
+  private final LongAdder[] events = new LongAdder[LEVELS.length];
+  private final LongAdder totalNanos = new LongAdder();
+  private volatile Timer timer;
+
+  StageMetrics(String name) {
+    this.name = name;
+    for (int i = 0; i < events.length; i++) {
+      events[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * Records one event of this stage.
+   *
+   * @param nanos time spent in the stage, from {@link System#nanoTime()}
+   */
+  public void record(Level level, long nanos) {
+    if (level != null) {
+      events[indexOf(level)].increment();
+    }
+    totalNanos.add(nanos);
+    Timer bound = timer;
+    if (bound != null) {
+      bound.record(nanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  static int indexOf(Level level) {
+    switch (level.toInt()) {
+      case Level.TRACE_INT:
+        return 0;
+      case Level.DEBUG_INT:
+        return 1;
+      case Level.INFO_INT:
+        return 2;
+      case Level.WARN_INT:
+        return 3;
+      default:
+        return 4;
+    }
+  }
+
+  void bind(Timer timer) {
+    this.timer = timer;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Events of the given level recorded since start.
+   */
+  public long getEvents(Level level) {
+    return events[indexOf(level)].sum();
+  }
+
+  /**
+   * Time spent in this stage since start, in nanoseconds.
+   */
+  public long getTotalNanos() {
+    return totalNanos.sum();
+  }
+}
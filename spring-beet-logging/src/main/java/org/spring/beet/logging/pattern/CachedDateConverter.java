@@ -0,0 +1,146 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.pattern;
+
+import ch.qos.logback.classic.pattern.ClassicConverter;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.CoreConstants;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * {@code %ts}: same output and options as {@code %d}, formatted once per second.
+ *
+ * <p>{@code %ts}, {@code %ts{ISO8601}}, {@code %ts{HH:mm:ss.SSS}} and {@code
+ * %ts{yyyy-MM-dd HH:mm:ss,SSS, UTC}} behave exactly like their {@code %d} counterparts. When the
+ * date pattern contains the milliseconds as a single {@code SSS} field, the text before and after
+ * it is formatted once per second and published as an immutable snapshot, every other event of
+ * that second only appends its three millisecond digits. Threads share the snapshot without
+ * locking; a thread that sees another second formats it with its own {@link SimpleDateFormat}
+ * and publishes the result. Any other pattern is formatted per event.
+ *
+ * @author zhanglei
+ */
+public class CachedDateConverter extends ClassicConverter {
+
+  private String datePattern;
+  private TimeZone timeZone;
+  private String prefixPattern;
+  private String suffixPattern;
+  private boolean cacheable;
+  private boolean millis;
+  private ThreadLocal<SimpleDateFormat[]> formats;
+  private volatile Second cached;
+
+  @Override
+  public void start() {
+    String option = getFirstOption();
+    datePattern = option == null || option.equalsIgnoreCase(CoreConstants.ISO8601_STR)
+        ? CoreConstants.ISO8601_PATTERN : option;
+    try {
+      new SimpleDateFormat(datePattern);
+    } catch (IllegalArgumentException e) {
+      addWarn("Could not instantiate SimpleDateFormat with pattern " + datePattern, e);
+      datePattern = CoreConstants.ISO8601_PATTERN;
+    }
+    List<String> options = getOptionList();
+    timeZone = options != null && options.size() > 1
+        ? TimeZone.getTimeZone(options.get(1).trim()) : TimeZone.getDefault();
+
+    int index = millisIndex(datePattern);
+    cacheable = index != -2;
+    millis = index >= 0;
+    prefixPattern = millis ? datePattern.substring(0, index) : datePattern;
+    suffixPattern = millis ? datePattern.substring(index + 3) : "";
+    formats = ThreadLocal.withInitial(() -> new SimpleDateFormat[] {
+        format(prefixPattern), format(suffixPattern), format(datePattern)});
+    super.start();
+  }
+
+  private SimpleDateFormat format(String pattern) {
+    SimpleDateFormat format = new SimpleDateFormat(pattern);
+    format.setTimeZone(timeZone);
+    return format;
+  }
+
+  /**
+   * Position of the only millisecond field if it is written as {@code SSS}, -1 if the pattern
+   * has no millisecond field, -2 if it cannot be cached per second.
+   */
+  static int millisIndex(String pattern) {
+    int index = -1;
+    boolean quoted = false;
+    for (int i = 0; i < pattern.length(); i++) {
+      char c = pattern.charAt(i);
+      if (c == '\'') {
+        quoted = !quoted;
+      } else if (!quoted && c == 'S') {
+        int end = i;
+        while (end < pattern.length() && pattern.charAt(end) == 'S') {
+          end++;
+        }
+        if (index != -1 || end - i != 3) {
+          return -2;
+        }
+        index = i;
+        i = end - 1;
+      }
+    }
+    return index;
+  }
+
+  @Override
+  public String convert(ILoggingEvent event) {
+    long timestamp = event.getTimeStamp();
+    if (!cacheable) {
+      return formats.get()[2].format(new Date(timestamp));
+    }
+    long second = Math.floorDiv(timestamp, 1000L);
+    Second snapshot = cached;
+    if (snapshot == null || snapshot.second != second) {
+      SimpleDateFormat[] threadFormats = formats.get();
+      Date date = new Date(second * 1000L);
+      snapshot = new Second(second, threadFormats[0].format(date),
+          millis ? threadFormats[1].format(date) : "");
+      cached = snapshot;
+    }
+    if (!millis) {
+      return snapshot.prefix;
+    }
+    int ms = (int) Math.floorMod(timestamp, 1000L);
+    return new StringBuilder(snapshot.prefix.length() + 3 + snapshot.suffix.length())
+        .append(snapshot.prefix)
+        .append((char) ('0' + ms / 100))
+        .append((char) ('0' + ms / 10 % 10))
+        .append((char) ('0' + ms % 10))
+        .append(snapshot.suffix).toString();
+  }
+
+  private static final class Second {
+
+    final long second;
+    final String prefix;
+    final String suffix;
+
+    Second(long second, String prefix, String suffix) {
+      this.second = second;
+      this.prefix = prefix;
+      this.suffix = suffix;
+    }
+  }
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.pattern;
+
+import ch.qos.logback.classic.pattern.ClassicConverter;
+import ch.qos.logback.classic.pattern.TargetLengthBasedClassNameAbbreviator;
+import ch.qos.logback.classic.spi.CallerData;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * {@code %cls}: abbreviated class name taken from the logger name, so no caller data is needed.
+ *
+ * <p>The first option is either a target length as for {@code %logger{36}}, or a precision as
+ * for {@code %C{1.}} in Log4j 2, where every package keeps its first {@code n} characters and
+ * the simple class name is kept as is ({@code org.spring.beet.Foo} becomes {@code o.s.b.Foo}).
+ * Abbreviations are cached per converter, for at most {@value #MAX_CACHED_NAMES} names.
+ *
+ * <p>With {@code caller} as second option ({@code %cls{1.,caller}}) the class name of the caller
+ * is abbreviated instead, which costs a stack walk per event.
+ *
+ * @author zhanglei
+ */
+public class ClassNameConverter extends ClassicConverter {
+
+  static final int MAX_CACHED_NAMES = 2048;
+
+  private final ConcurrentMap<String, String> cache = new ConcurrentHashMap<>();
+  private int precision = -1;
+  private TargetLengthBasedClassNameAbbreviator abbreviator;
+  private boolean useCallerData;
+
+  @Override
+  public void start() {
+    String option = getFirstOption();
+    if (option != null) {
+      option = option.trim();
+      try {
+        if (option.endsWith(".")) {
+          precision = Integer.parseInt(option.substring(0, option.length() - 1));
+        } else if (Integer.parseInt(option) > 0) {
+          abbreviator = new TargetLengthBasedClassNameAbbreviator(Integer.parseInt(option));
+        }
+      } catch (NumberFormatException e) {
+        addWarn("invalid option [" + option + "] of %cls, class names are not abbreviated");
+      }
+    }
+    List<String> options = getOptionList();
+    useCallerData = options != null && options.size() > 1
+        && "caller".equalsIgnoreCase(options.get(1).trim());
+    super.start();
+  }
+
+  @Override
+  public String convert(ILoggingEvent event) {
+    String name;
+    if (useCallerData) {
+      StackTraceElement[] callerData = event.getCallerData();
+      if (callerData == null || callerData.length == 0) {
+        return CallerData.NA;
+      }
+      name = callerData[0].getClassName();
+    } else {
+      name = event.getLoggerName();
+    }
+    if (precision < 0 && abbreviator == null) {
+      return name;
+    }
+    String abbreviated = cache.get(name);
+    if (abbreviated == null) {
+      abbreviated = abbreviate(name);
+      if (cache.size() < MAX_CACHED_NAMES) {
+        cache.putIfAbsent(name, abbreviated);
+      }
+    }
+    return abbreviated;
+  }
+
+  boolean isUseCallerData() {
+    return useCallerData;
+  }
+
+  String abbreviate(String name) {
+    if (abbreviator != null) {
+      return abbreviator.abbreviate(name);
+    }
+    int last = name.lastIndexOf('.');
+    if (last < 0) {
+      return name;
+    }
+    StringBuilder sb = new StringBuilder(name.length());
+    int start = 0;
+    while (start <= last) {
+      int end = name.indexOf('.', start);
+      sb.append(name, start, Math.min(end, start + Math.max(precision, 0))).append('.');
+      start = end + 1;
+    }
+    return sb.append(name, last + 1, name.length()).toString();
+  }
+}
@@ -0,0 +1,312 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.pattern;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.PatternLayout;
+import ch.qos.logback.classic.pattern.EnsureExceptionHandling;
+import ch.qos.logback.classic.pattern.LevelConverter;
+import ch.qos.logback.classic.pattern.LineSeparatorConverter;
+import ch.qos.logback.classic.pattern.LoggerConverter;
+import ch.qos.logback.classic.pattern.ThreadConverter;
+import ch.qos.logback.classic.pattern.ThrowableHandlingConverter;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Context;
+import ch.qos.logback.core.CoreConstants;
+import ch.qos.logback.core.encoder.EncoderBase;
+import ch.qos.logback.core.pattern.Converter;
+import ch.qos.logback.core.pattern.ConverterUtil;
+import ch.qos.logback.core.pattern.FormattingConverter;
+import ch.qos.logback.core.pattern.LiteralConverter;
+import ch.qos.logback.core.pattern.parser.Parser;
+import ch.qos.logback.core.spi.ScanException;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.spring.beet.logging.ConversionAdapter;
+
+/**
+ * Pattern encoder that compiles its pattern once at startup into a flat plan of operations.
+ *
+ * <pre>
+ * &lt;encoder class="org.spring.beet.logging.pattern.CompiledPatternEncoder"&gt;
+ *   &lt;pattern&gt;[${HOST}] %d %p %cls{1.} [%t] %msg%n&lt;/pattern&gt;
+ * &lt;/encoder&gt;
+ * </pre>
+ *
+ * <p>The pattern is compiled like {@link PatternLayout} compiles it, so every conversion word and
+ * conversion rule registered in the context is available, then the converter chain is flattened:
+ * adjacent literals and line separators become one pre-encoded byte array, unpadded {@code %p}
+ * writes a pre-encoded level, unpadded {@code %t}, {@code %logger} and {@code %cls} write bytes
+ * cached per thread or logger name, an unpadded {@code %m} registered as {@link ConversionAdapter}
+ * is called directly, and an unpadded throwable converter is skipped when the event has no
+ * throwable. Any other converter, or one with padding or truncation, is called through {@link
+ * Converter#write(StringBuilder, Object)} exactly as the layout would. Events are written as UTF-8
+ * into a buffer reused by the encoding thread.
+ *
+ * <p>The encoder writes no header, {@code outputPatternAsHeader} of {@code PatternLayoutEncoder}
+ * has no counterpart; the events themselves are rendered like {@code PatternLayoutEncoder} with a
+ * UTF-8 charset renders them.
+ *
+ * @author zhanglei
+ */
+public class CompiledPatternEncoder extends EncoderBase<ILoggingEvent> {
+
+  static final int MAX_CACHED_NAMES = 4096;
+
+  private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+
+  private static final byte OP_LITERAL = 0;
+  private static final byte OP_LEVEL = 1;
+  private static final byte OP_THREAD = 2;
+  private static final byte OP_LOGGER = 3;
+  private static final byte OP_MESSAGE = 4;
+  private static final byte OP_THROWABLE = 5;
+  private static final byte OP_CONVERTER = 6;
+
+  private static final byte[] NULL = bytes("null");
+  private static final byte[][] LEVELS = {bytes(Level.TRACE.toString()),
+      bytes(Level.DEBUG.toString()), bytes(Level.INFO.toString()), bytes(Level.WARN.toString()),
+      bytes(Level.ERROR.toString())};
+
+  private final ThreadLocal<Scratch> scratches = ThreadLocal.withInitial(Scratch::new);
+  private final ConcurrentMap<String, byte[]> threadNames = new ConcurrentHashMap<>();
+
+  private String pattern;
+  private byte[] ops;
+  private Object[] operands;
+
+  private static byte[] bytes(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public void start() {
+    if (pattern == null || pattern.isEmpty()) {
+      addError("Empty or null pattern.");
+      return;
+    }
+    Converter<ILoggingEvent> head;
+    try {
+      Parser<ILoggingEvent> parser = new Parser<>(pattern);
+      parser.setContext(getContext());
+      head = parser.compile(parser.parse(), converterMap());
+    } catch (ScanException | IllegalStateException e) {
+      addError("Cannot compile pattern [" + pattern + "]", e);
+      return;
+    }
+    new EnsureExceptionHandling().process(getContext(), head);
+    ConverterUtil.setContextForConverters(getContext(), head);
+    ConverterUtil.startConverters(head);
+    compile(head);
+    super.start();
+  }
+
+  /**
+   * The conversion words of {@link PatternLayout} and the conversion rules of the context.
+   */
+  @SuppressWarnings("unchecked")
+  private Map<String, String> converterMap() {
+    Map<String, String> converterMap = new HashMap<>(PatternLayout.defaultConverterMap);
+    Context context = getContext();
+    Object rules = context == null ? null : context.getObject(CoreConstants.PATTERN_RULE_REGISTRY);
+    if (rules instanceof Map) {
+      converterMap.putAll((Map<String, String>) rules);
+    }
+    return converterMap;
+  }
+
+  private void compile(Converter<ILoggingEvent> head) {
+    List<Byte> opList = new ArrayList<>();
+    List<Object> operandList = new ArrayList<>();
+    ByteArrayOutputStream literal = new ByteArrayOutputStream();
+    for (Converter<ILoggingEvent> c = head; c != null; c = c.getNext()) {
+      if (c instanceof LiteralConverter || c instanceof LineSeparatorConverter) {
+        byte[] value = bytes(c.convert(null));
+        literal.write(value, 0, value.length);
+        continue;
+      }
+      if (literal.size() > 0) {
+        opList.add(OP_LITERAL);
+        operandList.add(literal.toByteArray());
+        literal.reset();
+      }
+      boolean plain = !(c instanceof FormattingConverter)
+          || ((FormattingConverter<ILoggingEvent>) c).getFormattingInfo() == null;
+      if (plain && c instanceof ThrowableHandlingConverter) {
+        opList.add(OP_THROWABLE);
+        operandList.add(c);
+      } else if (plain && c instanceof LevelConverter) {
+        opList.add(OP_LEVEL);
+        operandList.add(null);
+      } else if (plain && c instanceof ThreadConverter) {
+        opList.add(OP_THREAD);
+        operandList.add(null);
+      } else if (plain && (c instanceof LoggerConverter
+          || c instanceof ClassNameConverter && !((ClassNameConverter) c).isUseCallerData())) {
+        opList.add(OP_LOGGER);
+        operandList.add(new NameCache(c));
+      } else if (plain && c instanceof ConversionAdapter) {
+        opList.add(OP_MESSAGE);
+        operandList.add(c);
+      } else {
+        opList.add(OP_CONVERTER);
+        operandList.add(c);
+      }
+    }
+    if (literal.size() > 0) {
+      opList.add(OP_LITERAL);
+      operandList.add(literal.toByteArray());
+    }
+    ops = new byte[opList.size()];
+    for (int i = 0; i < ops.length; i++) {
+      ops[i] = opList.get(i);
+    }
+    operands = operandList.toArray();
+  }
+
+  @Override
+  public byte[] headerBytes() {
+    return null;
+  }
+
+  @Override
+  public byte[] footerBytes() {
+    return null;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public byte[] encode(ILoggingEvent event) {
+    Scratch scratch = scratches.get();
+    Utf8Buffer buffer = scratch.buffer;
+    buffer.reset();
+    for (int i = 0; i < ops.length; i++) {
+      switch (ops[i]) {
+        case OP_LITERAL:
+          buffer.write((byte[]) operands[i]);
+          break;
+        case OP_LEVEL:
+          buffer.write(level(event.getLevel()));
+          break;
+        case OP_THREAD:
+          buffer.write(threadName(event.getThreadName()));
+          break;
+        case OP_LOGGER:
+          buffer.write(((NameCache) operands[i]).bytes(event));
+          break;
+        case OP_MESSAGE:
+          buffer.write(((ConversionAdapter) operands[i]).convert(event));
+          break;
+        case OP_THROWABLE:
+          if (event.getThrowableProxy() == null) {
+            break;
+          }
+          // fall through
+        default:
+          StringBuilder sb = scratch.builder;
+          sb.setLength(0);
+          ((Converter<ILoggingEvent>) operands[i]).write(sb, event);
+          buffer.write(sb);
+      }
+    }
+    byte[] encoded = buffer.toByteArray();
+    if (buffer.capacity() > MAX_RETAINED_BUFFER) {
+      // do not keep the buffer of an exceptionally large event for the life of the thread
+      scratches.remove();
+    }
+    return encoded;
+  }
+
+  private static byte[] level(Level level) {
+    switch (level.toInt()) {
+      case Level.TRACE_INT:
+        return LEVELS[0];
+      case Level.DEBUG_INT:
+        return LEVELS[1];
+      case Level.INFO_INT:
+        return LEVELS[2];
+      case Level.WARN_INT:
+        return LEVELS[3];
+      default:
+        return LEVELS[4];
+    }
+  }
+
+  private byte[] threadName(String name) {
+    if (name == null) {
+      return NULL;
+    }
+    byte[] encoded = threadNames.get(name);
+    if (encoded == null) {
+      encoded = bytes(name);
+      if (threadNames.size() < MAX_CACHED_NAMES) {
+        byte[] cached = threadNames.putIfAbsent(name, encoded);
+        if (cached != null) {
+          encoded = cached;
+        }
+      }
+    }
+    return encoded;
+  }
+
+  public String getPattern() {
+    return pattern;
+  }
+
+  public void setPattern(String pattern) {
+    this.pattern = pattern;
+  }
+
+  private static final class Scratch {
+
+    final Utf8Buffer buffer = new Utf8Buffer(512);
+    final StringBuilder builder = new StringBuilder(256);
+  }
+
+  /**
+   * Encoded output of a converter that depends on the logger name only.
+   */
+  private static final class NameCache {
+
+    private final Converter<ILoggingEvent> converter;
+    private final ConcurrentMap<String, byte[]> names = new ConcurrentHashMap<>();
+
+    NameCache(Converter<ILoggingEvent> converter) {
+      this.converter = converter;
+    }
+
+    byte[] bytes(ILoggingEvent event) {
+      String name = event.getLoggerName();
+      byte[] encoded = name == null ? null : names.get(name);
+      if (encoded == null) {
+        encoded = CompiledPatternEncoder.bytes(converter.convert(event));
+        if (name != null && names.size() < MAX_CACHED_NAMES) {
+          byte[] cached = names.putIfAbsent(name, encoded);
+          if (cached != null) {
+            encoded = cached;
+          }
+        }
+      }
+      return encoded;
+    }
+  }
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.pattern;
+
+import ch.qos.logback.classic.pattern.ThrowableHandlingConverter;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.StackTraceElementProxy;
+import ch.qos.logback.classic.spi.ThrowableProxyUtil;
+import ch.qos.logback.core.CoreConstants;
+import ch.qos.logback.core.util.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.spring.beet.logging.filter.StackFingerprint;
+
+/**
+ * {@code %fex}: prints a stack trace in full once per interval, afterwards only its fingerprint.
+ *
+ * <pre>
+ * exception fingerprint 3fa85f64
+ * java.lang.IllegalStateException: call failed
+ *     at org.spring.beet.Foo.call(Foo.java:42)
+ *     ... 3 filtered frames omitted
+ *     at org.spring.beet.Bar.run(Bar.java:17)
+ * exception fingerprint 3fa85f64 (see earlier) java.lang.IllegalStateException: call failed
+ * </pre>
+ *
+ * <p>The fingerprint is the one of {@link StackFingerprint}, so the same failure with different
+ * messages is printed in full only once per interval. The trace is rendered like {@code %ex}
+ * except that consecutive frames of reflection, proxy, AOP and servlet container packages are
+ * collapsed into one line; the first frame of every throwable is always printed.
+ *
+ * <p>Options: {@code %fex{interval, maxFingerprints, package...}}, by default {@code %fex{1
+ * minutes, 1024}}. Extra options are package prefixes filtered in addition to the default ones.
+ * The time of the last full print is kept for at most {@code maxFingerprints} fingerprints,
+ * expired ones are evicted first and the cache is cleared when all of them are still fresh.
+ *
+ * @author zhanglei
+ */
+public class FingerprintThrowableConverter extends ThrowableHandlingConverter {
+
+  static final String[] FILTERED_PACKAGES = {"sun.reflect.", "jdk.internal.reflect.",
+      "java.lang.reflect.", "com.sun.proxy.", "net.sf.cglib.", "org.springframework.cglib.",
+      "org.springframework.aop.", "org.apache.catalina.", "org.apache.coyote.",
+      "org.apache.tomcat."};
+
+  private long interval = Duration.buildByMinutes(1).getMilliseconds();
+  private int maxFingerprints = 1024;
+  private String[] filteredPackages = FILTERED_PACKAGES;
+  private final ConcurrentMap<String, Long> printed = new ConcurrentHashMap<>();
+
+  @Override
+  public void start() {
+    List<String> options = getOptionList();
+    if (options != null) {
+      try {
+        if (options.size() > 0) {
+          interval = Duration.valueOf(options.get(0).trim()).getMilliseconds();
+        }
+        if (options.size() > 1) {
+          maxFingerprints = Integer.parseInt(options.get(1).trim());
+        }
+      } catch (IllegalArgumentException e) {
+        addError("invalid options " + options + " of %fex", e);
+      }
+      if (options.size() > 2) {
+        List<String> packages = new ArrayList<>(Arrays.asList(FILTERED_PACKAGES));
+        for (String option : options.subList(2, options.size())) {
+          packages.add(option.trim());
+        }
+        filteredPackages = packages.toArray(new String[0]);
+      }
+    }
+    super.start();
+  }
+
+  @Override
+  public String convert(ILoggingEvent event) {
+    IThrowableProxy throwable = event.getThrowableProxy();
+    if (throwable == null) {
+      return CoreConstants.EMPTY_STRING;
+    }
+    String fingerprint = StackFingerprint.of(throwable);
+    StringBuilder sb = new StringBuilder(2048).append("exception fingerprint ")
+        .append(fingerprint);
+    if (!firstInInterval(fingerprint, event.getTimeStamp())) {
+      sb.append(" (see earlier) ");
+      appendFirstLine(sb, throwable);
+      return sb.append(CoreConstants.LINE_SEPARATOR).toString();
+    }
+    sb.append(CoreConstants.LINE_SEPARATOR);
+    append(sb, null, 1, throwable);
+    return sb.toString();
+  }
+
+  /**
+   * Whether the trace with this fingerprint has to be printed in full, only one of the threads
+   * racing for the same fingerprint wins.
+   */
+  boolean firstInInterval(String fingerprint, long now) {
+    Long last = printed.get(fingerprint);
+    if (last == null) {
+      if (printed.size() >= maxFingerprints) {
+        evict(now);
+      }
+      return printed.putIfAbsent(fingerprint, now) == null;
+    }
+    return now - last >= interval && printed.replace(fingerprint, last, now);
+  }
+
+  private void evict(long now) {
+    printed.values().removeIf(last -> now - last >= interval);
+    if (printed.size() >= maxFingerprints) {
+      printed.clear();
+    }
+  }
+
+  int getCachedFingerprints() {
+    return printed.size();
+  }
+
+  private void append(StringBuilder sb, String prefix, int indent, IThrowableProxy throwable) {
+    if (throwable == null) {
+      return;
+    }
+    ThrowableProxyUtil.indent(sb, indent - 1);
+    if (prefix != null) {
+      sb.append(prefix);
+    }
+    appendFirstLine(sb, throwable);
+    sb.append(CoreConstants.LINE_SEPARATOR);
+    appendFrames(sb, indent, throwable);
+    IThrowableProxy[] suppressed = throwable.getSuppressed();
+    if (suppressed != null) {
+      for (IThrowableProxy current : suppressed) {
+        append(sb, CoreConstants.SUPPRESSED, indent + 1, current);
+      }
+    }
+    append(sb, CoreConstants.CAUSED_BY, indent, throwable.getCause());
+  }
+
+  private static void appendFirstLine(StringBuilder sb, IThrowableProxy throwable) {
+    sb.append(throwable.getClassName()).append(": ").append(throwable.getMessage());
+  }
+
+  private void appendFrames(StringBuilder sb, int indent, IThrowableProxy throwable) {
+    StackTraceElementProxy[] frames = throwable.getStackTraceElementProxyArray();
+    if (frames == null) {
+      return;
+    }
+    int common = throwable.getCommonFrames();
+    int filtered = 0;
+    for (int i = 0; i < frames.length - common; i++) {
+      if (i > 0 && isFiltered(frames[i].getStackTraceElement().getClassName())) {
+        filtered++;
+        continue;
+      }
+      filtered = appendOmitted(sb, indent, filtered, " filtered frames omitted");
+      ThrowableProxyUtil.indent(sb, indent);
+      ThrowableProxyUtil.subjoinSTEP(sb, frames[i]);
+      sb.append(CoreConstants.LINE_SEPARATOR);
+    }
+    appendOmitted(sb, indent, filtered, " filtered frames omitted");
+    appendOmitted(sb, indent, common, " common frames omitted");
+  }
+
+  private static int appendOmitted(StringBuilder sb, int indent, int frames, String what) {
+    if (frames > 0) {
+      ThrowableProxyUtil.indent(sb, indent);
+      sb.append("... ").append(frames).append(what).append(CoreConstants.LINE_SEPARATOR);
+    }
+    return 0;
+  }
+
+  private boolean isFiltered(String className) {
+    for (String filteredPackage : filteredPackages) {
+      if (className.startsWith(filteredPackage)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.pattern;
+
+import java.util.Arrays;
+
+/**
+ * Growable UTF-8 byte buffer, confined to one thread and reused for every event.
+ *
+ * @author zhanglei
+ */
+final class Utf8Buffer {
+
+  private byte[] buffer;
+  private int length;
+
+  Utf8Buffer(int initialCapacity) {
+    this.buffer = new byte[initialCapacity];
+  }
+
+  void reset() {
+    length = 0;
+  }
+
+  int capacity() {
+    return buffer.length;
+  }
+
+  byte[] toByteArray() {
+    return Arrays.copyOf(buffer, length);
+  }
+
+  private void ensure(int extra) {
+    if (length + extra > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, length + extra));
+    }
+  }
+
+  void write(byte[] bytes) {
+    ensure(bytes.length);
+    System.arraycopy(bytes, 0, buffer, length, bytes.length);
+    length += bytes.length;
+  }
+
+  void write(CharSequence value) {
+    int n = value.length();
+    ensure(n);
+    for (int i = 0; i < n; i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        ensure(1);
+        buffer[length++] = (byte) c;
+      } else if (c < 0x800) {
+        ensure(2);
+        buffer[length++] = (byte) (0xc0 | c >> 6);
+        buffer[length++] = (byte) (0x80 | c & 0x3f);
+      } else if (Character.isHighSurrogate(c) && i + 1 < n
+          && Character.isLowSurrogate(value.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        ensure(4);
+        buffer[length++] = (byte) (0xf0 | codePoint >> 18);
+        buffer[length++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+        buffer[length++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+        buffer[length++] = (byte) (0x80 | codePoint & 0x3f);
+      } else if (Character.isSurrogate(c)) {
+        // unpaired surrogate, encoded like String.getBytes does
+        ensure(1);
+        buffer[length++] = '?';
+      } else {
+        ensure(3);
+        buffer[length++] = (byte) (0xe0 | c >> 12);
+        buffer[length++] = (byte) (0x80 | c >> 6 & 0x3f);
+        buffer[length++] = (byte) (0x80 | c & 0x3f);
+      }
+    }
+  }
+}
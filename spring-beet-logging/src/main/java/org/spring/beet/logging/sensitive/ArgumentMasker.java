@@ -0,0 +1,105 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.sensitive;
+
+import java.util.Arrays;
+
+/**
+ * Masks log arguments before the message is formatted.
+ *
+ * <p>Arguments whose class declares {@link Sensitive} fields are rendered by their cached
+ * {@link TypeMasker} and never reach the rule based maskers. Any other argument is rendered the
+ * way SLF4J would render it and masked with the configured rules; it is replaced only if the
+ * rules changed something. Throwables are left alone.
+ *
+ * @author zhanglei
+ */
+public final class ArgumentMasker {
+
+  private ArgumentMasker() {
+  }
+
+  /**
+   * Masks the arguments.
+   *
+   * @param args the event argument array
+   * @param masker rules applied to arguments without {@link Sensitive} fields
+   * @return {@code args} itself if no argument had to be rewritten, a masked copy otherwise
+   */
+  public static Object[] mask(Object[] args, Masker masker) {
+    if (args == null) {
+      return null;
+    }
+    Object[] masked = args;
+    for (int i = 0; i < args.length; i++) {
+      Object replacement = mask(args[i], masker);
+      if (replacement != args[i]) {
+        if (masked == args) {
+          masked = args.clone();
+        }
+        masked[i] = replacement;
+      }
+    }
+    return masked;
+  }
+
+  private static Object mask(Object arg, Masker masker) {
+    if (arg == null || arg instanceof Throwable) {
+      return arg;
+    }
+    TypeMasker typeMasker = TypeMasker.forType(arg.getClass());
+    if (typeMasker.isSensitive()) {
+      return typeMasker.render(arg);
+    }
+    if (masker.isEmpty()) {
+      return arg;
+    }
+    String rendered;
+    try {
+      rendered = render(arg);
+    } catch (RuntimeException e) {
+      // let the formatter report the broken toString()
+      return arg; // $COVERAGE-IGNORE$
+    }
+    String masked = masker.mask(rendered);
+    return masked.equals(rendered) ? arg : masked;
+  }
+
+  private static String render(Object arg) {
+    if (!arg.getClass().isArray()) {
+      return arg.toString();
+    }
+    if (arg instanceof Object[]) {
+      return Arrays.deepToString((Object[]) arg);
+    } else if (arg instanceof long[]) {
+      return Arrays.toString((long[]) arg);
+    } else if (arg instanceof int[]) {
+      return Arrays.toString((int[]) arg);
+    } else if (arg instanceof char[]) {
+      return Arrays.toString((char[]) arg);
+    } else if (arg instanceof byte[]) {
+      return Arrays.toString((byte[]) arg);
+    } else if (arg instanceof short[]) {
+      return Arrays.toString((short[]) arg);
+    } else if (arg instanceof double[]) {
+      return Arrays.toString((double[]) arg);
+    } else if (arg instanceof float[]) {
+      return Arrays.toString((float[]) arg);
+    } else {
+      return Arrays.toString((boolean[]) arg);
+    }
+  }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.sensitive;
+
+/**
+ * {@link CharSequence} view of a message that allows only a fixed number of {@link #charAt(int)}
+ * calls.
+ *
+ * <p>{@link java.util.regex.Matcher} reads its input exclusively through {@code charAt}, so the
+ * number of calls is a good measure of the work a regex does, backtracking included. Once the
+ * budget is spent every further read throws {@link BudgetExceededException} and the match is
+ * abandoned. The budget covers all {@code find()} calls of one message.
+ *
+ * @author zhanglei
+ */
+final class BoundedCharSequence implements CharSequence {
+
+  private final String text;
+  private long remaining;
+
+  BoundedCharSequence(String text, long budget) {
+    this.text = text;
+    this.remaining = budget;
+  }
+
+  @Override
+  public int length() {
+    return text.length();
+  }
+
+  @Override
+  public char charAt(int index) {
+    if (--remaining < 0) {
+      throw BudgetExceededException.INSTANCE;
+    }
+    return text.charAt(index);
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    // used for group extraction and appendReplacement, not for matching
+    return text.subSequence(start, end);
+  }
+
+  @Override
+  public String toString() {
+    return text;
+  }
+
+  /**
+   * Shared, stackless signal; it never leaves {@link RegexMasker}.
+   */
+  static final class BudgetExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    static final BudgetExceededException INSTANCE = new BudgetExceededException();
+
+    private BudgetExceededException() {
+      super("regex step budget exceeded", null, false, false);
+    }
+  }
+}
@@ -0,0 +1,205 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.sensitive;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.spring.beet.logging.JsonKeyReplacement;
+
+/**
+ * Masks the values of configured keys in JSON embedded in log messages, e.g.
+ * {@code {"mobile":"18610099300"}} becomes {@code {"mobile":"****"}}.
+ *
+ * <p>The message is tokenized in one forward pass: free text is skipped with {@link
+ * String#indexOf(int, int)} up to the next <code>'{'</code>, inside an object strings are skipped
+ * as a whole, and a string followed by {@code ':'} is a key that is compared in place against the
+ * configured keys. No DOM and no substrings are built, and the output buffer is only allocated
+ * once a value is actually masked, so the cost stays linear in the message length. String,
+ * number and boolean values are replaced by the quoted replacement; {@code null}, objects and
+ * arrays are kept (keys inside nested objects are still masked). JSON that is itself escaped
+ * inside a JSON string is not looked into.
+ *
+ * @author zhanglei
+ */
+public final class JsonKeyMasker implements Masker {
+
+  private static final JsonKeyMasker EMPTY = new JsonKeyMasker(new String[0][], "", false);
+
+  private final String[][] keysByLength;
+  private final String replacement;
+  private final boolean ignoreCase;
+
+  private JsonKeyMasker(String[][] keysByLength, String replacement, boolean ignoreCase) {
+    this.keysByLength = keysByLength;
+    this.replacement = replacement;
+    this.ignoreCase = ignoreCase;
+  }
+
+  public static JsonKeyMasker compile(JsonKeyReplacement config) {
+    if (config == null || config.getKeys() == null || config.getKeys().isEmpty()) {
+      return EMPTY;
+    }
+    int maxLength = 0;
+    for (String key : config.getKeys()) {
+      maxLength = Math.max(maxLength, key.length());
+    }
+    List<List<String>> grouped = new ArrayList<>();
+    for (int i = 0; i <= maxLength; i++) {
+      grouped.add(new ArrayList<>());
+    }
+    for (String key : config.getKeys()) {
+      if (!key.isEmpty()) {
+        grouped.get(key.length()).add(key);
+      }
+    }
+    String[][] keysByLength = new String[maxLength + 1][];
+    for (int i = 0; i <= maxLength; i++) {
+      keysByLength[i] = grouped.get(i).toArray(new String[0]);
+    }
+    String replacement = config.getReplacement() == null ? "" : config.getReplacement();
+    return new JsonKeyMasker(keysByLength, replacement, config.isIgnoreCase());
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return keysByLength.length == 0;
+  }
+
+  @Override
+  public String mask(String text) {
+    if (isEmpty()) {
+      return text;
+    }
+    int len = text.length();
+    StringBuilder out = null;
+    int last = 0;
+    int i = text.indexOf('{');
+    while (i >= 0 && i < len) {
+      int depth = 0;
+      while (i < len) {
+        char c = text.charAt(i);
+        if (c == '"') {
+          int end = stringEnd(text, i);
+          if (end < 0) {
+            i = len;
+            break;
+          }
+          int colon = skipWhitespace(text, end + 1);
+          if (colon < len && text.charAt(colon) == ':' && isSensitiveKey(text, i + 1, end)) {
+            int valueStart = skipWhitespace(text, colon + 1);
+            int valueEnd = scalarEnd(text, valueStart);
+            if (valueEnd > valueStart) {
+              if (out == null) {
+                out = new StringBuilder(len + 16);
+              }
+              out.append(text, last, valueStart).append('"').append(replacement).append('"');
+              last = valueEnd;
+              i = valueEnd;
+            } else {
+              i = valueStart;
+            }
+          } else {
+            i = end + 1;
+          }
+          continue;
+        }
+        if (c == '{' || c == '[') {
+          depth++;
+        } else if ((c == '}' || c == ']') && --depth == 0) {
+          i++;
+          break;
+        }
+        i++;
+      }
+      if (i >= len) {
+        break;
+      }
+      i = text.indexOf('{', i);
+    }
+    if (out == null) {
+      return text;
+    }
+    return out.append(text, last, len).toString();
+  }
+
+  private boolean isSensitiveKey(String text, int from, int to) {
+    int length = to - from;
+    if (length >= keysByLength.length) {
+      return false;
+    }
+    for (String key : keysByLength[length]) {
+      if (text.regionMatches(ignoreCase, from, key, 0, length)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the index of the quote closing the string opened at {@code quote}, or {@code -1}.
+   */
+  private static int stringEnd(String text, int quote) {
+    int end = text.indexOf('"', quote + 1);
+    while (end >= 0) {
+      int backslashes = 0;
+      for (int j = end - 1; j > quote && text.charAt(j) == '\\'; j--) {
+        backslashes++;
+      }
+      if (backslashes % 2 == 0) {
+        return end;
+      }
+      end = text.indexOf('"', end + 1);
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the exclusive end of a string, number or boolean value starting at {@code start}, or
+   * {@code start} itself for {@code null}, objects, arrays and malformed input.
+   */
+  private static int scalarEnd(String text, int start) {
+    int len = text.length();
+    if (start >= len) {
+      return start;
+    }
+    char c = text.charAt(start);
+    if (c == '"') {
+      int end = stringEnd(text, start);
+      return end < 0 ? start : end + 1;
+    }
+    if (c == '{' || c == '[' || c == ',' || c == '}' || c == ']'
+        || text.startsWith("null", start)) {
+      return start;
+    }
+    int end = start;
+    while (end < len) {
+      char v = text.charAt(end);
+      if (v == ',' || v == '}' || v == ']' || Character.isWhitespace(v)) {
+        break;
+      }
+      end++;
+    }
+    return end;
+  }
+
+  private static int skipWhitespace(String text, int from) {
+    int i = from;
+    while (i < text.length() && Character.isWhitespace(text.charAt(i))) {
+      i++;
+    }
+    return i;
+  }
+}
@@ -0,0 +1,34 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.sensitive;
+
+/**
+ * A compiled masking rule set.
+ *
+ * @author zhanglei
+ */
+public interface Masker {
+
+  /**
+   * Masks the text.
+   *
+   * @param text the text to mask, never {@code null}
+   * @return the masked text, or {@code text} itself when nothing was masked
+   */
+  String mask(String text);
+
+  boolean isEmpty();
+}
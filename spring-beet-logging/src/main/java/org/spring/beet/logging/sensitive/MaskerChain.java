@@ -0,0 +1,63 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.sensitive;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Applies several {@link Masker}s one after the other.
+ *
+ * @author zhanglei
+ */
+public final class MaskerChain implements Masker {
+
+  private final Masker[] maskers;
+
+  private MaskerChain(Masker[] maskers) {
+    this.maskers = maskers;
+  }
+
+  /**
+   * Chains the non-empty maskers in the given order.
+   */
+  public static Masker of(Masker... maskers) {
+    List<Masker> effective = new ArrayList<>();
+    for (Masker masker : maskers) {
+      if (!masker.isEmpty()) {
+        effective.add(masker);
+      }
+    }
+    if (effective.size() == 1) {
+      return effective.get(0);
+    }
+    return new MaskerChain(effective.toArray(new Masker[0]));
+  }
+
+  @Override
+  public String mask(String text) {
+    String result = text;
+    for (Masker masker : maskers) {
+      result = masker.mask(result);
+    }
+    return result;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return maskers.length == 0;
+  }
+}
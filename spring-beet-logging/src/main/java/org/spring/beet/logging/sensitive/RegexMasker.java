@@ -0,0 +1,423 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.sensitive;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import lombok.extern.slf4j.Slf4j;
+import org.spring.beet.logging.BudgetExceededAction;
+import org.spring.beet.logging.RegexReplacement;
+import org.spring.beet.logging.sensitive.BoundedCharSequence.BudgetExceededException;
+
+/**
+ * Compiled form of the {@code logging.sensitive[n]} rules.
+ *
+ * <p>Rules are applied in index order with exactly the semantics of chained {@link
+ * String#replaceAll(String, String)} calls: each rule sees the output of the rules before it.
+ * They are compiled once and, whenever possible, merged into a single alternation so a message
+ * without anything to mask is scanned only once no matter how many rules are configured; only a
+ * message matched by the alternation is then masked rule by rule. Rules using backreferences or
+ * named groups cannot be merged safely and run as a stage of their own.
+ *
+ * <p>Each rule carries a {@link RegexPrefilter}; a rule whose prefilter rejects the message is
+ * not executed at all, {@link #getStatistics()} tells how often that happened.
+ *
+ * <p>A rule with {@code max-steps} is guarded: it always runs as a stage of its own, against a
+ * {@link BoundedCharSequence}, and gives up once the regex has read {@code max-steps} characters
+ * of a message. Depending on {@code on-budget-exceeded} the whole message is then masked
+ * (default) or the rule is skipped for that message. A catastrophically backtracking rule thus
+ * costs at most its budget per message.
+ *
+ * <p>{@link #mask(String)} returns the very same {@code String} instance when no rule matches.
+ *
+ * @author zhanglei
+ */
+@Slf4j
+public final class RegexMasker implements Masker {
+
+  private static final RegexMasker EMPTY = new RegexMasker(new Stage[0],
+      Collections.emptyList());
+
+  private final Stage[] stages;
+  private final List<RuleStatistics> statistics;
+
+  private RegexMasker(Stage[] stages, List<RuleStatistics> statistics) {
+    this.stages = stages;
+    this.statistics = Collections.unmodifiableList(statistics);
+  }
+
+  public static RegexMasker empty() {
+    return EMPTY;
+  }
+
+  /**
+   * Compiles the rules in ascending index order.
+   *
+   * @param rules rules keyed by their {@code logging.sensitive[n]} index
+   * @return the compiled masker
+   * @throws IllegalArgumentException if a regex or a replacement is invalid
+   */
+  public static RegexMasker compile(Map<Integer, RegexReplacement> rules) {
+    if (rules == null || rules.isEmpty()) {
+      return EMPTY;
+    }
+    List<Stage> stages = new ArrayList<>();
+    List<CompiledRule> pending = new ArrayList<>();
+    List<RuleStatistics> statistics = new ArrayList<>();
+    for (Map.Entry<Integer, RegexReplacement> entry : new TreeMap<>(rules).entrySet()) {
+      CompiledRule rule = CompiledRule.of(entry.getKey(), entry.getValue());
+      statistics.add(rule.statistics);
+      if (rule.combinable) {
+        pending.add(rule);
+      } else {
+        flush(pending, stages);
+        stages.add(rule.maxSteps > 0 ? new GuardedRuleStage(rule) : new SingleRuleStage(rule));
+      }
+    }
+    flush(pending, stages);
+    return new RegexMasker(stages.toArray(new Stage[0]), statistics);
+  }
+
+  private static void flush(List<CompiledRule> pending, List<Stage> stages) {
+    if (pending.size() == 1) {
+      stages.add(new SingleRuleStage(pending.get(0)));
+    } else if (pending.size() > 1) {
+      stages.add(new CombinedStage(pending));
+    }
+    pending.clear();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return stages.length == 0;
+  }
+
+  /**
+   * Per-rule prefilter and budget counters, in rule index order.
+   */
+  public List<RuleStatistics> getStatistics() {
+    return statistics;
+  }
+
+  /**
+   * Masks the message with all rules.
+   *
+   * @param msg the formatted message
+   * @return the masked message, or {@code msg} itself when nothing matched
+   */
+  @Override
+  public String mask(String msg) {
+    String result = msg;
+    for (Stage stage : stages) {
+      result = stage.apply(result);
+    }
+    return result;
+  }
+
+  private interface Stage {
+
+    String apply(String msg);
+  }
+
+  /**
+   * A single rule, executed exactly like {@link String#replaceAll(String, String)} but with a
+   * precompiled pattern.
+   */
+  private static final class SingleRuleStage implements Stage {
+
+    private final CompiledRule rule;
+
+    SingleRuleStage(CompiledRule rule) {
+      this.rule = rule;
+    }
+
+    @Override
+    public String apply(String msg) {
+      if (!rule.admits(msg)) {
+        return msg;
+      }
+      return replaceAll(rule, msg, msg);
+    }
+  }
+
+  private static String replaceAll(CompiledRule rule, String msg, CharSequence input) {
+    Matcher matcher = rule.pattern.matcher(input);
+    if (!matcher.find()) {
+      return msg;
+    }
+    StringBuffer sb = new StringBuffer(msg.length() + 16);
+    do {
+      matcher.appendReplacement(sb, rule.replacement);
+    } while (matcher.find());
+    matcher.appendTail(sb);
+    return sb.toString();
+  }
+
+  /**
+   * A single rule running within its step budget. Copying the unmatched text to the result reads
+   * every character once more, so the message length is added to the budget.
+   */
+  private static final class GuardedRuleStage implements Stage {
+
+    private final CompiledRule rule;
+
+    GuardedRuleStage(CompiledRule rule) {
+      this.rule = rule;
+    }
+
+    @Override
+    public String apply(String msg) {
+      if (!rule.admits(msg)) {
+        return msg;
+      }
+      try {
+        return replaceAll(rule, msg, new BoundedCharSequence(msg, rule.maxSteps + msg.length()));
+      } catch (BudgetExceededException e) {
+        return rule.budgetExceeded(msg);
+      }
+    }
+  }
+
+  /**
+   * Several rules merged into {@code (rule0)|(rule1)|...}, which finds out in a single scan
+   * whether any of them matches. Only then are the rules applied one by one, since a rule may
+   * overlap the match of another one or match its replacement. Rules rejected by their prefilter
+   * are left out, the alternation for each such subset is compiled on first use.
+   */
+  private static final class CombinedStage implements Stage {
+
+    private static final int MAX_CACHED_SUBSETS = 64;
+
+    private final CompiledRule[] rules;
+    private final long allRules;
+    private final Pattern all;
+    private final ConcurrentMap<Long, Pattern> subsets = new ConcurrentHashMap<>();
+
+    CombinedStage(List<CompiledRule> rules) {
+      this.rules = rules.toArray(new CompiledRule[0]);
+      this.all = combine(this.rules, -1L);
+      this.allRules = this.rules.length >= Long.SIZE ? -1L : (1L << this.rules.length) - 1;
+    }
+
+    @Override
+    public String apply(String msg) {
+      long candidates = 0;
+      for (int i = 0; i < Math.min(rules.length, Long.SIZE); i++) {
+        if (rules[i].admits(msg)) {
+          candidates |= 1L << i;
+        }
+      }
+      // rules past the first 64 have no bit of their own and are always candidates
+      boolean none = candidates == 0 && rules.length <= Long.SIZE;
+      if (none || !combination(candidates).matcher(msg).find()) {
+        return msg;
+      }
+      String result = msg;
+      for (int i = 0; i < rules.length; i++) {
+        CompiledRule rule = rules[i];
+        // an earlier replacement may have produced text the prefilter was looking for
+        boolean candidate = i >= Long.SIZE || (candidates & (1L << i)) != 0;
+        if (candidate || rule.prefilter.mayMatch(result)) {
+          result = replaceAll(rule, result, result);
+        }
+      }
+      return result;
+    }
+
+    private Pattern combination(long candidates) {
+      if (candidates == allRules || rules.length > Long.SIZE) {
+        return all;
+      }
+      Pattern combination = subsets.get(candidates);
+      if (combination == null) {
+        combination = combine(rules, candidates);
+        if (subsets.size() < MAX_CACHED_SUBSETS) {
+          Pattern cached = subsets.putIfAbsent(candidates, combination);
+          if (cached != null) {
+            combination = cached;
+          }
+        }
+      }
+      return combination;
+    }
+
+    private static Pattern combine(CompiledRule[] rules, long selected) {
+      StringBuilder regex = new StringBuilder();
+      for (int i = 0; i < rules.length; i++) {
+        if (i < Long.SIZE && (selected & (1L << i)) == 0) {
+          continue;
+        }
+        if (regex.length() > 0) {
+          regex.append('|');
+        }
+        regex.append("(?:").append(rules[i].regex).append(')');
+      }
+      return Pattern.compile(regex.toString());
+    }
+  }
+
+  /**
+   * Checks a replacement string against the syntax of {@link
+   * Matcher#appendReplacement(StringBuffer, String)}, so an invalid one fails at compile time
+   * instead of on the first log event.
+   */
+  private static void checkReplacement(String replacement, int groupCount) {
+    int i = 0;
+    while (i < replacement.length()) {
+      char c = replacement.charAt(i++);
+      if (c == '\\') {
+        if (i == replacement.length()) {
+          throw new IllegalArgumentException("character to be escaped is missing");
+        }
+        i++;
+      } else if (c == '$') {
+        if (i == replacement.length() || !isDigit(replacement.charAt(i))) {
+          throw new IllegalArgumentException("Illegal group reference in: " + replacement);
+        }
+        int ref = replacement.charAt(i++) - '0';
+        while (i < replacement.length() && isDigit(replacement.charAt(i))) {
+          int next = ref * 10 + (replacement.charAt(i) - '0');
+          if (next > groupCount) {
+            break;
+          }
+          ref = next;
+          i++;
+        }
+        if (ref > groupCount) {
+          throw new IllegalArgumentException("No group " + ref + " in: " + replacement);
+        }
+      }
+    }
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static final class CompiledRule {
+
+    private final String regex;
+    private final String replacement;
+    private final Pattern pattern;
+    private final int groupCount;
+    private final boolean combinable;
+    private final RegexPrefilter prefilter;
+    private final RuleStatistics statistics;
+    private final long maxSteps;
+    private final BudgetExceededAction onBudgetExceeded;
+    private final String maskedMessage;
+    private final AtomicBoolean warned = new AtomicBoolean();
+
+    private CompiledRule(int index, String regex, String replacement, Pattern pattern,
+        long maxSteps, BudgetExceededAction onBudgetExceeded) {
+      this.regex = regex;
+      this.replacement = replacement;
+      this.pattern = pattern;
+      this.groupCount = pattern.matcher("").groupCount();
+      this.maxSteps = maxSteps;
+      this.onBudgetExceeded = onBudgetExceeded;
+      this.maskedMessage = "****** (logging.sensitive[" + index + "] exceeded its step budget)";
+      this.combinable = maxSteps == 0 && !usesGroupNames(regex) && !usesBackReferences(regex)
+          && replacement.indexOf("${") < 0;
+      this.prefilter = RegexPrefilter.analyze(regex);
+      this.statistics = new RuleStatistics(index, regex, prefilter);
+    }
+
+    boolean admits(String msg) {
+      if (prefilter.mayMatch(msg)) {
+        statistics.evaluated.increment();
+        return true;
+      }
+      statistics.skipped.increment();
+      return false;
+    }
+
+    String budgetExceeded(String msg) {
+      statistics.budgetExceeded.increment();
+      if (warned.compareAndSet(false, true)) {
+        log.warn("logging.sensitive[{}] exceeded its budget of {} steps, the rule is {}: {}",
+            statistics.getIndex(), maxSteps,
+            onBudgetExceeded == BudgetExceededAction.SKIP_RULE ? "skipped"
+                : "replaced by masking the whole message", regex);
+      }
+      return onBudgetExceeded == BudgetExceededAction.SKIP_RULE ? msg : maskedMessage;
+    }
+
+    static CompiledRule of(Integer index, RegexReplacement regexReplacement) {
+      if (regexReplacement == null || regexReplacement.getRegex() == null) {
+        throw new IllegalArgumentException("logging.sensitive[" + index + "].regex is missing");
+      }
+      String replacement = regexReplacement.getReplacement() == null ? ""
+          : regexReplacement.getReplacement();
+      Long maxSteps = regexReplacement.getMaxSteps();
+      if (maxSteps != null && maxSteps <= 0) {
+        throw new IllegalArgumentException(
+            "logging.sensitive[" + index + "].max-steps must be positive");
+      }
+      BudgetExceededAction onBudgetExceeded = regexReplacement.getOnBudgetExceeded() == null
+          ? BudgetExceededAction.MASK_MESSAGE : regexReplacement.getOnBudgetExceeded();
+      CompiledRule rule = new CompiledRule(index, regexReplacement.getRegex(), replacement,
+          Pattern.compile(regexReplacement.getRegex()), maxSteps == null ? 0 : maxSteps,
+          onBudgetExceeded);
+      if (replacement.indexOf("${") < 0) {
+        // validate the replacement eagerly instead of failing on the first log event
+        checkReplacement(replacement, rule.groupCount);
+      }
+      return rule;
+    }
+
+    private static boolean usesGroupNames(String regex) {
+      int i = regex.indexOf("(?<");
+      while (i >= 0) {
+        if (i + 3 < regex.length() && regex.charAt(i + 3) != '=' && regex.charAt(i + 3) != '!'
+            && !isEscaped(regex, i)) {
+          return true;
+        }
+        i = regex.indexOf("(?<", i + 1);
+      }
+      return false;
+    }
+
+    private static boolean usesBackReferences(String regex) {
+      for (int i = 0; i < regex.length() - 1; i++) {
+        if (regex.charAt(i) == '\\') {
+          char next = regex.charAt(i + 1);
+          if ((next >= '1' && next <= '9') || next == 'k') {
+            return true;
+          }
+          i++;
+        }
+      }
+      return false;
+    }
+
+    private static boolean isEscaped(String regex, int index) {
+      int backslashes = 0;
+      for (int i = index - 1; i >= 0 && regex.charAt(i) == '\\'; i--) {
+        backslashes++;
+      }
+      return (backslashes & 1) != 0;
+    }
+  }
+}
@@ -0,0 +1,394 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.sensitive;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cheap necessary condition of a sensitive regex, derived once from the regex source.
+ *
+ * <p>The analysis is conservative: it only extracts facts every match must satisfy, namely the
+ * longest literal every match contains and the longest run of consecutive ASCII digits every
+ * match contains (for {@code (\d{3})\d{4}(\d{4})} that is 11). A message failing {@link
+ * #mayMatch(String)} cannot match the regex, so the regex does not need to run at all. Anything
+ * the analysis does not understand (top-level alternation, inline flags, ...) yields a filter
+ * that accepts every message.
+ *
+ * @author zhanglei
+ */
+public final class RegexPrefilter {
+
+  private static final RegexPrefilter ACCEPT_ALL = new RegexPrefilter(null, 0);
+
+  private static final int UNBOUNDED = Integer.MAX_VALUE;
+
+  private final String requiredLiteral;
+  private final int minDigitRun;
+
+  private RegexPrefilter(String requiredLiteral, int minDigitRun) {
+    this.requiredLiteral = requiredLiteral;
+    this.minDigitRun = minDigitRun;
+  }
+
+  public static RegexPrefilter analyze(String regex) {
+    if (regex.contains("(?") && hasInlineFlags(regex)) {
+      return ACCEPT_ALL;
+    }
+    List<Atom> atoms = new ArrayList<>();
+    try {
+      if (!new Parser(regex).parseSequence(atoms, false)) {
+        return ACCEPT_ALL;
+      }
+    } catch (RuntimeException e) {
+      return ACCEPT_ALL; // $COVERAGE-IGNORE$
+    }
+    String literal = longestLiteral(atoms);
+    int digits = longestDigitRun(atoms);
+    if (literal == null && digits == 0) {
+      return ACCEPT_ALL;
+    }
+    return new RegexPrefilter(literal, digits);
+  }
+
+  public String getRequiredLiteral() {
+    return requiredLiteral;
+  }
+
+  public int getMinDigitRun() {
+    return minDigitRun;
+  }
+
+  public boolean isAcceptAll() {
+    return requiredLiteral == null && minDigitRun == 0;
+  }
+
+  /**
+   * Returns {@code false} only if the message cannot contain a match.
+   */
+  public boolean mayMatch(String msg) {
+    if (requiredLiteral != null && msg.indexOf(requiredLiteral) < 0) {
+      return false;
+    }
+    return minDigitRun == 0 || hasDigitRun(msg, minDigitRun);
+  }
+
+  /**
+   * Looks for {@code n} consecutive ASCII digits. Each probe checks the last character of a
+   * window first, so on digit-free text the loop advances {@code n} characters per comparison.
+   */
+  static boolean hasDigitRun(String msg, int n) {
+    int len = msg.length();
+    int end = n - 1;
+    while (end < len) {
+      int k = end;
+      while (k > end - n && isDigit(msg.charAt(k))) {
+        k--;
+      }
+      if (k == end - n) {
+        return true;
+      }
+      end = k + n;
+    }
+    return false;
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static boolean hasInlineFlags(String regex) {
+    for (int i = regex.indexOf("(?"); i >= 0; i = regex.indexOf("(?", i + 1)) {
+      if (i + 2 < regex.length()) {
+        char c = regex.charAt(i + 2);
+        if (Character.isLetter(c) || c == '-') {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static String longestLiteral(List<Atom> atoms) {
+    String longest = null;
+    StringBuilder current = new StringBuilder();
+    for (Atom atom : atoms) {
+      if (atom.kind == Kind.LITERAL && atom.min >= 1) {
+        for (int i = 0; i < atom.min; i++) {
+          current.append(atom.literal);
+        }
+        if (atom.max == atom.min) {
+          continue;
+        }
+      }
+      longest = longer(longest, current);
+      current.setLength(0);
+    }
+    return longer(longest, current);
+  }
+
+  private static String longer(String longest, StringBuilder current) {
+    if (current.length() > 0 && (longest == null || current.length() > longest.length())) {
+      return current.toString();
+    }
+    return longest;
+  }
+
+  private static int longestDigitRun(List<Atom> atoms) {
+    int longest = 0;
+    int run = 0;
+    for (Atom atom : atoms) {
+      boolean digit = atom.kind == Kind.DIGIT
+          || (atom.kind == Kind.LITERAL && isDigit(atom.literal));
+      if (digit) {
+        run += atom.min;
+      } else {
+        longest = Math.max(longest, run);
+        run = 0;
+      }
+    }
+    return Math.max(longest, run);
+  }
+
+  private enum Kind {
+    LITERAL, DIGIT, OTHER, BARRIER
+  }
+
+  private static final class Atom {
+
+    private final Kind kind;
+    private final char literal;
+    private int min = 1;
+    private int max = 1;
+
+    private Atom(Kind kind, char literal) {
+      this.kind = kind;
+      this.literal = literal;
+    }
+
+    static Atom of(Kind kind) {
+      return new Atom(kind, '\0');
+    }
+
+    static Atom literal(char c) {
+      return new Atom(Kind.LITERAL, c);
+    }
+  }
+
+  /**
+   * Flattens the regex into a sequence of single-character atoms. Groups without alternation are
+   * inlined, everything that may or may not consume input becomes a barrier.
+   */
+  private static final class Parser {
+
+    private final String regex;
+    private int pos;
+
+    Parser(String regex) {
+      this.regex = regex;
+    }
+
+    /**
+     * Parses up to the end of the current group.
+     *
+     * @return {@code false} if the sequence contains an alternation
+     */
+    boolean parseSequence(List<Atom> atoms, boolean inGroup) {
+      while (pos < regex.length()) {
+        char c = regex.charAt(pos);
+        if (c == ')') {
+          if (inGroup) {
+            return true;
+          }
+          throw new IllegalStateException("unbalanced group");
+        }
+        if (c == '|') {
+          return false;
+        }
+        if (c == '(') {
+          parseGroup(atoms);
+          continue;
+        }
+        Atom atom = parseAtom();
+        applyQuantifier(atom);
+        atoms.add(atom);
+      }
+      return !inGroup;
+    }
+
+    private void parseGroup(List<Atom> atoms) {
+      int open = pos++;
+      boolean lookaround = false;
+      if (regex.startsWith("?:", pos)) {
+        pos += 2;
+      } else if (regex.startsWith("?=", pos) || regex.startsWith("?!", pos)) {
+        pos += 2;
+        lookaround = true;
+      } else if (regex.startsWith("?<=", pos) || regex.startsWith("?<!", pos)) {
+        pos += 3;
+        lookaround = true;
+      } else if (regex.startsWith("?<", pos)) {
+        pos = regex.indexOf('>', pos) + 1;
+      } else if (regex.startsWith("?>", pos)) {
+        pos += 2;
+      }
+      List<Atom> inner = new ArrayList<>();
+      boolean sequence = parseSequence(inner, true);
+      if (!sequence) {
+        pos = closingParen(open) + 1;
+        inner.clear();
+      } else {
+        pos++;
+      }
+      Atom quantifier = Atom.of(Kind.BARRIER);
+      applyQuantifier(quantifier);
+      if (lookaround || !sequence || quantifier.min == 0) {
+        atoms.add(Atom.of(Kind.BARRIER));
+        return;
+      }
+      atoms.addAll(inner);
+      if (quantifier.max != 1) {
+        atoms.add(Atom.of(Kind.BARRIER));
+      }
+    }
+
+    private int closingParen(int open) {
+      int depth = 0;
+      boolean inClass = false;
+      for (int i = open; i < regex.length(); i++) {
+        char c = regex.charAt(i);
+        if (c == '\\') {
+          i++;
+        } else if (inClass) {
+          inClass = c != ']';
+        } else if (c == '[') {
+          inClass = true;
+        } else if (c == '(') {
+          depth++;
+        } else if (c == ')' && --depth == 0) {
+          return i;
+        }
+      }
+      throw new IllegalStateException("unbalanced group");
+    }
+
+    private Atom parseAtom() {
+      char c = regex.charAt(pos++);
+      switch (c) {
+        case '\\':
+          return parseEscape();
+        case '[':
+          return parseClass();
+        case '.':
+          return Atom.of(Kind.OTHER);
+        case '^':
+        case '$':
+          return Atom.of(Kind.BARRIER);
+        default:
+          return Atom.literal(c);
+      }
+    }
+
+    private Atom parseEscape() {
+      char c = regex.charAt(pos++);
+      switch (c) {
+        case 'd':
+          return Atom.of(Kind.DIGIT);
+        case 't':
+          return Atom.literal('\t');
+        case 'n':
+          return Atom.literal('\n');
+        case 'r':
+          return Atom.literal('\r');
+        case 'f':
+          return Atom.literal('\f');
+        case 'Q':
+        case 'E':
+        case 'x':
+        case 'u':
+        case 'c':
+        case 'p':
+        case 'P':
+        case 'N':
+        case 'k':
+        case '0':
+          // quoting, code points and properties are rare in masking rules, give up on them
+          throw new IllegalStateException("escape \\" + c + " is not analysed");
+        default:
+          if (Character.isLetterOrDigit(c)) {
+            // classes, anchors, backreferences, unicode and octal escapes
+            return Atom.of(Character.isUpperCase(c) || Character.isLowerCase(c) ? Kind.OTHER
+                : Kind.BARRIER);
+          }
+          return Atom.literal(c);
+      }
+    }
+
+    private Atom parseClass() {
+      int start = pos;
+      boolean escaped = false;
+      while (true) {
+        char c = regex.charAt(pos++);
+        if (escaped) {
+          escaped = false;
+        } else if (c == '\\') {
+          escaped = true;
+        } else if (c == '[') {
+          throw new IllegalStateException("nested classes are not analysed");
+        } else if (c == ']' && pos - 1 > start) {
+          break;
+        }
+      }
+      String body = regex.substring(start, pos - 1);
+      if ("0-9".equals(body) || "\\d".equals(body)) {
+        return Atom.of(Kind.DIGIT);
+      }
+      return Atom.of(Kind.OTHER);
+    }
+
+    private void applyQuantifier(Atom atom) {
+      if (pos >= regex.length()) {
+        return;
+      }
+      char c = regex.charAt(pos);
+      if (c == '?') {
+        atom.min = 0;
+        atom.max = 1;
+      } else if (c == '*') {
+        atom.min = 0;
+        atom.max = UNBOUNDED;
+      } else if (c == '+') {
+        atom.max = UNBOUNDED;
+      } else if (c == '{') {
+        int close = regex.indexOf('}', pos);
+        String[] bounds = regex.substring(pos + 1, close).split(",", -1);
+        atom.min = Integer.parseInt(bounds[0].trim());
+        if (bounds.length == 1) {
+          atom.max = atom.min;
+        } else {
+          atom.max = bounds[1].trim().isEmpty() ? UNBOUNDED : Integer.parseInt(bounds[1].trim());
+        }
+        pos = close;
+      } else {
+        return;
+      }
+      pos++;
+      if (pos < regex.length() && (regex.charAt(pos) == '?' || regex.charAt(pos) == '+')) {
+        pos++;
+      }
+    }
+  }
+}
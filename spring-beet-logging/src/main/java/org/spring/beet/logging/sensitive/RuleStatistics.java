@@ -0,0 +1,72 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.sensitive;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of a single {@code logging.sensitive[n]} rule.
+ *
+ * @author zhanglei
+ */
+public final class RuleStatistics {
+
+  private final int index;
+  private final String regex;
+  private final RegexPrefilter prefilter;
+  final LongAdder skipped = new LongAdder();
+  final LongAdder evaluated = new LongAdder();
+  final LongAdder budgetExceeded = new LongAdder();
+
+  RuleStatistics(int index, String regex, RegexPrefilter prefilter) {
+    this.index = index;
+    this.regex = regex;
+    this.prefilter = prefilter;
+  }
+
+  public int getIndex() {
+    return index;
+  }
+
+  public String getRegex() {
+    return regex;
+  }
+
+  public RegexPrefilter getPrefilter() {
+    return prefilter;
+  }
+
+  /**
+   * Messages the prefilter rejected, the regex did not run for them.
+   */
+  public long getSkipped() {
+    return skipped.sum();
+  }
+
+  /**
+   * Messages the prefilter let through to the regex.
+   */
+  public long getEvaluated() {
+    return evaluated.sum();
+  }
+
+  /**
+   * Messages a guarded rule gave up on because its regex ran out of steps.
+   */
+  public long getBudgetExceeded() {
+    return budgetExceeded.sum();
+  }
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.sensitive;
+
+import org.spring.beet.logging.LoggingSensitiveProperties;
+import org.spring.beet.logging.SensitiveMode;
+
+/**
+ * Immutable snapshot of the compiled sensitive configuration.
+ *
+ * <p>The snapshot in use is published through a single volatile reference, so the logging hot
+ * path costs one volatile read and a new rule set replaces the old one atomically, without a
+ * restart.
+ *
+ * @author zhanglei
+ */
+public final class SensitiveRules {
+
+  public static final SensitiveRules NONE = new SensitiveRules(SensitiveMode.MESSAGE,
+      RegexMasker.empty(), RegexMasker.empty());
+
+  private static volatile SensitiveRules current = NONE;
+
+  private final SensitiveMode mode;
+  private final RegexMasker regexMasker;
+  private final Masker masker;
+
+  private SensitiveRules(SensitiveMode mode, RegexMasker regexMasker, Masker masker) {
+    this.mode = mode;
+    this.regexMasker = regexMasker;
+    this.masker = masker;
+  }
+
+  /**
+   * Compiles the properties into a snapshot.
+   *
+   * @throws IllegalArgumentException if a rule is invalid
+   */
+  public static SensitiveRules compile(LoggingSensitiveProperties properties) {
+    if (properties == null) {
+      return NONE;
+    }
+    RegexMasker regexMasker = RegexMasker.compile(properties.getSensitive());
+    Masker masker = MaskerChain.of(JsonKeyMasker.compile(properties.getSensitiveJson()),
+        regexMasker);
+    SensitiveMode mode = properties.getSensitiveMode() == null ? SensitiveMode.MESSAGE
+        : properties.getSensitiveMode();
+    return new SensitiveRules(mode, regexMasker, masker);
+  }
+
+  public static SensitiveRules current() {
+    return current;
+  }
+
+  public static void publish(SensitiveRules rules) {
+    current = rules == null ? NONE : rules;
+  }
+
+  public SensitiveMode getMode() {
+    return mode;
+  }
+
+  public Masker getMasker() {
+    return masker;
+  }
+
+  public RegexMasker getRegexMasker() {
+    return regexMasker;
+  }
+
+  /**
+   * Whether there is nothing to mask at all.
+   */
+  public boolean isDisabled() {
+    return mode == SensitiveMode.MESSAGE && masker.isEmpty();
+  }
+}
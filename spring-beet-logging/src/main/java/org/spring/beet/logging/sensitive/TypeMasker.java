@@ -0,0 +1,183 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.sensitive;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Renders an object whose class declares {@link Sensitive} fields in the
+ * {@code SimpleName(field=value, ...)} form of Lombok's {@code @ToString}, with the sensitive
+ * values masked. The field layout is resolved once per class and cached in a {@link ClassValue}.
+ *
+ * @author zhanglei
+ */
+final class TypeMasker {
+
+  private static final TypeMasker NONE = new TypeMasker(null, new FieldMasker[0]);
+
+  private static final int MAX_DEPTH = 4;
+
+  private static final ClassValue<TypeMasker> CACHE = new ClassValue<TypeMasker>() {
+    @Override
+    protected TypeMasker computeValue(Class<?> type) {
+      return TypeMasker.inspect(type);
+    }
+  };
+
+  private final String typeName;
+  private final FieldMasker[] fields;
+
+  private TypeMasker(String typeName, FieldMasker[] fields) {
+    this.typeName = typeName;
+    this.fields = fields;
+  }
+
+  static TypeMasker forType(Class<?> type) {
+    return CACHE.get(type);
+  }
+
+  boolean isSensitive() {
+    return this != NONE;
+  }
+
+  String render(Object value) {
+    StringBuilder sb = new StringBuilder(64);
+    render(value, sb, 0);
+    return sb.toString();
+  }
+
+  private void render(Object value, StringBuilder sb, int depth) {
+    sb.append(typeName).append('(');
+    for (int i = 0; i < fields.length; i++) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      fields[i].render(value, sb, depth);
+    }
+    sb.append(')');
+  }
+
+  private static TypeMasker inspect(Class<?> type) {
+    if (type.isArray() || type.isPrimitive() || type.isEnum() || type.isInterface()
+        || isPlatformType(type)) {
+      return NONE;
+    }
+    List<FieldMasker> fields = new ArrayList<>();
+    boolean sensitive = false;
+    for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+      List<FieldMasker> declared = new ArrayList<>();
+      for (Field field : c.getDeclaredFields()) {
+        if (Modifier.isStatic(field.getModifiers()) || field.isSynthetic()) {
+          continue;
+        }
+        try {
+          field.setAccessible(true);
+        } catch (RuntimeException e) {
+          return NONE; // $COVERAGE-IGNORE$
+        }
+        Sensitive annotation = field.getAnnotation(Sensitive.class);
+        sensitive |= annotation != null || declaresSensitiveFields(field.getType());
+        declared.add(new FieldMasker(field, annotation));
+      }
+      // superclass fields first, like Lombok's callSuper
+      fields.addAll(0, declared);
+    }
+    if (!sensitive) {
+      return NONE;
+    }
+    return new TypeMasker(type.getSimpleName(), fields.toArray(new FieldMasker[0]));
+  }
+
+  /**
+   * Whether a field type declares {@link Sensitive} fields itself, so that objects holding
+   * annotated DTOs are masked too. Deliberately not recursive to stay clear of cyclic types.
+   */
+  private static boolean declaresSensitiveFields(Class<?> type) {
+    if (type.isPrimitive() || type.isArray() || isPlatformType(type)) {
+      return false;
+    }
+    for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+      for (Field field : c.getDeclaredFields()) {
+        if (field.isAnnotationPresent(Sensitive.class)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static boolean isPlatformType(Class<?> type) {
+    String name = type.getName();
+    return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("sun.")
+        || name.startsWith("jdk.");
+  }
+
+  static String mask(String value, Sensitive sensitive) {
+    int length = value.length();
+    int prefix = Math.max(sensitive.prefix(), 0);
+    int suffix = Math.max(sensitive.suffix(), 0);
+    StringBuilder sb = new StringBuilder(length);
+    if (prefix + suffix >= length) {
+      prefix = 0;
+      suffix = 0;
+    }
+    sb.append(value, 0, prefix);
+    for (int i = prefix; i < length - suffix; i++) {
+      sb.append(sensitive.mask());
+    }
+    sb.append(value, length - suffix, length);
+    return sb.toString();
+  }
+
+  private static final class FieldMasker {
+
+    private final Field field;
+    private final String prefix;
+    private final Sensitive sensitive;
+
+    FieldMasker(Field field, Sensitive sensitive) {
+      this.field = field;
+      this.prefix = field.getName() + "=";
+      this.sensitive = sensitive;
+    }
+
+    void render(Object owner, StringBuilder sb, int depth) {
+      sb.append(prefix);
+      Object value;
+      try {
+        value = field.get(owner);
+      } catch (IllegalAccessException e) {
+        sb.append("[FAILED]"); // $COVERAGE-IGNORE$
+        return; // $COVERAGE-IGNORE$
+      }
+      if (value == null) {
+        sb.append("null");
+      } else if (sensitive != null) {
+        sb.append(mask(String.valueOf(value), sensitive));
+      } else {
+        TypeMasker nested = forType(value.getClass());
+        if (nested.isSensitive() && depth < MAX_DEPTH) {
+          nested.render(value, sb, depth + 1);
+        } else {
+          sb.append(value);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.tail;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import java.util.ArrayDeque;
+
+/**
+ * Ring buffer of the below-threshold events of one request.
+ *
+ * @author zhanglei
+ */
+final class RequestBuffer {
+
+  static final int ADDED = 1;
+  static final int REPLACED_OLDEST = 0;
+  static final int PASS_THROUGH = -1;
+  static final int CLOSED = -2;
+
+  private final String requestId;
+  private final long createdAt;
+  private final int capacity;
+  private final ArrayDeque<Entry> entries;
+  private boolean flushed;
+  private boolean closed;
+
+  RequestBuffer(String requestId, int capacity) {
+    this.requestId = requestId;
+    this.createdAt = System.nanoTime();
+    this.capacity = capacity;
+    this.entries = new ArrayDeque<>(Math.min(capacity, 16));
+  }
+
+  String getRequestId() {
+    return requestId;
+  }
+
+  long getCreatedAt() {
+    return createdAt;
+  }
+
+  /**
+   * Adds an event, dropping the oldest one when the buffer is full.
+   *
+   * @return {@link #ADDED}, {@link #REPLACED_OLDEST}, {@link #PASS_THROUGH} once the buffer was
+   *     flushed or {@link #CLOSED} once the request completed
+   */
+  synchronized int add(Logger logger, LoggingEvent event) {
+    if (closed) {
+      return CLOSED;
+    } else if (flushed) {
+      return PASS_THROUGH;
+    }
+    int result = ADDED;
+    if (entries.size() == capacity) {
+      entries.pollFirst();
+      result = REPLACED_OLDEST;
+    }
+    entries.addLast(new Entry(logger, event));
+    return result;
+  }
+
+  synchronized boolean isFlushed() {
+    return flushed;
+  }
+
+  /**
+   * Hands out the buffered events and switches the buffer to pass-through.
+   */
+  synchronized Entry[] flush() {
+    flushed = true;
+    return drain();
+  }
+
+  /**
+   * Hands out the buffered events and stops accepting new ones.
+   */
+  synchronized Entry[] close() {
+    closed = true;
+    return drain();
+  }
+
+  private Entry[] drain() {
+    Entry[] drained = entries.toArray(new Entry[0]);
+    entries.clear();
+    return drained;
+  }
+
+  static final class Entry {
+
+    final Logger logger;
+    final LoggingEvent event;
+
+    Entry(Logger logger, LoggingEvent event) {
+      this.logger = logger;
+      this.event = event;
+    }
+  }
+}
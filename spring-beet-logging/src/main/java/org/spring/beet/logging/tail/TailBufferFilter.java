@@ -0,0 +1,75 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.tail;
+
+import java.io.IOException;
+import java.util.UUID;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.slf4j.MDC;
+import org.springframework.util.StringUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Tracks every HTTP request in the {@link TailBufferTurboFilter} of the logback context.
+ *
+ * <p>The buffer of a request is keyed on an id generated by the turbo filter and put into its
+ * MDC key for the duration of the request. The client controlled {@code X-Request-Id} header is
+ * only a label: unless something upstream already set it, the MDC key {@code requestId} is taken
+ * from the header or a random UUID. A request fails if it throws or ends with a 5xx status.
+ *
+ * @author zhanglei
+ */
+public class TailBufferFilter extends OncePerRequestFilter {
+
+  public static final String REQUEST_ID_HEADER = "X-Request-Id";
+  public static final String REQUEST_ID_MDC_KEY = "requestId";
+
+  @Override
+  protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+      FilterChain filterChain) throws ServletException, IOException {
+    // looked up per request, logback may have been reconfigured since the last one
+    TailBufferTurboFilter tailBuffer = TailBufferTurboFilter.lookup();
+    if (tailBuffer == null) {
+      filterChain.doFilter(request, response);
+      return;
+    }
+    boolean putRequestId = MDC.get(REQUEST_ID_MDC_KEY) == null;
+    if (putRequestId) {
+      String requestId = request.getHeader(REQUEST_ID_HEADER);
+      if (!StringUtils.hasText(requestId)) {
+        requestId = UUID.randomUUID().toString();
+      }
+      MDC.put(REQUEST_ID_MDC_KEY, requestId);
+    }
+    String mdcKey = tailBuffer.getMdcKey();
+    String bufferId = tailBuffer.open();
+    MDC.put(mdcKey, bufferId);
+    boolean failed = true;
+    try {
+      filterChain.doFilter(request, response);
+      failed = response.getStatus() >= HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+    } finally {
+      tailBuffer.complete(bufferId, failed);
+      MDC.remove(mdcKey);
+      if (putRequestId) {
+        MDC.remove(REQUEST_ID_MDC_KEY);
+      }
+    }
+  }
+}
@@ -0,0 +1,304 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.tail;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.ILoggerFactory;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.slf4j.Marker;
+import org.spring.beet.logging.tail.RequestBuffer.Entry;
+
+/**
+ * Keeps the below-threshold events of a request and writes them only if the request fails.
+ *
+ * <p>A request is tracked between {@link #open(String)} and {@link #complete(String, boolean)},
+ * its id is read from the MDC key {@code mdcKey}. {@link #open()} generates the id, so a request
+ * never shares its buffer with another one that happens to carry the same label. While a request is tracked, events which the
+ * logger's effective level would discard but which are at least {@code bufferLevel} are captured
+ * into a ring buffer of {@code maxEventsPerRequest} events instead. An event of {@code
+ * flushLevel} or above, or completing the request as failed, writes the buffered events to the
+ * appenders of their loggers; from then on further below-threshold events of that request are
+ * written immediately. A request completing successfully discards its buffer.
+ *
+ * <p>At most {@code maxBufferedEvents} events are buffered over all requests. Beyond that the
+ * oldest request is evicted: its buffer is dropped and the request is no longer tracked.
+ *
+ * <p>Events are captured without caller data unless {@code includeCallerData} is set, so
+ * patterns should use {@code %cls} rather than {@code %C}, {@code %M} or {@code %L}.
+ *
+ * @author zhanglei
+ */
+public class TailBufferTurboFilter extends TurboFilter {
+
+  public static final String DEFAULT_MDC_KEY = "tailBufferId";
+
+  private String mdcKey = DEFAULT_MDC_KEY;
+  private Level bufferLevel = Level.DEBUG;
+  private Level flushLevel = Level.ERROR;
+  private int maxEventsPerRequest = 256;
+  private int maxBufferedEvents = 10_000;
+  private boolean includeCallerData;
+
+  private final ConcurrentMap<String, RequestBuffer> buffers = new ConcurrentHashMap<>();
+  private final AtomicLong sequence = new AtomicLong();
+  private final AtomicInteger bufferedEvents = new AtomicInteger();
+  private final LongAdder flushedEvents = new LongAdder();
+  private final LongAdder discardedEvents = new LongAdder();
+  private final LongAdder evictedEvents = new LongAdder();
+  private final LongAdder evictedRequests = new LongAdder();
+
+  /**
+   * Finds the filter installed in the logback context, {@code null} if there is none.
+   */
+  public static TailBufferTurboFilter lookup() {
+    ILoggerFactory factory = LoggerFactory.getILoggerFactory();
+    if (!(factory instanceof LoggerContext)) {
+      return null;
+    }
+    for (TurboFilter filter : ((LoggerContext) factory).getTurboFilterList()) {
+      if (filter instanceof TailBufferTurboFilter && filter.isStarted()) {
+        return (TailBufferTurboFilter) filter;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public void start() {
+    if (maxEventsPerRequest <= 0 || maxBufferedEvents <= 0) {
+      addError("maxEventsPerRequest and maxBufferedEvents must be positive");
+      return;
+    }
+    super.start();
+  }
+
+  @Override
+  public void stop() {
+    super.stop();
+    for (String requestId : buffers.keySet()) {
+      complete(requestId, false);
+    }
+  }
+
+  @Override
+  public FilterReply decide(Marker marker, Logger logger, Level level, String format,
+      Object[] params, Throwable t) {
+    if (!isStarted() || buffers.isEmpty()) {
+      return FilterReply.NEUTRAL;
+    }
+    String requestId = MDC.get(mdcKey);
+    RequestBuffer buffer = requestId == null ? null : buffers.get(requestId);
+    if (buffer == null) {
+      return FilterReply.NEUTRAL;
+    }
+    boolean enabledCheck = format == null && params == null && t == null;
+    if (level.isGreaterOrEqual(flushLevel)) {
+      if (!enabledCheck) {
+        flush(buffer);
+      }
+      return FilterReply.NEUTRAL;
+    }
+    if (level.isGreaterOrEqual(logger.getEffectiveLevel())
+        || !level.isGreaterOrEqual(bufferLevel)) {
+      return FilterReply.NEUTRAL;
+    }
+    if (enabledCheck) {
+      // is<Level>Enabled(): let the caller build the event, it is captured on the next call
+      return FilterReply.ACCEPT;
+    }
+    capture(buffer, marker, logger, level, format, params, t);
+    return FilterReply.DENY;
+  }
+
+  private void capture(RequestBuffer buffer, Marker marker, Logger logger, Level level,
+      String format, Object[] params, Throwable t) {
+    LoggingEvent event = new LoggingEvent(Logger.FQCN, logger, level, format, t, params);
+    event.setMarker(marker);
+    if (includeCallerData) {
+      event.getCallerData();
+    }
+    event.prepareForDeferredProcessing();
+    switch (buffer.add(logger, event)) {
+      case RequestBuffer.ADDED:
+        if (bufferedEvents.incrementAndGet() > maxBufferedEvents) {
+          evictOldest();
+        }
+        break;
+      case RequestBuffer.REPLACED_OLDEST:
+        evictedEvents.increment();
+        break;
+      case RequestBuffer.PASS_THROUGH:
+        logger.callAppenders(event);
+        break;
+      default:
+        discardedEvents.increment();
+        break;
+    }
+  }
+
+  /**
+   * Starts tracking a request under a newly generated id, which the caller puts into the MDC.
+   *
+   * @return the id to pass to {@link #complete(String, boolean)}
+   */
+  public String open() {
+    String requestId = "tail-" + sequence.incrementAndGet();
+    open(requestId);
+    return requestId;
+  }
+
+  /**
+   * Starts tracking a request.
+   */
+  public void open(String requestId) {
+    buffers.putIfAbsent(requestId, new RequestBuffer(requestId, maxEventsPerRequest));
+  }
+
+  /**
+   * Stops tracking a request.
+   *
+   * @param failed write the buffered events instead of discarding them
+   */
+  public void complete(String requestId, boolean failed) {
+    RequestBuffer buffer = buffers.remove(requestId);
+    if (buffer == null) {
+      return;
+    }
+    Entry[] entries = buffer.close();
+    bufferedEvents.addAndGet(-entries.length);
+    if (failed) {
+      write(entries);
+    } else {
+      discardedEvents.add(entries.length);
+    }
+  }
+
+  private void flush(RequestBuffer buffer) {
+    Entry[] entries = buffer.flush();
+    if (entries.length > 0) {
+      bufferedEvents.addAndGet(-entries.length);
+      write(entries);
+    }
+  }
+
+  private void write(Entry[] entries) {
+    flushedEvents.add(entries.length);
+    for (Entry entry : entries) {
+      entry.logger.callAppenders(entry.event);
+    }
+  }
+
+  /**
+   * Drops the buffer of the oldest request. The scan is linear in the number of tracked requests
+   * but frees a whole buffer, and it only runs while the global limit is exceeded.
+   */
+  private void evictOldest() {
+    RequestBuffer oldest = null;
+    for (RequestBuffer buffer : buffers.values()) {
+      if (!buffer.isFlushed()
+          && (oldest == null || buffer.getCreatedAt() - oldest.getCreatedAt() < 0)) {
+        oldest = buffer;
+      }
+    }
+    if (oldest != null && buffers.remove(oldest.getRequestId(), oldest)) {
+      Entry[] entries = oldest.close();
+      bufferedEvents.addAndGet(-entries.length);
+      evictedEvents.add(entries.length);
+      evictedRequests.increment();
+    }
+  }
+
+  public String getMdcKey() {
+    return mdcKey;
+  }
+
+  public void setMdcKey(String mdcKey) {
+    this.mdcKey = mdcKey;
+  }
+
+  public void setBufferLevel(String bufferLevel) {
+    this.bufferLevel = Level.toLevel(bufferLevel, Level.DEBUG);
+  }
+
+  public void setFlushLevel(String flushLevel) {
+    this.flushLevel = Level.toLevel(flushLevel, Level.ERROR);
+  }
+
+  public void setMaxEventsPerRequest(int maxEventsPerRequest) {
+    this.maxEventsPerRequest = maxEventsPerRequest;
+  }
+
+  public void setMaxBufferedEvents(int maxBufferedEvents) {
+    this.maxBufferedEvents = maxBufferedEvents;
+  }
+
+  public void setIncludeCallerData(boolean includeCallerData) {
+    this.includeCallerData = includeCallerData;
+  }
+
+  /**
+   * Number of requests currently tracked.
+   */
+  public int getTrackedRequests() {
+    return buffers.size();
+  }
+
+  /**
+   * Number of events currently buffered over all requests.
+   */
+  public int getBufferedEvents() {
+    return bufferedEvents.get();
+  }
+
+  /**
+   * Buffered events written because their request failed.
+   */
+  public long getFlushedEvents() {
+    return flushedEvents.sum();
+  }
+
+  /**
+   * Buffered events dropped because their request succeeded.
+   */
+  public long getDiscardedEvents() {
+    return discardedEvents.sum();
+  }
+
+  /**
+   * Buffered events dropped by the per-request or the global limit.
+   */
+  public long getEvictedEvents() {
+    return evictedEvents.sum();
+  }
+
+  /**
+   * Requests whose whole buffer was dropped by the global limit.
+   */
+  public long getEvictedRequests() {
+    return evictedRequests.sum();
+  }
+}
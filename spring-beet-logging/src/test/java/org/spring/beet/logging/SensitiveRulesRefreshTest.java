@@ -0,0 +1,72 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.context.environment.EnvironmentChangeEvent;
+import org.springframework.context.ApplicationContext;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.MapPropertySource;
+
+@Slf4j
+@SpringBootTest(classes = {LoggingAutoConfiguration.class})
+public class SensitiveRulesRefreshTest {
+
+  private static final String SOURCE_NAME = "sensitiveRulesRefreshTest";
+
+  @Autowired
+  ApplicationContext applicationContext;
+
+  @Autowired
+  ConfigurableEnvironment environment;
+
+  @AfterEach
+  public void after() {
+    environment.getPropertySources().remove(SOURCE_NAME);
+    publishChange("logging.sensitive[1].regex");
+  }
+
+  @Test
+  public void testRulesAreRecompiledOnEnvironmentChange() {
+    log.info("password=secret");
+    assertEquals("password=secret", SensitiveAppender.getLastMessage());
+
+    Map<String, Object> properties = new HashMap<>();
+    properties.put("logging.sensitive[1].regex", "(password=)\\S+");
+    properties.put("logging.sensitive[1].replacement", "$1***");
+    environment.getPropertySources().addFirst(new MapPropertySource(SOURCE_NAME, properties));
+    publishChange("logging.sensitive[1].regex");
+
+    log.info("password=secret");
+    assertEquals("password=***", SensitiveAppender.getLastMessage());
+    log.info("18610099300");
+    assertEquals("186****9300", SensitiveAppender.getLastMessage());
+  }
+
+  private void publishChange(String key) {
+    applicationContext.publishEvent(
+        new EnvironmentChangeEvent(applicationContext, Collections.singleton(key)));
+  }
+}
@@ -0,0 +1,40 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.test.context.runner.WebApplicationContextRunner;
+
+public class TailBufferConfigurationTest {
+
+  private final WebApplicationContextRunner contextRunner = new WebApplicationContextRunner()
+      .withConfiguration(AutoConfigurations.of(LoggingAutoConfiguration.class));
+
+  @Test
+  public void testFilterIsRegisteredWithProfile() {
+    contextRunner.withPropertyValues("spring.profiles.active=log-tail-buffer")
+        .run(context -> assertTrue(context.containsBean("tailBufferFilter")));
+  }
+
+  @Test
+  public void testFilterIsNotRegisteredWithoutProfile() {
+    contextRunner.run(context -> assertFalse(context.containsBean("tailBufferFilter")));
+  }
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.async;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.encoder.EchoEncoder;
+import ch.qos.logback.core.util.FileSize;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class NonBlockingConsoleAppenderTest {
+
+  private final LoggerContext context = new LoggerContext();
+  private final StuckChannel channel = new StuckChannel();
+
+  @AfterEach
+  public void tearDown() {
+    channel.release();
+    context.stop();
+  }
+
+  private Logger logger(NonBlockingConsoleAppender appender) {
+    EchoEncoder<ILoggingEvent> encoder = new EchoEncoder<>();
+    encoder.setContext(context);
+    encoder.start();
+    appender.setContext(context);
+    appender.setName("console");
+    appender.setEncoder(encoder);
+    appender.setChannel(channel);
+    appender.start();
+    Logger logger = context.getLogger("console");
+    logger.setLevel(Level.DEBUG);
+    logger.addAppender(appender);
+    return logger;
+  }
+
+  @Test
+  public void testEventsAreWrittenInOrder() {
+    NonBlockingConsoleAppender appender = new NonBlockingConsoleAppender();
+    Logger logger = logger(appender);
+    channel.release();
+    for (int i = 0; i < 1000; i++) {
+      logger.info("event {}", i);
+    }
+    appender.stop();
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      expected.append("[INFO] event ").append(i).append(System.lineSeparator());
+    }
+    assertEquals(expected.toString(), channel.toString());
+    assertEquals(0, appender.getBufferedBytes());
+    assertEquals(0, appender.getDroppedEvents());
+  }
+
+  @Test
+  public void testStuckConsoleNeverBlocksTheCaller() {
+    NonBlockingConsoleAppender appender = new NonBlockingConsoleAppender();
+    appender.setOverflowPolicy("drop");
+    appender.setMaxBufferedSize(new FileSize(1024));
+    Logger logger = logger(appender);
+    assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+      for (int i = 0; i < 10_000; i++) {
+        logger.error("event {}", i);
+      }
+    });
+    assertTrue(appender.getDroppedEvents() > 9_000);
+    assertTrue(appender.getBufferedBytes() <= 1024);
+  }
+
+  @Test
+  public void testDegradeKeepsSevereEventsTruncated() {
+    NonBlockingConsoleAppender appender = new NonBlockingConsoleAppender();
+    appender.setMaxBufferedSize(new FileSize(1000));
+    appender.setDegradedLength(20);
+    Logger logger = logger(appender);
+    for (int i = 0; i < 100; i++) {
+      logger.info("event {}", i);
+    }
+    long dropped = appender.getDroppedEvents();
+    assertTrue(dropped > 0);
+    logger.warn("a rather long warning message");
+    assertEquals(dropped, appender.getDroppedEvents());
+    assertEquals(1, appender.getDegradedEvents());
+
+    channel.release();
+    appender.stop();
+    assertTrue(channel.toString().endsWith("[WARN] a rather long [truncated]"
+        + System.lineSeparator()));
+  }
+
+  @Test
+  public void testTruncateKeepsUtf8Sequences() {
+    byte[] bytes = "中文".getBytes(StandardCharsets.UTF_8);
+    byte[] truncated = NonBlockingConsoleAppender.truncate(bytes, 4);
+    assertArrayEquals(("中 [truncated]" + System.lineSeparator())
+        .getBytes(StandardCharsets.UTF_8), truncated);
+  }
+
+  /**
+   * Blocks every write until released, like a pipe nobody reads.
+   */
+  private static final class StuckChannel implements WritableByteChannel {
+
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    void release() {
+      latch.countDown();
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+      try {
+        latch.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return 0;
+      }
+      int length = src.remaining();
+      synchronized (out) {
+        while (src.hasRemaining()) {
+          out.write(src.get());
+        }
+      }
+      return length;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String toString() {
+      synchronized (out) {
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+      }
+    }
+  }
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.async;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+import ch.qos.logback.core.read.ListAppender;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class RingBufferAppenderTest {
+
+  private final LoggerContext context = new LoggerContext();
+
+  @AfterEach
+  public void tearDown() {
+    context.stop();
+  }
+
+  private Logger logger(RingBufferAppender appender) {
+    appender.setContext(context);
+    appender.setName("async");
+    appender.start();
+    Logger logger = context.getLogger("async");
+    logger.setLevel(Level.DEBUG);
+    logger.addAppender(appender);
+    return logger;
+  }
+
+  @Test
+  public void testEventsReachAttachedAppenderInOrder() {
+    ListAppender<ILoggingEvent> target = new ListAppender<>();
+    target.setContext(context);
+    target.start();
+    RingBufferAppender appender = new RingBufferAppender();
+    appender.setWaitStrategy("blocking");
+    appender.addAppender(target);
+    Logger logger = logger(appender);
+    for (int i = 0; i < 1000; i++) {
+      logger.info("message {}", i);
+    }
+    await().atMost(5, TimeUnit.SECONDS).until(() -> target.list.size() == 1000);
+    for (int i = 0; i < 1000; i++) {
+      assertEquals("message " + i, target.list.get(i).getFormattedMessage());
+    }
+  }
+
+  @Test
+  public void testCallerDataIsTakenBeforeQueueing() {
+    ListAppender<ILoggingEvent> target = new ListAppender<>();
+    target.setContext(context);
+    target.start();
+    RingBufferAppender appender = new RingBufferAppender();
+    appender.setIncludeCallerData(true);
+    appender.addAppender(target);
+    Logger logger = logger(appender);
+    logger.info("message");
+    await().atMost(5, TimeUnit.SECONDS).until(() -> target.list.size() == 1);
+    assertEquals(RingBufferAppenderTest.class.getName(),
+        target.list.get(0).getCallerData()[0].getClassName());
+  }
+
+  @Test
+  public void testLowLevelEventsAreDroppedWhenFull() {
+    CountDownLatch release = new CountDownLatch(1);
+    ListAppender<ILoggingEvent> target = new ListAppender<>();
+    AppenderBase<ILoggingEvent> blocked = new AppenderBase<ILoggingEvent>() {
+      @Override
+      protected void append(ILoggingEvent event) {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        target.doAppend(event);
+      }
+    };
+    blocked.setContext(context);
+    blocked.start();
+    target.setContext(context);
+    target.start();
+    RingBufferAppender appender = new RingBufferAppender();
+    appender.setRingBufferSize(4);
+    appender.setBatchSize(1);
+    appender.addAppender(blocked);
+    Logger logger = logger(appender);
+    logger.info("taken by the worker");
+    await().atMost(5, TimeUnit.SECONDS).until(() -> appender.getQueuedEvents() == 0);
+    for (int i = 0; i < 4; i++) {
+      logger.info("queued {}", i);
+    }
+    logger.debug("dropped");
+    logger.info("dropped");
+    assertEquals(2, appender.getDroppedEvents());
+    release.countDown();
+    logger.warn("waits for a free slot");
+    await().atMost(5, TimeUnit.SECONDS).until(() -> target.list.size() == 6);
+    assertEquals("waits for a free slot", target.list.get(5).getFormattedMessage());
+  }
+}
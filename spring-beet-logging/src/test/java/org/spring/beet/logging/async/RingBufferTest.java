@@ -0,0 +1,91 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.async;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class RingBufferTest {
+
+  @Test
+  public void testCapacityIsRoundedUp() {
+    assertEquals(1, new RingBuffer<Integer>(1).capacity());
+    assertEquals(8, new RingBuffer<Integer>(8).capacity());
+    assertEquals(16, new RingBuffer<Integer>(9).capacity());
+  }
+
+  @Test
+  public void testOfferFailsWhenFull() {
+    RingBuffer<Integer> ringBuffer = new RingBuffer<>(4);
+    for (int i = 0; i < 4; i++) {
+      assertTrue(ringBuffer.offer(i));
+    }
+    assertFalse(ringBuffer.offer(4));
+    Integer[] batch = new Integer[3];
+    assertEquals(3, ringBuffer.drainTo(batch, 3));
+    assertEquals(1, ringBuffer.size());
+    assertTrue(ringBuffer.offer(4));
+    assertEquals(2, ringBuffer.drainTo(batch, 3));
+    assertEquals(3, (int) batch[0]);
+    assertEquals(4, (int) batch[1]);
+    assertTrue(ringBuffer.isEmpty());
+  }
+
+  @Test
+  public void testConcurrentProducers() throws InterruptedException {
+    int producers = 4;
+    int perProducer = 100_000;
+    RingBuffer<Integer> ringBuffer = new RingBuffer<>(1024);
+    List<Thread> threads = new ArrayList<>();
+    for (int p = 0; p < producers; p++) {
+      int base = p * perProducer;
+      Thread thread = new Thread(() -> {
+        for (int i = 0; i < perProducer; i++) {
+          while (!ringBuffer.offer(base + i)) {
+            Thread.yield();
+          }
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    int[] last = new int[producers];
+    Arrays.fill(last, -1);
+    Integer[] batch = new Integer[64];
+    int received = 0;
+    while (received < producers * perProducer) {
+      int count = ringBuffer.drainTo(batch, batch.length);
+      for (int i = 0; i < count; i++) {
+        int producer = batch[i] / perProducer;
+        int sequence = batch[i] % perProducer;
+        // every producer's elements arrive in order and exactly once
+        assertEquals(last[producer] + 1, sequence);
+        last[producer] = sequence;
+      }
+      received += count;
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertTrue(ringBuffer.isEmpty());
+  }
+}
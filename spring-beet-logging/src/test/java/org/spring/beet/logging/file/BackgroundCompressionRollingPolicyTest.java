@@ -0,0 +1,153 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.file;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.rolling.RollingFileAppender;
+import ch.qos.logback.core.rolling.RolloverFailure;
+import ch.qos.logback.core.rolling.SizeAndTimeBasedFNATP;
+import ch.qos.logback.core.util.FileSize;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class BackgroundCompressionRollingPolicyTest {
+
+  private final LoggerContext context = new LoggerContext();
+  private BackgroundCompressionRollingPolicy<ILoggingEvent> policy;
+
+  @TempDir
+  Path dir;
+
+  @BeforeEach
+  public void setUp() {
+    policy = start();
+  }
+
+  private BackgroundCompressionRollingPolicy<ILoggingEvent> start() {
+    RollingFileAppender<ILoggingEvent> parent = new RollingFileAppender<>();
+    parent.setContext(context);
+    parent.setFile(dir.resolve("app.log").toString());
+    SizeAndTimeBasedFNATP<ILoggingEvent> triggeringPolicy = new SizeAndTimeBasedFNATP<>();
+    triggeringPolicy.setContext(context);
+    triggeringPolicy.setMaxFileSize(FileSize.valueOf("1MB"));
+    BackgroundCompressionRollingPolicy<ILoggingEvent> started =
+        new BackgroundCompressionRollingPolicy<>();
+    started.setContext(context);
+    started.setParent(parent);
+    started.setFileNamePattern(dir.resolve("archived/app.log-%d{yyyy-MM-dd}.%i.gz").toString());
+    started.setTimeBasedFileNamingAndTriggeringPolicy(triggeringPolicy);
+    started.start();
+    assertTrue(started.isStarted());
+    return started;
+  }
+
+  @AfterEach
+  public void tearDown() {
+    policy.stop();
+    context.stop();
+  }
+
+  private File archive(String name, String content) throws IOException {
+    Path path = dir.resolve("archived").resolve(name);
+    Files.createDirectories(path.getParent());
+    Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    return path.toFile();
+  }
+
+  private static String gunzip(File file) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (InputStream in = new GZIPInputStream(Files.newInputStream(file.toPath()))) {
+      byte[] buffer = new byte[4096];
+      for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+        out.write(buffer, 0, n);
+      }
+    }
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testCompress() throws IOException {
+    StringBuilder content = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      content.append("[0.0.0.0] 2020-06-01 INFO o.s.b.Foo [main] line ").append(i).append('\n');
+    }
+    File source = archive("app.log-2020-06-01.0", content.toString());
+    File target = new File(source.getPath() + ".gz");
+    assertTrue(policy.compress(source, target));
+    assertFalse(source.exists());
+    assertEquals(content.toString(), gunzip(target));
+    assertEquals(1, policy.getCompressedFiles());
+    assertTrue(policy.getCompressionRatio() < 0.2);
+    assertEquals(0, policy.getCompressionBacklog());
+  }
+
+  @Test
+  public void testFreeDiskSpaceDeletesOnlyArchives() throws IOException {
+    policy.setMinFreeSpace(new FileSize(Long.MAX_VALUE));
+    File compressed = archive("app.log-2020-06-01.0.gz", "a");
+    File uncompressed = archive("app.log-2020-06-01.1", "b");
+    File other = archive("other.log", "c");
+    policy.freeDiskSpace(compressed.getParentFile());
+    assertTrue(other.exists());
+    assertFalse(uncompressed.exists());
+    assertFalse(compressed.exists());
+    assertEquals(2, policy.getDeletedFiles());
+  }
+
+  @Test
+  public void testRestartNeverOverwritesLeftovers() throws IOException {
+    // a previous run was stopped before compressing its last archive
+    archive("app.log-2020-06-01.0.gz", "");
+    File leftover = archive("app.log-2020-06-01.1", "previous run");
+    File compressed = new File(leftover.getPath() + ".gz");
+    policy.stop();
+    policy = start();
+    await().atMost(5, TimeUnit.SECONDS).until(() -> compressed.exists() && !leftover.exists());
+    assertEquals("previous run", gunzip(compressed));
+
+    // the %i counter only saw the .0.gz archive and hands out index 1 again
+    Path active = dir.resolve("app.log");
+    Files.write(active, "current run".getBytes(StandardCharsets.UTF_8));
+    assertThrows(RolloverFailure.class,
+        () -> policy.rollover(active.toString(), leftover.getPath() + ".gz"));
+    assertEquals("previous run", gunzip(compressed));
+    assertTrue(Files.exists(active));
+
+    File next = dir.resolve("archived/app.log-2020-06-01.2.gz").toFile();
+    policy.rollover(active.toString(), next.getPath());
+    await().atMost(5, TimeUnit.SECONDS).until(next::exists);
+    assertEquals("current run", gunzip(next));
+    assertFalse(Files.exists(active));
+  }
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.file;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.core.util.FileSize;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class MappedFileAppenderTest {
+
+  private final LoggerContext context = new LoggerContext();
+
+  @TempDir
+  Path dir;
+
+  @AfterEach
+  public void tearDown() {
+    context.stop();
+  }
+
+  private MappedFileAppender appender(long segmentSize) {
+    PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+    encoder.setContext(context);
+    encoder.setPattern("%m%n");
+    encoder.start();
+    MappedFileAppender appender = new MappedFileAppender();
+    appender.setContext(context);
+    appender.setName("mapped");
+    appender.setEncoder(encoder);
+    appender.setFile(dir.resolve("app.log").toString());
+    appender.setFileNamePattern(dir.resolve("archived/app.log-%d{yyyy-MM-dd}.%i").toString());
+    appender.setSegmentSize(new FileSize(segmentSize));
+    appender.start();
+    assertTrue(appender.isStarted());
+    return appender;
+  }
+
+  private String read(String file) throws IOException {
+    return new String(Files.readAllBytes(dir.resolve(file)), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testFileIsTruncatedToItsContentOnStop() throws IOException {
+    MappedFileAppender appender = appender(1024);
+    Logger logger = context.getLogger("mapped");
+    logger.addAppender(appender);
+    logger.info("hello");
+    logger.info("world");
+    appender.stop();
+    assertEquals("hello\nworld\n", read("app.log"));
+  }
+
+  @Test
+  public void testRestartContinuesAfterLastEvent() throws IOException {
+    // a crashed run leaves the segment at its mapped size, zero filled after the last event
+    byte[] crashed = new byte[1024];
+    byte[] first = "first\n".getBytes(StandardCharsets.UTF_8);
+    System.arraycopy(first, 0, crashed, 0, first.length);
+    Files.write(dir.resolve("app.log"), crashed);
+    MappedFileAppender appender = appender(1024);
+    Logger logger = context.getLogger("mapped");
+    logger.addAppender(appender);
+    logger.info("second");
+    appender.stop();
+    assertEquals("first\nsecond\n", read("app.log"));
+  }
+
+  @Test
+  public void testFullSegmentIsArchived() throws IOException {
+    MappedFileAppender appender = appender(16);
+    Logger logger = context.getLogger("mapped");
+    logger.addAppender(appender);
+    logger.info("0123456789");
+    logger.info("abcdefghij");
+    logger.info("ABCDEFGHIJ");
+    appender.stop();
+    String today = new SimpleDateFormat("yyyy-MM-dd").format(new Date());
+    assertEquals("0123456789\n", read("archived/app.log-" + today + ".0"));
+    assertEquals("abcdefghij\n", read("archived/app.log-" + today + ".1"));
+    assertEquals("ABCDEFGHIJ\n", read("app.log"));
+    assertTrue(new File(dir.toFile(), "archived").isDirectory());
+  }
+
+  @Test
+  public void testEventLargerThanSegmentIsWritten() throws IOException {
+    MappedFileAppender appender = appender(16);
+    Logger logger = context.getLogger("mapped");
+    logger.addAppender(appender);
+    logger.info("0123456789abcdefghij");
+    logger.info("ABCDEFGHIJabcdefghij0123456789");
+    appender.stop();
+    String today = new SimpleDateFormat("yyyy-MM-dd").format(new Date());
+    assertEquals("0123456789abcdefghij\n", read("archived/app.log-" + today + ".0"));
+    assertEquals("ABCDEFGHIJabcdefghij0123456789\n", read("app.log"));
+  }
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.filter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+import ch.qos.logback.core.read.ListAppender;
+import ch.qos.logback.core.util.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class DeduplicationTurboFilterTest {
+
+  private LoggerContext context;
+  private ListAppender<ILoggingEvent> appender;
+  private DeduplicationTurboFilter filter;
+  private Logger logger;
+
+  @BeforeEach
+  public void setUp() {
+    context = new LoggerContext();
+    appender = new ListAppender<>();
+    appender.setContext(context);
+    appender.start();
+    Logger root = context.getLogger(Logger.ROOT_LOGGER_NAME);
+    root.setLevel(Level.INFO);
+    root.addAppender(appender);
+    filter = new DeduplicationTurboFilter();
+    filter.setContext(context);
+    filter.setWindow(Duration.buildByMinutes(10));
+    filter.start();
+    context.addTurboFilter(filter);
+    logger = context.getLogger("dedup");
+  }
+
+  @AfterEach
+  public void tearDown() {
+    context.stop();
+  }
+
+  private static IllegalStateException failure(String message) {
+    return new IllegalStateException(message);
+  }
+
+  @Test
+  public void testRepeatsAreCollapsed() {
+    String fingerprint = null;
+    for (int i = 0; i < 100; i++) {
+      IllegalStateException failure = failure("id " + i);
+      fingerprint = StackFingerprint.of(failure);
+      logger.error("call {} failed", i, failure);
+      logger.info("polling");
+    }
+    logger.error("call {} failed", 100, new IllegalArgumentException("other stack"));
+    assertEquals(3, appender.list.size());
+    assertNotNull(appender.list.get(0).getThrowableProxy());
+    assertEquals(198, filter.getDroppedEvents());
+    assertEquals(3, filter.getTrackedEntries());
+
+    filter.stop();
+    assertEquals(5, appender.list.size());
+    Map<String, Level> records = appender.list.subList(3, 5).stream()
+        .collect(Collectors.toMap(ILoggingEvent::getFormattedMessage, ILoggingEvent::getLevel));
+    assertEquals(Level.ERROR,
+        records.get("[call {} failed] repeated 99 times, fingerprint " + fingerprint));
+    assertEquals(Level.INFO, records.get("[polling] repeated 99 times, fingerprint -"));
+  }
+
+  @Test
+  public void testDifferentStacksAreNotCollapsed() {
+    IllegalStateException first = failure("first");
+    IllegalArgumentException other = new IllegalArgumentException("other stack");
+    // the throwable as the last argument and as the throwable parameter
+    logger.error("call {} failed", 1, first);
+    logger.error("call {} failed", 2, first);
+    logger.error("call {} failed", 3, other);
+    logger.error("call failed", first);
+    logger.error("call failed", first);
+    logger.error("call failed", other);
+    assertEquals(4, appender.list.size());
+    assertEquals(2, filter.getDroppedEvents());
+    assertEquals(4, filter.getTrackedEntries());
+
+    filter.stop();
+    Set<String> records = appender.list.subList(4, 6).stream()
+        .map(ILoggingEvent::getFormattedMessage).collect(Collectors.toSet());
+    String fingerprint = StackFingerprint.of(first);
+    assertTrue(records.contains("[call {} failed] repeated 1 times, fingerprint " + fingerprint));
+    assertTrue(records.contains("[call failed] repeated 1 times, fingerprint " + fingerprint));
+  }
+
+  @Test
+  public void testEventsBelowTheLoggerLevelAreIgnored() {
+    for (int i = 0; i < 10; i++) {
+      logger.debug("debug {}", i);
+    }
+    assertEquals(0, filter.getTrackedEntries());
+    assertEquals(0, filter.getDroppedEvents());
+  }
+
+  @Test
+  public void testFingerprint() {
+    IllegalStateException[] failures = {failure("a"), failure("b")};
+    IllegalStateException first = failures[0];
+    String fingerprint = StackFingerprint.of(first);
+    assertEquals(8, fingerprint.length());
+    assertEquals(fingerprint, StackFingerprint.of(failures[1]));
+    assertEquals(fingerprint, StackFingerprint.of(new ThrowableProxy(first)));
+    assertNotEquals(fingerprint, StackFingerprint.of(new IllegalStateException("a")));
+    assertNotEquals(fingerprint, StackFingerprint.of(new RuntimeException(first)));
+
+    RuntimeException wrapped = new RuntimeException(first);
+    assertEquals(StackFingerprint.of(wrapped), StackFingerprint.of(new ThrowableProxy(wrapped)));
+  }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.filter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import ch.qos.logback.core.util.Duration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class RateLimitTurboFilterTest {
+
+  private LoggerContext context;
+  private ListAppender<ILoggingEvent> appender;
+  private RateLimitTurboFilter filter;
+  private Logger logger;
+
+  @BeforeEach
+  public void setUp() {
+    context = new LoggerContext();
+    appender = new ListAppender<>();
+    appender.setContext(context);
+    appender.start();
+    Logger root = context.getLogger(Logger.ROOT_LOGGER_NAME);
+    root.setLevel(Level.INFO);
+    root.addAppender(appender);
+    filter = new RateLimitTurboFilter();
+    filter.setContext(context);
+    filter.setWarnRate(0.001);
+    filter.setBurst(3);
+    filter.setSummaryInterval(Duration.buildByMilliseconds(0));
+    logger = context.getLogger("rate");
+  }
+
+  @AfterEach
+  public void tearDown() {
+    context.stop();
+  }
+
+  private void start() {
+    filter.start();
+    context.addTurboFilter(filter);
+  }
+
+  @Test
+  public void testBurstThenSuppressed() {
+    start();
+    for (int i = 0; i < 10; i++) {
+      logger.warn("retry {} failed", i);
+    }
+    logger.warn("another template");
+    assertEquals(4, appender.list.size());
+    assertEquals(7, filter.getSuppressedEvents());
+    assertEquals(2, filter.getTrackedTemplates());
+
+    String summary = filter.summarize();
+    assertTrue(summary.startsWith("rate limit suppressed 7 events in the last "), summary);
+    assertTrue(summary.endsWith(": rate WARN [retry {} failed] x7"), summary);
+    assertNull(filter.summarize());
+  }
+
+  @Test
+  public void testUnlimitedAndDisabledLevels() {
+    filter.setErrorRate(0);
+    start();
+    for (int i = 0; i < 10; i++) {
+      logger.error("boom {}", i);
+      logger.debug("below the logger level {}", i);
+      logger.isWarnEnabled();
+    }
+    assertEquals(10, appender.list.size());
+    assertEquals(0, filter.getSuppressedEvents());
+    assertEquals(0, filter.getTrackedTemplates());
+  }
+
+  @Test
+  public void testTemplatesBeyondTheTableShareOneLimiter() {
+    filter.setMaxTemplates(1);
+    start();
+    for (int i = 0; i < 5; i++) {
+      logger.warn("first");
+      logger.warn("second " + i);
+    }
+    assertEquals(1, filter.getTrackedTemplates());
+    assertEquals(6, appender.list.size());
+    assertTrue(filter.summarize().contains("(other templates) WARN x2"));
+  }
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.json;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import org.junit.jupiter.api.Test;
+
+public class JsonEncoderTest {
+
+  private static String write(String value) {
+    JsonWriter writer = new JsonWriter(4);
+    writer.string(value);
+    return new String(writer.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testEscaping() {
+    assertEquals("\"a\\\"b\\\\c\\n\\t\\u0001\"", write("a\"b\\c\n\t\u0001"));
+    assertEquals("\"中文 é 😀\"", write("中文 é 😀"));
+    assertEquals("\"?\"", write("\ud800"));
+  }
+
+  @Test
+  public void testTimestamp() {
+    JsonWriter writer = new JsonWriter(4);
+    writer.timestamp(1590998400123L).raw(' ').timestamp(1590998400999L).raw(' ')
+        .timestamp(1590998401000L);
+    assertEquals("\"2020-06-01T08:00:00.123Z\" \"2020-06-01T08:00:00.999Z\" "
+        + "\"2020-06-01T08:00:01.000Z\"", new String(writer.toByteArray(), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testEncode() {
+    JsonEncoder encoder = new JsonEncoder();
+    encoder.setHost("10.0.0.1");
+    encoder.start();
+    LoggingEvent event = new LoggingEvent();
+    event.setTimeStamp(1590998400123L);
+    event.setLevel(Level.WARN);
+    event.setLoggerName("org.spring.beet.Foo");
+    event.setThreadName("main");
+    event.setMessage("user {}");
+    event.setArgumentArray(new Object[] {"\"x\""});
+    event.setMDCPropertyMap(Collections.singletonMap("requestId", "r1"));
+    assertEquals("{\"@timestamp\":\"2020-06-01T08:00:00.123Z\",\"host\":\"10.0.0.1\","
+            + "\"level\":\"WARN\",\"logger\":\"org.spring.beet.Foo\",\"thread\":\"main\","
+            + "\"message\":\"user \\\"x\\\"\",\"mdc\":{\"requestId\":\"r1\"}}\n",
+        new String(encoder.encode(event), StandardCharsets.UTF_8));
+
+    event.setThrowableProxy(new ThrowableProxy(new IllegalStateException("boom")));
+    String json = new String(encoder.encode(event), StandardCharsets.UTF_8);
+    assertTrue(json.contains(",\"stack_trace\":\"java.lang.IllegalStateException: boom\\n\\tat "));
+  }
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.OutputStreamAppender;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.spring.beet.logging.metrics.LoggerCosts.Order;
+
+public class LoggerCostsTest {
+
+  @BeforeEach
+  public void setUp() {
+    LoggerCosts.reset();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    LoggerCosts.configure(true, false, 10000, 64);
+    LoggerCosts.reset();
+  }
+
+  private static LoggingEvent event(String logger, String template) {
+    LoggingEvent event = new LoggingEvent();
+    event.setLoggerName(logger);
+    event.setMessage(template);
+    return event;
+  }
+
+  @Test
+  public void testLoggersAreSortedByCost() {
+    for (int i = 0; i < 3; i++) {
+      LoggerCosts.record(event("chatty", "tick {}"), 10);
+    }
+    LoggerCosts.record(event("bulky", "dump {}"), 1000);
+    LoggerCosts.recordFormatting(event("bulky", "dump {}"), 5);
+
+    List<LoggerCost> byBytes = LoggerCosts.top(Order.BYTES, 10);
+    assertEquals("bulky", byBytes.get(0).getLogger());
+    assertEquals(1000, byBytes.get(0).getBytes());
+    assertEquals(1, byBytes.get(0).getSamples());
+    assertEquals(5 * 64, byBytes.get(0).getFormattingNanos());
+    assertEquals("chatty", byBytes.get(1).getLogger());
+    assertEquals(3, byBytes.get(1).getEvents());
+
+    List<LoggerCost> byEvents = LoggerCosts.top(Order.EVENTS, 1);
+    assertEquals(1, byEvents.size());
+    assertEquals("chatty", byEvents.get(0).getLogger());
+    assertTrue(byEvents.get(0).getTemplates().isEmpty());
+  }
+
+  @Test
+  public void testTemplatesAreTrackedOnDemand() {
+    LoggerCosts.configure(true, true, 10000, 1);
+    LoggerCosts.record(event("app", "a {}"), 10);
+    LoggerCosts.record(event("app", "a {}"), 10);
+    LoggerCosts.record(event("app", "b {}"), 30);
+    assertTrue(LoggerCosts.sample());
+
+    LoggerCost app = LoggerCosts.top(Order.BYTES, 10).get(0);
+    assertEquals(3, app.getEvents());
+    assertEquals(50, app.getBytes());
+    List<LoggerCost> templates = app.getTemplates();
+    templates.sort(Order.EVENTS.comparator());
+    assertEquals("a {}", templates.get(0).getTemplate());
+    assertEquals(20, templates.get(0).getBytes());
+    assertEquals("b {}", templates.get(1).getTemplate());
+    assertEquals(3, LoggerCosts.getTrackedEntries());
+  }
+
+  @Test
+  public void testEntriesAreBounded() {
+    LoggerCosts.configure(true, true, 2, 64);
+    LoggerCosts.record(event("a", "x"), 1);
+    LoggerCosts.record(event("b", "y"), 2);
+    LoggerCosts.record(event("c", "z"), 4);
+
+    assertEquals(2, LoggerCosts.getTrackedEntries());
+    List<LoggerCost> costs = LoggerCosts.top(Order.BYTES, 10);
+    assertEquals(2, costs.size());
+    assertEquals(LoggerCosts.OTHER, costs.get(0).getLogger());
+    assertEquals(6, costs.get(0).getBytes());
+    assertEquals("a", costs.get(1).getLogger());
+    assertEquals(1, costs.get(1).getTemplates().size());
+  }
+
+  @Test
+  public void testResetAndDisable() {
+    LoggerCosts.record(event("app", "a"), 10);
+    LoggerCosts.reset();
+    assertTrue(LoggerCosts.top(Order.BYTES, 10).isEmpty());
+
+    LoggerCosts.configure(false, false, 10000, 1);
+    LoggerCosts.record(event("app", "a"), 10);
+    assertFalse(LoggerCosts.sample());
+    assertTrue(LoggerCosts.top(Order.BYTES, 10).isEmpty());
+    assertThrows(IllegalArgumentException.class, () -> LoggerCosts.configure(true, false, 0, 1));
+  }
+
+  @Test
+  public void testStockEncoderIsInstrumented() {
+    LoggerContext context = new LoggerContext();
+    PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+    encoder.setContext(context);
+    encoder.setPattern("%msg%n");
+    encoder.start();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    OutputStreamAppender<ILoggingEvent> appender = new OutputStreamAppender<>();
+    appender.setContext(context);
+    appender.setName("out");
+    appender.setEncoder(encoder);
+    appender.setOutputStream(out);
+    appender.start();
+    Logger logger = context.getLogger("stock");
+    logger.addAppender(appender);
+
+    assertEquals(1, LoggerCostEncoder.instrument(context));
+    assertEquals(0, LoggerCostEncoder.instrument(context));
+    logger.info("hello");
+
+    assertEquals("hello" + System.lineSeparator(), out.toString());
+    LoggerCost cost = LoggerCosts.top(Order.BYTES, 10).get(0);
+    assertEquals("stock", cost.getLogger());
+    assertEquals(out.size(), cost.getBytes());
+    context.stop();
+  }
+}
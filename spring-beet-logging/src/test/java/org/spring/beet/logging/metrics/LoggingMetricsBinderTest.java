@@ -0,0 +1,64 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.spring.beet.logging.async.RingBufferAppender;
+
+public class LoggingMetricsBinderTest {
+
+  @Test
+  public void testStagesAreBoundBeforeAndAfterCreation() {
+    LoggingMetrics.appender("before").record(Level.WARN, 2_000);
+    MeterRegistry registry = new SimpleMeterRegistry();
+    new LoggingMetricsBinder().bindTo(registry);
+    LoggingMetrics.appender("after").record(Level.INFO, 3_000);
+    LoggingMetrics.appender("before").record(Level.WARN, 4_000);
+
+    assertEquals(2, registry.get("logging.events").tag("appender", "before")
+        .tag("level", "WARN").functionCounter().count());
+    assertEquals(1, registry.get("logging.append").tag("appender", "before").timer().count());
+    assertEquals(1, registry.get("logging.events").tag("appender", "after")
+        .tag("level", "INFO").functionCounter().count());
+    assertEquals(1, registry.get("logging.append").tag("appender", "after").timer().count());
+    registry.get("logging.masking").timer();
+  }
+
+  @Test
+  public void testAttachedAppendersAreFound() {
+    ListAppender<ILoggingEvent> list = new ListAppender<>();
+    list.setName("list");
+    RingBufferAppender ring = new RingBufferAppender();
+    ring.setName("ring");
+    ring.addAppender(list);
+    LoggerContext context = new LoggerContext();
+    context.getLogger(Logger.ROOT_LOGGER_NAME).addAppender(ring);
+    context.getLogger("other").addAppender(list);
+
+    Set<?> appenders = LoggingMetricsBinder.appenders(context);
+    assertEquals(2, appenders.size());
+  }
+}
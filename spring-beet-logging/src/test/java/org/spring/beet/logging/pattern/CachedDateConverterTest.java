@@ -0,0 +1,82 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import ch.qos.logback.classic.spi.LoggingEvent;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.TimeZone;
+import org.junit.jupiter.api.Test;
+
+public class CachedDateConverterTest {
+
+  private static final long[] TIMESTAMPS = {1590998400000L, 1590998400001L, 1590998400123L,
+      1590998400999L, 1590998401000L, 1590998401050L, 1590998400500L, -1L, -1001L, 0L,
+      // DST change in Europe/Berlin
+      1603587599999L, 1603587600000L};
+
+  private static CachedDateConverter converter(String... options) {
+    CachedDateConverter converter = new CachedDateConverter();
+    converter.setOptionList(Arrays.asList(options));
+    converter.start();
+    return converter;
+  }
+
+  private static void assertParity(String pattern, TimeZone timeZone, String... options) {
+    CachedDateConverter converter = converter(options);
+    SimpleDateFormat format = new SimpleDateFormat(pattern);
+    format.setTimeZone(timeZone);
+    LoggingEvent event = new LoggingEvent();
+    for (long timestamp : TIMESTAMPS) {
+      event.setTimeStamp(timestamp);
+      assertEquals(format.format(new Date(timestamp)), converter.convert(event),
+          pattern + " " + timestamp);
+    }
+  }
+
+  @Test
+  public void testIso8601() {
+    assertParity("yyyy-MM-dd HH:mm:ss,SSS", TimeZone.getDefault());
+    assertParity("yyyy-MM-dd HH:mm:ss,SSS", TimeZone.getDefault(), "ISO8601");
+  }
+
+  @Test
+  public void testPatternsAndTimeZones() {
+    assertParity("HH:mm:ss.SSS", TimeZone.getTimeZone("UTC"), "HH:mm:ss.SSS", "UTC");
+    assertParity("yyyy-MM-dd'T'HH:mm:ss.SSSXXX", TimeZone.getTimeZone("Europe/Berlin"),
+        "yyyy-MM-dd'T'HH:mm:ss.SSSXXX", "Europe/Berlin");
+    assertParity("yyyy-MM-dd HH:mm:ss", TimeZone.getTimeZone("Asia/Shanghai"),
+        "yyyy-MM-dd HH:mm:ss", "Asia/Shanghai");
+    assertParity("'SSS' ss.S", TimeZone.getDefault(), "'SSS' ss.S");
+    assertParity("ss.SSS SSS", TimeZone.getDefault(), "ss.SSS SSS");
+  }
+
+  @Test
+  public void testMillisIndex() {
+    assertEquals(20, CachedDateConverter.millisIndex("yyyy-MM-dd HH:mm:ss,SSS"));
+    assertEquals(-1, CachedDateConverter.millisIndex("yyyy-MM-dd'SSS'"));
+    assertEquals(-2, CachedDateConverter.millisIndex("ss.SS"));
+    assertEquals(-2, CachedDateConverter.millisIndex("ss.SSS SSS"));
+  }
+
+  @Test
+  public void testInvalidPatternFallsBackToIso8601() {
+    assertParity("yyyy-MM-dd HH:mm:ss,SSS", TimeZone.getDefault(), "yyyy-qq");
+  }
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import ch.qos.logback.classic.spi.LoggingEvent;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+public class ClassNameConverterTest {
+
+  private static String convert(String loggerName, String... options) {
+    ClassNameConverter converter = new ClassNameConverter();
+    converter.setOptionList(Arrays.asList(options));
+    converter.start();
+    LoggingEvent event = new LoggingEvent();
+    event.setLoggerName(loggerName);
+    return converter.convert(event);
+  }
+
+  @Test
+  public void testPrecision() {
+    assertEquals("o.s.b.l.ConversionAdapter",
+        convert("org.spring.beet.logging.ConversionAdapter", "1."));
+    assertEquals("or.sp.be.Foo", convert("org.spring.beet.Foo", "2."));
+    assertEquals("Foo", convert("Foo", "1."));
+  }
+
+  @Test
+  public void testTargetLength() {
+    assertEquals("o.s.beet.Foo", convert("org.spring.beet.Foo", "12"));
+  }
+
+  @Test
+  public void testWithoutOption() {
+    assertEquals("org.spring.beet.Foo", convert("org.spring.beet.Foo"));
+  }
+
+  @Test
+  public void testCallerData() {
+    ClassNameConverter converter = new ClassNameConverter();
+    converter.setOptionList(Arrays.asList("1.", "caller"));
+    converter.start();
+    LoggingEvent event = new LoggingEvent();
+    event.setLoggerName("root");
+    event.setCallerData(new StackTraceElement[] {
+        new StackTraceElement("org.spring.beet.Foo", "bar", "Foo.java", 1)});
+    assertEquals("o.s.b.Foo", converter.convert(event));
+  }
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.pattern.MessageConverter;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+import ch.qos.logback.core.CoreConstants;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+public class CompiledPatternEncoderTest {
+
+  /**
+   * A message converter of its own, which must not be replaced by the masking one.
+   */
+  public static class UpperCaseMessageConverter extends MessageConverter {
+
+    @Override
+    public String convert(ILoggingEvent event) {
+      return super.convert(event).toUpperCase(Locale.ROOT);
+    }
+  }
+
+  private static final String[] PATTERNS = {
+      "[10.0.0.1] %d %p %cls{1.} [%t] %m%n",
+      "%d{ISO8601} %-5level [%thread] %logger{36} - %msg%n%ex{3}",
+      "%X{requestId} %level %cls{36} %C{1.} %.-3t %replace(%m){'\\d', '#'}%n",
+      "中文 %m %nopex%n",
+      "%upper [%-20ex] [%.-10ex{0}]%n"
+  };
+
+  private static LoggerContext context() {
+    LoggerContext context = new LoggerContext();
+    Map<String, String> rules = new HashMap<>();
+    rules.put("cls", ClassNameConverter.class.getName());
+    rules.put("upper", UpperCaseMessageConverter.class.getName());
+    context.putObject(CoreConstants.PATTERN_RULE_REGISTRY, rules);
+    return context;
+  }
+
+  private static LoggingEvent event(Level level, String thread, Throwable throwable) {
+    LoggingEvent event = new LoggingEvent();
+    event.setTimeStamp(1590998400123L);
+    event.setLevel(level);
+    event.setLoggerName("org.spring.beet.logging.pattern.CompiledPatternEncoderTest");
+    event.setThreadName(thread);
+    event.setMessage("user {} logged in from {}");
+    event.setArgumentArray(new Object[] {"张三", 42});
+    event.setMDCPropertyMap(Collections.singletonMap("requestId", "r-1"));
+    event.setCallerData(new StackTraceElement[] {
+        new StackTraceElement("org.spring.beet.Foo", "bar", "Foo.java", 1)});
+    if (throwable != null) {
+      event.setThrowableProxy(new ThrowableProxy(throwable));
+    }
+    return event;
+  }
+
+  @Test
+  public void testSameOutputAsPatternLayoutEncoder() {
+    LoggerContext context = context();
+    LoggingEvent[] events = {event(Level.INFO, "main", null),
+        event(Level.ERROR, "worker-1", new IllegalStateException("boom")),
+        event(Level.TRACE, null, null)};
+    for (String pattern : PATTERNS) {
+      PatternLayoutEncoder expected = new PatternLayoutEncoder();
+      expected.setContext(context);
+      expected.setCharset(StandardCharsets.UTF_8);
+      expected.setPattern(pattern);
+      expected.start();
+      CompiledPatternEncoder encoder = new CompiledPatternEncoder();
+      encoder.setContext(context);
+      encoder.setPattern(pattern);
+      encoder.start();
+      for (LoggingEvent event : events) {
+        assertEquals(new String(expected.encode(event), StandardCharsets.UTF_8),
+            new String(encoder.encode(event), StandardCharsets.UTF_8), pattern);
+      }
+      encoder.stop();
+      expected.stop();
+    }
+  }
+
+  @Test
+  public void testInvalidPatternIsNotStarted() {
+    CompiledPatternEncoder encoder = new CompiledPatternEncoder();
+    encoder.setContext(context());
+    encoder.start();
+    assertFalse(encoder.isStarted());
+
+    encoder.setPattern("%d %(");
+    encoder.start();
+    assertFalse(encoder.isStarted());
+  }
+}
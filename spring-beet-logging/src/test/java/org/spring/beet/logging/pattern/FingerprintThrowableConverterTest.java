@@ -0,0 +1,115 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+import ch.qos.logback.core.CoreConstants;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+import org.spring.beet.logging.filter.StackFingerprint;
+
+public class FingerprintThrowableConverterTest {
+
+  private static FingerprintThrowableConverter converter(String... options) {
+    FingerprintThrowableConverter converter = new FingerprintThrowableConverter();
+    converter.setOptionList(Arrays.asList(options));
+    converter.start();
+    return converter;
+  }
+
+  private static Throwable failure(String message, String... classNames) {
+    Throwable throwable = new IllegalStateException(message);
+    StackTraceElement[] frames = new StackTraceElement[classNames.length];
+    for (int i = 0; i < classNames.length; i++) {
+      frames[i] = new StackTraceElement(classNames[i], "call", "Source.java", i + 1);
+    }
+    throwable.setStackTrace(frames);
+    return throwable;
+  }
+
+  private static LoggingEvent event(Throwable throwable, long timeStamp) {
+    LoggingEvent event = new LoggingEvent();
+    event.setLoggerName("test");
+    event.setTimeStamp(timeStamp);
+    if (throwable != null) {
+      event.setThrowableProxy(new ThrowableProxy(throwable));
+    }
+    return event;
+  }
+
+  @Test
+  public void testFullTraceOncePerInterval() {
+    FingerprintThrowableConverter converter = converter("10 seconds");
+    Throwable first = failure("id 1", "app.Foo", "app.Bar");
+    String fingerprint = StackFingerprint.of(first);
+
+    String full = converter.convert(event(first, 1_000));
+    assertTrue(full.startsWith("exception fingerprint " + fingerprint
+        + CoreConstants.LINE_SEPARATOR + "java.lang.IllegalStateException: id 1"));
+    assertTrue(full.contains("at app.Bar.call(Source.java:2)"));
+
+    assertEquals("exception fingerprint " + fingerprint
+            + " (see earlier) java.lang.IllegalStateException: id 2" + CoreConstants.LINE_SEPARATOR,
+        converter.convert(event(failure("id 2", "app.Foo", "app.Bar"), 5_000)));
+    assertTrue(converter.convert(event(failure("id 3", "app.Foo", "app.Bar"), 11_000))
+        .contains("at app.Foo.call(Source.java:1)"));
+  }
+
+  @Test
+  public void testPackagingFramesAreFiltered() {
+    String trace = converter("1 minutes", "1024", "org.mybatis.").convert(event(
+        failure("boom", "sun.reflect.GeneratedMethodAccessor1", "app.Foo",
+            "java.lang.reflect.Method", "org.springframework.aop.Advice", "org.mybatis.Mapper",
+            "app.Bar"), 0));
+    assertTrue(trace.contains("at sun.reflect.GeneratedMethodAccessor1.call(Source.java:1)"));
+    assertTrue(trace.contains("at app.Foo.call(Source.java:2)"));
+    assertTrue(trace.contains("... 3 filtered frames omitted"));
+    assertFalse(trace.contains("java.lang.reflect.Method"));
+    assertTrue(trace.contains("at app.Bar.call(Source.java:6)"));
+  }
+
+  @Test
+  public void testCausesAreRendered() {
+    Throwable cause = failure("root", "app.Dao");
+    Throwable throwable = new IllegalArgumentException("wrapped", cause);
+    throwable.setStackTrace(new StackTraceElement[] {
+        new StackTraceElement("app.Service", "call", "Service.java", 7)});
+    String trace = converter().convert(event(throwable, 0));
+    assertTrue(trace.contains("java.lang.IllegalArgumentException: wrapped"));
+    assertTrue(trace.contains("Caused by: java.lang.IllegalStateException: root"));
+    assertTrue(trace.contains("at app.Dao.call(Source.java:1)"));
+  }
+
+  @Test
+  public void testFingerprintCacheIsBounded() {
+    FingerprintThrowableConverter converter = converter("1 minutes", "2");
+    converter.convert(event(failure("a", "app.A"), 0));
+    converter.convert(event(failure("b", "app.B"), 0));
+    converter.convert(event(failure("c", "app.C"), 0));
+    assertTrue(converter.getCachedFingerprints() <= 2);
+    assertTrue(converter.convert(event(failure("c", "app.C"), 1)).contains("(see earlier)"));
+  }
+
+  @Test
+  public void testWithoutThrowable() {
+    assertEquals("", converter().convert(event(null, 0)));
+  }
+}
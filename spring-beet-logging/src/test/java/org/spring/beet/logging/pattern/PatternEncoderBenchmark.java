@@ -0,0 +1,99 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.pattern;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.CoreConstants;
+import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
+import com.carrotsearch.junitbenchmarks.BenchmarkRule;
+import com.carrotsearch.junitbenchmarks.annotation.AxisRange;
+import com.carrotsearch.junitbenchmarks.annotation.BenchmarkHistoryChart;
+import com.carrotsearch.junitbenchmarks.annotation.BenchmarkMethodChart;
+import com.carrotsearch.junitbenchmarks.annotation.LabelType;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+@AxisRange(min = 0, max = 5)
+@BenchmarkMethodChart(filePrefix = "benchmark-pattern-encoder")
+@BenchmarkHistoryChart(labelWith = LabelType.CUSTOM_KEY, maxRuns = 20)
+public class PatternEncoderBenchmark {
+
+  private static final String PATTERN = "[10.0.0.1] %d %p %cls{1.} [%t] %m%n";
+
+  @Rule
+  public TestRule benchmarkRun = new BenchmarkRule();
+
+  private PatternLayoutEncoder patternLayoutEncoder;
+  private CompiledPatternEncoder compiledPatternEncoder;
+  private LoggingEvent event;
+
+  @Before
+  public void before() {
+    LoggerContext context = new LoggerContext();
+    context.putObject(CoreConstants.PATTERN_RULE_REGISTRY,
+        Collections.singletonMap("cls", ClassNameConverter.class.getName()));
+    patternLayoutEncoder = new PatternLayoutEncoder();
+    patternLayoutEncoder.setContext(context);
+    patternLayoutEncoder.setCharset(StandardCharsets.UTF_8);
+    patternLayoutEncoder.setPattern(PATTERN);
+    patternLayoutEncoder.start();
+    compiledPatternEncoder = new CompiledPatternEncoder();
+    compiledPatternEncoder.setContext(context);
+    compiledPatternEncoder.setPattern(PATTERN);
+    compiledPatternEncoder.start();
+
+    event = new LoggingEvent();
+    event.setTimeStamp(System.currentTimeMillis());
+    event.setLevel(Level.INFO);
+    event.setLoggerName(PatternEncoderBenchmark.class.getName());
+    event.setThreadName("main");
+    event.setMessage("A VERY IMPORTANT LOG MESSAGE {}");
+    event.setArgumentArray(new Object[] {42});
+  }
+
+  @After
+  public void after() {
+    compiledPatternEncoder.stop();
+    patternLayoutEncoder.stop();
+  }
+
+  @Ignore
+  @BenchmarkOptions(benchmarkRounds = 10, warmupRounds = 2, concurrency = 8)
+  @Test
+  public void patternLayoutEncoder() {
+    for (int i = 0; i < 100000; ++i) {
+      patternLayoutEncoder.encode(event);
+    }
+  }
+
+  @Ignore
+  @BenchmarkOptions(benchmarkRounds = 10, warmupRounds = 2, concurrency = 8)
+  @Test
+  public void compiledPatternEncoder() {
+    for (int i = 0; i < 100000; ++i) {
+      compiledPatternEncoder.encode(event);
+    }
+  }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.sensitive;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.spring.beet.logging.RegexReplacement;
+
+public class ArgumentMaskerTest {
+
+  private final Masker regexMasker = regexMasker();
+
+  private static RegexMasker regexMasker() {
+    Map<Integer, RegexReplacement> rules = new HashMap<>();
+    rules.put(0, RegexReplacement.builder().regex("(\\d{3})\\d{4}(\\d{4})")
+        .replacement("$1****$2").build());
+    return RegexMasker.compile(rules);
+  }
+
+  @Test
+  public void testUntouchedArgumentsAreReturnedAsIs() {
+    Object[] args = new Object[]{"hello", 42, null};
+    assertSame(args, ArgumentMasker.mask(args, regexMasker));
+  }
+
+  @Test
+  public void testAnnotatedTypeIsRenderedWithoutRegex() {
+    Object[] args = new Object[]{new User("zhanglei", "18610099300", "110101199003077777"), "ok"};
+    Object[] masked = ArgumentMasker.mask(args, regexMasker);
+    assertEquals("User(name=zhanglei, mobile=18610099300, idCard=110***********7777)", masked[0]);
+    assertSame(args[1], masked[1]);
+  }
+
+  @Test
+  public void testNestedAnnotatedType() {
+    Order order = new Order();
+    order.user = new User("zhanglei", null, "1234");
+    order.amount = 10;
+    assertEquals("Order(user=User(name=zhanglei, mobile=null, idCard=****), amount=10)",
+        ArgumentMasker.mask(new Object[]{order}, regexMasker)[0]);
+  }
+
+  @Test
+  public void testPlainArgumentsUseRegexRules() {
+    Object[] args = new Object[]{"18610099300", 18610099300L, new String[]{"18610099300"}};
+    Object[] masked = ArgumentMasker.mask(args, regexMasker);
+    assertEquals("186****9300", masked[0]);
+    assertEquals("186****9300", masked[1]);
+    assertEquals("[186****9300]", masked[2]);
+  }
+
+  static class User {
+
+    private final String name;
+    private final String mobile;
+    @Sensitive(prefix = 3, suffix = 4)
+    private final String idCard;
+
+    User(String name, String mobile, String idCard) {
+      this.name = name;
+      this.mobile = mobile;
+      this.idCard = idCard;
+    }
+  }
+
+  static class Order {
+
+    private User user;
+    private int amount;
+  }
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.sensitive;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import org.junit.jupiter.api.Test;
+import org.spring.beet.logging.JsonKeyReplacement;
+
+public class JsonKeyMaskerTest {
+
+  private static JsonKeyMasker masker(boolean ignoreCase, String... keys) {
+    JsonKeyReplacement config = new JsonKeyReplacement();
+    config.setKeys(new LinkedHashSet<>(Arrays.asList(keys)));
+    config.setIgnoreCase(ignoreCase);
+    return JsonKeyMasker.compile(config);
+  }
+
+  @Test
+  public void testEmptyConfiguration() {
+    assertTrue(JsonKeyMasker.compile(new JsonKeyReplacement()).isEmpty());
+    assertTrue(JsonKeyMasker.compile(null).isEmpty());
+  }
+
+  @Test
+  public void testMaskValuesByKey() {
+    JsonKeyMasker masker = masker(false, "password", "idCard", "mobile");
+    String msg = "request {\"user\":\"zhanglei\", \"password\" : \"s3cr\\\"et\", "
+        + "\"mobile\":18610099300} done";
+    assertEquals("request {\"user\":\"zhanglei\", \"password\" : \"****\", "
+        + "\"mobile\":\"****\"} done", masker.mask(msg));
+  }
+
+  @Test
+  public void testNestedObjectsAndArrays() {
+    JsonKeyMasker masker = masker(false, "idCard");
+    assertEquals("{\"users\":[{\"idCard\":\"****\"},{\"idCard\":null}],\"idCard\":{\"a\":1}}",
+        masker.mask(
+            "{\"users\":[{\"idCard\":\"110101\"},{\"idCard\":null}],\"idCard\":{\"a\":1}}"));
+  }
+
+  @Test
+  public void testValuesThatLookLikeKeysAreNotMasked() {
+    JsonKeyMasker masker = masker(false, "password");
+    String msg = "{\"field\":\"password\",\"other\":\"x\"} and \"password\": outside json";
+    assertSame(msg, masker.mask(msg));
+  }
+
+  @Test
+  public void testIgnoreCase() {
+    assertEquals("{\"PassWord\":\"****\"}", masker(true, "password").mask("{\"PassWord\":\"x\"}"));
+    String msg = "{\"PassWord\":\"x\"}";
+    assertSame(msg, masker(false, "password").mask(msg));
+  }
+
+  @Test
+  public void testMalformedJsonIsLeftAlone() {
+    JsonKeyMasker masker = masker(false, "password");
+    String msg = "{\"password\":\"unterminated";
+    assertSame(msg, masker.mask(msg));
+  }
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.sensitive;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.spring.beet.logging.BudgetExceededAction;
+import org.spring.beet.logging.RegexReplacement;
+
+public class RegexMaskerTest {
+
+  private static RegexReplacement rule(String regex, String replacement) {
+    return RegexReplacement.builder().regex(regex).replacement(replacement).build();
+  }
+
+  @Test
+  public void testEmptyRules() {
+    assertTrue(RegexMasker.compile(new HashMap<>()).isEmpty());
+    assertTrue(RegexMasker.compile(null).isEmpty());
+  }
+
+  @Test
+  public void testUnmatchedMessageIsReturnedAsIs() {
+    Map<Integer, RegexReplacement> rules = new HashMap<>();
+    rules.put(0, rule("(\\d{3})\\d{4}(\\d{4})", "$1****$2"));
+    rules.put(1, rule("password=\\S+", "password=***"));
+    String msg = "nothing sensitive here";
+    assertSame(msg, RegexMasker.compile(rules).mask(msg));
+  }
+
+  @Test
+  public void testCombinedRules() {
+    Map<Integer, RegexReplacement> rules = new HashMap<>();
+    rules.put(0, rule("(\\d{3})\\d{4}(\\d{4})", "$1****$2"));
+    rules.put(1, rule("(password=)\\S+", "$1***"));
+    assertEquals("mobile 186****9300, password=*** done",
+        RegexMasker.compile(rules).mask("mobile 18610099300, password=secret done"));
+  }
+
+  @Test
+  public void testOverlappingRulesAreChained() {
+    Map<Integer, RegexReplacement> rules = new HashMap<>();
+    rules.put(1, rule("\\d+", "#"));
+    rules.put(0, rule("(\\d{3})\\d{4}(\\d{4})", "$1****$2"));
+    // like chained replaceAll calls, rule 1 also masks what rule 0 left over
+    assertEquals("#****# #", RegexMasker.compile(rules).mask("18610099300 42"));
+  }
+
+  @Test
+  public void testLaterRuleSeesEarlierReplacement() {
+    Map<Integer, RegexReplacement> rules = new HashMap<>();
+    rules.put(0, rule("secret", "token=secret"));
+    rules.put(1, rule("(token=)\\w+", "$1***"));
+    // the prefilter of rule 1 rejects the message but not the output of rule 0
+    assertEquals("token=*** and more", RegexMasker.compile(rules).mask("secret and more"));
+  }
+
+  @Test
+  public void testRulesBeyondSixtyFourAreApplied() {
+    Map<Integer, RegexReplacement> rules = new HashMap<>();
+    for (int i = 0; i < 70; i++) {
+      rules.put(i, rule("absent" + i + "\\d+", "***"));
+    }
+    rules.put(70, rule("(token=)\\w+", "$1***"));
+    assertEquals("token=*** and more", RegexMasker.compile(rules).mask("token=abc and more"));
+  }
+
+  @Test
+  public void testBackReferenceRuleRunsOnItsOwn() {
+    Map<Integer, RegexReplacement> rules = new HashMap<>();
+    rules.put(0, rule("(\\w)\\1", "<$1$1>"));
+    rules.put(1, rule("(\\d{3})\\d{4}(\\d{4})", "$1****$2"));
+    String msg = "aa 18610099300";
+    assertEquals(msg.replaceAll("(\\w)\\1", "<$1$1>")
+            .replaceAll("(\\d{3})\\d{4}(\\d{4})", "$1****$2"),
+        RegexMasker.compile(rules).mask(msg));
+  }
+
+  @Test
+  public void testEscapedReplacement() {
+    Map<Integer, RegexReplacement> rules = new HashMap<>();
+    rules.put(0, rule("token:(\\w+)", "token:\\$$1"));
+    rules.put(1, rule("key:\\w+", "key:\\\\"));
+    assertEquals("token:$abc key:\\", RegexMasker.compile(rules).mask("token:abc key:xyz"));
+  }
+
+  @Test
+  public void testPrefilterStatistics() {
+    Map<Integer, RegexReplacement> rules = new HashMap<>();
+    rules.put(0, rule("(\\d{3})\\d{4}(\\d{4})", "$1****$2"));
+    rules.put(1, rule("(password=)\\S+", "$1***"));
+    RegexMasker masker = RegexMasker.compile(rules);
+    masker.mask("nothing sensitive here");
+    assertEquals("password=***", masker.mask("password=secret"));
+    assertEquals("186****9300", masker.mask("18610099300"));
+    List<RuleStatistics> statistics = masker.getStatistics();
+    assertEquals(2, statistics.get(0).getSkipped());
+    assertEquals(1, statistics.get(0).getEvaluated());
+    assertEquals(2, statistics.get(1).getSkipped());
+    assertEquals(1, statistics.get(1).getEvaluated());
+  }
+
+  @Test
+  public void testGuardedRuleWithinBudget() {
+    Map<Integer, RegexReplacement> rules = new HashMap<>();
+    rules.put(0, RegexReplacement.builder().regex("(\\d{3})\\d{4}(\\d{4})")
+        .replacement("$1****$2").maxSteps(10_000L).build());
+    RegexMasker masker = RegexMasker.compile(rules);
+    assertEquals("mobile 186****9300", masker.mask("mobile 18610099300"));
+    assertEquals(0, masker.getStatistics().get(0).getBudgetExceeded());
+  }
+
+  @Test
+  public void testCatastrophicBacktrackingIsCutOff() {
+    String evil = "(.*a){10}b";
+    // contains the required literal "b", so the prefilter lets it through
+    StringBuilder msg = new StringBuilder("b token ");
+    for (int i = 0; i < 40; i++) {
+      msg.append('a');
+    }
+    Map<Integer, RegexReplacement> rules = new HashMap<>();
+    rules.put(0, RegexReplacement.builder().regex(evil).replacement("***").maxSteps(100_000L)
+        .build());
+    rules.put(1, rule("(token )a+", "$1---"));
+    RegexMasker masker = RegexMasker.compile(rules);
+    assertEquals("****** (logging.sensitive[0] exceeded its step budget)",
+        masker.mask(msg.toString()));
+    assertEquals(1, masker.getStatistics().get(0).getBudgetExceeded());
+
+    rules.put(0, RegexReplacement.builder().regex(evil).replacement("***").maxSteps(100_000L)
+        .onBudgetExceeded(BudgetExceededAction.SKIP_RULE).build());
+    masker = RegexMasker.compile(rules);
+    assertEquals("b token ---", masker.mask(msg.toString()));
+    assertEquals(1, masker.getStatistics().get(0).getBudgetExceeded());
+  }
+
+  @Test
+  public void testNonPositiveBudgetIsRejected() {
+    Map<Integer, RegexReplacement> rules = new HashMap<>();
+    rules.put(0, RegexReplacement.builder().regex("\\d+").replacement("#").maxSteps(0L).build());
+    assertThrows(IllegalArgumentException.class, () -> RegexMasker.compile(rules));
+  }
+
+  @Test
+  public void testInvalidReplacementIsRejected() {
+    Map<Integer, RegexReplacement> rules = new HashMap<>();
+    rules.put(0, rule("(\\d+)", "$2"));
+    assertThrows(IllegalArgumentException.class, () -> RegexMasker.compile(rules));
+  }
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.sensitive;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class RegexPrefilterTest {
+
+  @Test
+  public void testDigitRunAcrossGroups() {
+    RegexPrefilter prefilter = RegexPrefilter.analyze("(\\d{3})\\d{4}(\\d{4})");
+    assertEquals(11, prefilter.getMinDigitRun());
+    assertNull(prefilter.getRequiredLiteral());
+    assertTrue(prefilter.mayMatch("call 18610099300 now"));
+    assertFalse(prefilter.mayMatch("order 1861009930 shipped"));
+    assertFalse(prefilter.mayMatch("no digits at all"));
+  }
+
+  @Test
+  public void testRequiredLiteral() {
+    RegexPrefilter prefilter = RegexPrefilter.analyze("(password=)\\S+");
+    assertEquals("password=", prefilter.getRequiredLiteral());
+    assertTrue(prefilter.mayMatch("login password=secret"));
+    assertFalse(prefilter.mayMatch("login user=admin"));
+  }
+
+  @Test
+  public void testOptionalPartsAreNotRequired() {
+    assertEquals("ab", RegexPrefilter.analyze("abc?d").getRequiredLiteral());
+    assertEquals(6, RegexPrefilter.analyze("[0-9]{6,}-?\\d*").getMinDigitRun());
+  }
+
+  @Test
+  public void testUnsupportedConstructsAcceptEverything() {
+    assertTrue(RegexPrefilter.analyze("\\d{11}|token").isAcceptAll());
+    assertTrue(RegexPrefilter.analyze("(?i)token").isAcceptAll());
+    assertTrue(RegexPrefilter.analyze("\\x41\\d").isAcceptAll());
+  }
+
+  @Test
+  public void testHasDigitRun() {
+    assertTrue(RegexPrefilter.hasDigitRun("18610099300", 11));
+    assertTrue(RegexPrefilter.hasDigitRun("a 1234 b 12345678901", 11));
+    assertFalse(RegexPrefilter.hasDigitRun("1234567890 1234567890", 11));
+    assertFalse(RegexPrefilter.hasDigitRun("", 1));
+  }
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright © 2020 Lei Zhang (zhanglei@apache.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spring.beet.logging.tail;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.MDC;
+
+public class TailBufferTurboFilterTest {
+
+  private LoggerContext context;
+  private ListAppender<ILoggingEvent> appender;
+  private TailBufferTurboFilter filter;
+  private Logger logger;
+
+  @BeforeEach
+  public void setUp() {
+    context = new LoggerContext();
+    appender = new ListAppender<>();
+    appender.setContext(context);
+    appender.start();
+    Logger root = context.getLogger(Logger.ROOT_LOGGER_NAME);
+    root.setLevel(Level.INFO);
+    root.addAppender(appender);
+    filter = new TailBufferTurboFilter();
+    filter.setContext(context);
+    filter.setMaxEventsPerRequest(3);
+    filter.setMaxBufferedEvents(4);
+    filter.start();
+    context.addTurboFilter(filter);
+    logger = context.getLogger("tail");
+  }
+
+  @AfterEach
+  public void tearDown() {
+    MDC.clear();
+    context.stop();
+  }
+
+  private List<String> messages() {
+    return appender.list.stream().map(ILoggingEvent::getFormattedMessage)
+        .collect(Collectors.toList());
+  }
+
+  private void enter(String requestId) {
+    MDC.put(TailBufferTurboFilter.DEFAULT_MDC_KEY, requestId);
+    filter.open(requestId);
+  }
+
+  @Test
+  public void testUntrackedDebugIsDropped() {
+    logger.debug("debug");
+    logger.info("info");
+    assertEquals(1, appender.list.size());
+    assertEquals(0, filter.getBufferedEvents());
+  }
+
+  @Test
+  public void testSuccessfulRequestDiscardsBuffer() {
+    enter("r1");
+    assertTrue(logger.isDebugEnabled());
+    logger.debug("debug {}", 1);
+    logger.info("info");
+    filter.complete("r1", false);
+    assertEquals(1, appender.list.size());
+    assertEquals(1, filter.getDiscardedEvents());
+    assertEquals(0, filter.getBufferedEvents());
+  }
+
+  @Test
+  public void testErrorFlushesBufferInOrder() {
+    enter("r1");
+    logger.debug("d1");
+    logger.debug("d2");
+    logger.debug("d3");
+    logger.debug("d4");
+    logger.error("boom");
+    logger.debug("d5");
+    filter.complete("r1", false);
+    assertEquals(Arrays.asList("d2", "d3", "d4", "boom", "d5"), messages());
+    assertEquals(Level.DEBUG, appender.list.get(0).getLevel());
+    assertEquals("r1", appender.list.get(0).getMDCPropertyMap()
+        .get(TailBufferTurboFilter.DEFAULT_MDC_KEY));
+    assertEquals(1, filter.getEvictedEvents());
+    assertEquals(3, filter.getFlushedEvents());
+  }
+
+  @Test
+  public void testFailedRequestFlushesBuffer() {
+    enter("r1");
+    logger.debug("d1");
+    filter.complete("r1", true);
+    assertEquals(Collections.singletonList("d1"), messages());
+  }
+
+  @Test
+  public void testGeneratedIdsKeepRequestsApart() {
+    String first = filter.open();
+    String second = filter.open();
+    MDC.put(TailBufferTurboFilter.DEFAULT_MDC_KEY, first);
+    logger.debug("first");
+    MDC.put(TailBufferTurboFilter.DEFAULT_MDC_KEY, second);
+    logger.debug("second");
+    filter.complete(second, false);
+    filter.complete(first, true);
+    assertEquals(Collections.singletonList("first"), messages());
+  }
+
+  @Test
+  public void testGlobalLimitEvictsOldestRequest() {
+    enter("r1");
+    logger.debug("r1-1");
+    logger.debug("r1-2");
+    enter("r2");
+    logger.debug("r2-1");
+    logger.debug("r2-2");
+    logger.debug("r2-3");
+    assertEquals(1, filter.getEvictedRequests());
+    assertEquals(2, filter.getEvictedEvents());
+    assertEquals(3, filter.getBufferedEvents());
+    assertEquals(1, filter.getTrackedRequests());
+    logger.error("boom");
+    assertEquals(Arrays.asList("r2-1", "r2-2", "r2-3", "boom"), messages());
+  }
+}